@@ -15,11 +15,26 @@
  */
 package com.smartling.cms.gateway.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.CloseReason;
@@ -29,25 +44,52 @@ import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.Session;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.pool.PoolStats;
 import org.apache.log4j.Logger;
 
 import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+import com.smartling.cms.gateway.client.cache.CachedContent;
+import com.smartling.cms.gateway.client.cache.ContentCache;
+import com.smartling.cms.gateway.client.cache.StagedContent;
 import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.command.CircuitBreaker;
 import com.smartling.cms.gateway.client.command.CommandChannelHandler;
 import com.smartling.cms.gateway.client.command.DisconnectCommand;
 import com.smartling.cms.gateway.client.command.ErrorResponse;
 import com.smartling.cms.gateway.client.command.GetHtmlCommand;
 import com.smartling.cms.gateway.client.command.GetResourceCommand;
 import com.smartling.cms.gateway.client.command.ReconnectStrategy;
+import com.smartling.cms.gateway.client.internal.AdmissionController;
+import com.smartling.cms.gateway.client.internal.BufferedEntity;
 import com.smartling.cms.gateway.client.internal.CommandChannelSession;
 import com.smartling.cms.gateway.client.internal.CommandChannelTransport;
+import com.smartling.cms.gateway.client.internal.CommandExecutors;
 import com.smartling.cms.gateway.client.internal.CommandParser;
+import com.smartling.cms.gateway.client.internal.ContentDeduplicator;
+import com.smartling.cms.gateway.client.internal.Entities;
+import com.smartling.cms.gateway.client.internal.OutageQueue;
+import com.smartling.cms.gateway.client.internal.RequestCoalescer;
+import com.smartling.cms.gateway.client.internal.ResumableUploader;
 import com.smartling.cms.gateway.client.internal.ResponseStatusFuture;
+import com.smartling.cms.gateway.client.internal.UploadBatcher;
+import com.smartling.cms.gateway.client.internal.UploadBuffer;
+import com.smartling.cms.gateway.client.internal.UploadConnectionPool;
+import com.smartling.cms.gateway.client.internal.UploadRateLimiter;
+import com.smartling.cms.gateway.client.internal.UploadRetrier;
+import com.smartling.cms.gateway.client.internal.UploadScheduler;
+import com.smartling.cms.gateway.client.upload.CompressionPolicy;
 import com.smartling.cms.gateway.client.upload.FileUpload;
+import com.smartling.cms.gateway.client.upload.HtmlUpload;
 
 /**
  * Client to CMS Gateway service public API.
@@ -67,6 +109,11 @@ public class CmsGatewayClient implements Closeable
     public static final String DEFAULT_COMMAND_CHANNEL_ENDPOINT = "ws://localhost/cmd/websocket";
     public static final String DEFAULT_UPLOAD_CHANNEL_ENDPOINT = "http://localhost/upload";
 
+    static final int HTTP_INTERNAL_SERVER_ERROR = 500;
+    static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    static final int HTTP_GATEWAY_TIMEOUT = 504;
+    private static final int MAX_SHARED_CONTENT_SIZE = Integer.MAX_VALUE - 8;
+
     private static final Logger logger = Logger.getLogger(CmsGatewayClient.class);
 
     private final URI commandChannelUri;
@@ -75,20 +122,70 @@ public class CmsGatewayClient implements Closeable
     private final CloseableHttpAsyncClient uploadChannel;
     private final CommandParser commandParser;
     private final ReconnectStrategy reconnectStrategy;
+    private final Executor commandExecutor;
+    private final AdmissionController admissionController;
+    private final RequestCoalescer requestCoalescer;
+    private final ContentCache contentCache;
+    private final UploadConnectionPool uploadConnectionPool;
+    private final UploadRetrier uploadRetrier;
+    private final UploadBuffer uploadBuffer;
+    private final CompressionPolicy compressionPolicy;
+    private final UploadBatcher uploadBatcher;
+    private final ResumableUploader resumableUploader;
+    private final ContentDeduplicator contentDeduplicator;
+    private final UploadRateLimiter uploadRateLimiter;
+    private final UploadScheduler uploadScheduler;
+    private final int commandChannelSessionCount;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final boolean ownsCommandExecutor;
+    private final OutageQueue outageQueue;
+    private final List<CommandChannelTransportEndpoint> commandChannels = new CopyOnWriteArrayList<CommandChannelTransportEndpoint>();
+    private final AtomicInteger nextCommandChannel = new AtomicInteger();
     private ConnectionManager connectionManager;
-    private CommandChannelSession commandChannel;
     private CommandChannelHandler handler;
-    private boolean closed;
+    private volatile ScheduledFuture<?> coalescerExpiry;
+    private volatile boolean closed;
 
     public CmsGatewayClient(URI commandChannelUri, URI uploadChannelUri, CommandChannelTransport commandChannelTransport,
             CloseableHttpAsyncClient httpAsyncClient, CommandParser commandParser, ReconnectStrategy reconnectStrategy)
+    {
+        this(commandChannelUri, uploadChannelUri, commandChannelTransport, httpAsyncClient, commandParser, reconnectStrategy,
+                new Components());
+    }
+
+    /**
+     * Creates client with collaborators configured by {@link CmsGatewayClientBuilder}.
+     */
+    CmsGatewayClient(URI commandChannelUri, URI uploadChannelUri, CommandChannelTransport commandChannelTransport,
+            CloseableHttpAsyncClient httpAsyncClient, CommandParser commandParser, ReconnectStrategy reconnectStrategy,
+            Components components)
     {
         this.commandChannelUri = Validate.notNull(commandChannelUri);
         this.uploadChannelUri = Validate.notNull(uploadChannelUri);
         this.commandChannelTransport = Validate.notNull(commandChannelTransport);
-        uploadChannel = Validate.notNull(httpAsyncClient);
+        this.uploadRateLimiter = Validate.notNull(components.uploadRateLimiter);
+        uploadChannel = uploadRateLimiter.wrap(Validate.notNull(httpAsyncClient));
+        this.uploadScheduler = Validate.notNull(components.uploadScheduler);
         this.commandParser = Validate.notNull(commandParser);
         this.reconnectStrategy = Validate.notNull(reconnectStrategy);
+        this.commandExecutor = Validate.notNull(components.commandExecutor);
+        this.admissionController = Validate.notNull(components.admissionController);
+        this.requestCoalescer = Validate.notNull(components.requestCoalescer);
+        this.contentCache = Validate.notNull(components.contentCache);
+        this.uploadConnectionPool = Validate.notNull(components.uploadConnectionPool);
+        this.uploadRetrier = Validate.notNull(components.uploadRetrier);
+        this.uploadBuffer = Validate.notNull(components.uploadBuffer);
+        this.compressionPolicy = Validate.notNull(components.compressionPolicy);
+        this.uploadBatcher = Validate.notNull(components.uploadBatcher);
+        this.resumableUploader = Validate.notNull(components.resumableUploader);
+        this.contentDeduplicator = Validate.notNull(components.contentDeduplicator);
+        Validate.isTrue(components.commandChannelSessionCount > 0, "Command channel session count must be positive");
+        this.commandChannelSessionCount = components.commandChannelSessionCount;
+        this.scheduler = Validate.notNull(components.scheduler);
+        this.ownsScheduler = components.ownsScheduler;
+        this.ownsCommandExecutor = components.ownsCommandExecutor;
+        this.outageQueue = Validate.notNull(components.outageQueue);
     }
 
     public void connect(CommandChannelHandler commandChannelHandler) throws CmsGatewayClientException
@@ -96,8 +193,62 @@ public class CmsGatewayClient implements Closeable
         failIfClosed();
 
         handler = Validate.notNull(commandChannelHandler);
-        connectionManager = new ConnectionManager(reconnectStrategy.reset(), new CommandChannelTransportEndpoint());
-        commandChannel = connectionManager.reconnect();
+        connectionManager = new ConnectionManager(reconnectStrategy);
+        scheduleCoalescerExpiry();
+        try
+        {
+            for (int i = 0; i < commandChannelSessionCount; i++)
+            {
+                CommandChannelTransportEndpoint endpoint = new CommandChannelTransportEndpoint();
+                commandChannels.add(endpoint);
+                connectionManager.connect(endpoint);
+            }
+        }
+        catch (CmsGatewayClientException e)
+        {
+            for (CommandChannelTransportEndpoint endpoint : commandChannels)
+                IOUtils.closeQuietly(endpoint.session.getAndSet(null));
+            commandChannels.clear();
+            throw e;
+        }
+    }
+
+    private void scheduleCoalescerExpiry()
+    {
+        if (!requestCoalescer.isEnabled() || coalescerExpiry != null)
+            return;
+
+        long period = requestCoalescer.getTimeout();
+        coalescerExpiry = scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    failCoalescedCommands(requestCoalescer.expire(), HTTP_GATEWAY_TIMEOUT, "Command handler did not respond in time");
+                }
+                catch (Exception e)
+                {
+                    // Exception would cancel further expiry, so it is only logged.
+                    logger.error("Failed to expire coalesced commands", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Answers followers with error response, as their leader is never answered.
+     */
+    private void failCoalescedCommands(List<BaseCommand> followers, int httpCode, String message)
+    {
+        for (BaseCommand follower : followers)
+        {
+            ErrorResponse error = new ErrorResponse(follower);
+            error.setHttpCode(httpCode);
+            error.addErrorMessage(message);
+            sendToCommandChannel(error.toJSONString());
+        }
     }
 
     private void failIfClosed()
@@ -107,12 +258,24 @@ public class CmsGatewayClient implements Closeable
     }
 
     private URI getUploadChannelUri(String requestId) throws CmsGatewayClientException
+    {
+        return getUploadChannelUri(null, requestId);
+    }
+
+    /**
+     * @param path Path under upload channel endpoint, e.g. "batch", or null.
+     * @param requestId Request id, or null.
+     */
+    private URI getUploadChannelUri(String path, String requestId) throws CmsGatewayClientException
     {
         try
         {
-            return new URIBuilder(uploadChannelUri)
-                .addParameter("rid", requestId)
-                .build();
+            URIBuilder builder = new URIBuilder(uploadChannelUri);
+            if (path != null)
+                builder.setPath(StringUtils.removeEnd(uploadChannelUri.getPath(), "/") + "/" + path);
+            if (requestId != null)
+                builder.addParameter("rid", requestId);
+            return builder.build();
         }
         catch (URISyntaxException e)
         {
@@ -123,90 +286,884 @@ public class CmsGatewayClient implements Closeable
     public void close() throws IOException
     {
         closed = true;
+        ScheduledFuture<?> expiry = coalescerExpiry;
+        if (expiry != null)
+            expiry.cancel(false);
+        if (ownsCommandExecutor && commandExecutor instanceof ExecutorService)
+            ((ExecutorService)commandExecutor).shutdown();
+        uploadBatcher.close();
+        uploadConnectionPool.close();
+        if (ownsScheduler)
+            scheduler.shutdownNow();
         uploadChannel.close();
-        commandChannel.close();
+        outageQueue.fail(new CmsGatewayClientException("Client is closed"));
+        for (CommandChannelTransportEndpoint endpoint : commandChannels)
+        {
+            CommandChannelSession session = endpoint.session.getAndSet(null);
+            if (session != null)
+                session.close();
+        }
+    }
+
+    /**
+     * @return Command channel session to send next message on, picked round-robin among connected ones,
+     *      null during outage.
+     */
+    private CommandChannelSession getCommandChannel()
+    {
+        int count = commandChannels.size();
+        if (count == 0)
+            throw new IllegalStateException("Client is not connected");
+
+        int first = nextCommandChannel.getAndIncrement();
+        for (int i = 0; i < count; i++)
+        {
+            CommandChannelSession session = commandChannels.get(((first + i) % count + count) % count).session.get();
+            if (session != null)
+                return session;
+        }
+        return null;
+    }
+
+    private boolean isCommandChannelConnected()
+    {
+        for (CommandChannelTransportEndpoint endpoint : commandChannels)
+        {
+            if (endpoint.session.get() != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends message on a connected session, or passes it to outage queue while none is connected.
+     * Queued messages are sent once a session is authenticated.
+     */
+    private Future<Void> sendToCommandChannel(String text)
+    {
+        CommandChannelSession session = getCommandChannel();
+        if (session != null)
+            return session.send(text);
+
+        Future<Void> queued = outageQueue.add(text);
+        session = getAuthenticatedCommandChannel();
+        if (session != null)
+            outageQueue.flush(session);
+        return queued;
+    }
+
+    /**
+     * @return Authenticated command channel session to flush outage queue on, or null if there is none.
+     */
+    private CommandChannelSession getAuthenticatedCommandChannel()
+    {
+        for (CommandChannelTransportEndpoint endpoint : commandChannels)
+        {
+            CommandChannelSession session = endpoint.session.get();
+            if (session != null && endpoint.authenticated)
+                return session;
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of command channel sessions open right now.
+     */
+    public int getConnectedCommandChannelCount()
+    {
+        int count = 0;
+        for (CommandChannelTransportEndpoint endpoint : commandChannels)
+        {
+            if (endpoint.session.get() != null)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Average round trip time of heartbeat pings over connected command channel sessions
+     *      in milliseconds, 0 until measured.
+     */
+    public long getCommandChannelRoundTripTime()
+    {
+        long total = 0;
+        int count = 0;
+        for (CommandChannelTransportEndpoint endpoint : commandChannels)
+        {
+            CommandChannelSession session = endpoint.session.get();
+            long roundTripTime = session == null ? 0 : session.getRoundTripTime();
+            if (roundTripTime > 0)
+            {
+                total += roundTripTime;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @return Number of get commands passed to command handler.
+     */
+    public long getAdmittedCommandCount()
+    {
+        return admissionController.getAdmittedCount();
+    }
+
+    /**
+     * @return Number of get commands answered with 503 error because client was overloaded.
+     */
+    public long getRejectedCommandCount()
+    {
+        return admissionController.getRejectedCount();
+    }
+
+    /**
+     * @return Number of get commands queued or being handled right now.
+     */
+    public int getInFlightCommandCount()
+    {
+        return admissionController.getInFlightCount();
+    }
+
+    /**
+     * @return Upload connections leased, pending lease and available in pool.
+     */
+    public PoolStats getUploadConnectionStats()
+    {
+        return uploadConnectionPool.getStats();
     }
 
+    /**
+     * @return Number of failed uploads sent again.
+     */
+    public long getUploadRetryCount()
+    {
+        return uploadRetrier.getRetryCount();
+    }
+
+    /**
+     * @return Number of times large uploads were resumed after an error.
+     */
+    public long getUploadResumeCount()
+    {
+        return resumableUploader.getResumeCount();
+    }
+
+    /**
+     * @return Number of uploads skipped as gateway already held their content.
+     */
+    public long getDeduplicatedUploadCount()
+    {
+        return contentDeduplicator.getSkippedCount();
+    }
+
+    /**
+     * @return Number of times an upload or its content was held back by upload rate limits.
+     */
+    public long getUploadThrottleCount()
+    {
+        return uploadRateLimiter.getThrottleCount();
+    }
+
+    /**
+     * @return Total time uploads were held back by upload rate limits, milliseconds.
+     */
+    public long getUploadThrottleWaitTime()
+    {
+        return uploadRateLimiter.getThrottleWaitTime();
+    }
+
+    /**
+     * @return Current maximum number of uploads in flight, 0 if uploads are not limited.
+     */
+    public int getUploadConcurrencyLimit()
+    {
+        return uploadScheduler.getLimit();
+    }
+
+    /**
+     * @return Number of uploads waiting for upload scheduler to start them.
+     */
+    public int getQueuedUploadCount()
+    {
+        return uploadScheduler.getQueuedCount();
+    }
+
+    /**
+     * @return Number of batch upload requests sent.
+     */
+    public long getUploadBatchCount()
+    {
+        return uploadBatcher.getBatchCount();
+    }
+
+    public ContentCache getContentCache()
+    {
+        return contentCache;
+    }
+
+    /**
+     * Sends error response to command channel. While command channel is reconnecting,
+     * the response is queued or dropped, as configured by {@link com.smartling.cms.gateway.client.command.OutagePolicy}.
+     * Use {@link #sendAsync(ErrorResponse)} to learn whether it was sent.
+     */
     public void send(ErrorResponse error)
+    {
+        sendAsync(error);
+    }
+
+    /**
+     * Sends error response to command channel. While command channel is reconnecting,
+     * the response is queued or fails right away, as configured by {@link com.smartling.cms.gateway.client.command.OutagePolicy}.
+     * @return Future completed when response is sent.
+     */
+    public Future<Void> sendAsync(ErrorResponse error)
     {
         failIfClosed();
-        commandChannel.send(error.toJSONString());
+        return sendErrorResponse(error);
     }
 
+    private Future<Void> sendErrorResponse(ErrorResponse error)
+    {
+        Future<Void> sent = sendToCommandChannel(error.toJSONString());
+
+        for (BaseCommand follower : requestCoalescer.complete(error.getRequest()))
+            sendToCommandChannel(error.forRequest(follower).toJSONString());
+        return sent;
+    }
+
+    /**
+     * @return Number of attempts made to reconnect dropped command channel session, 0 while none is dropped.
+     */
+    public int getReconnectAttemptCount()
+    {
+        return reconnectStrategy.getAttemptCount();
+    }
+
+    /**
+     * @return Time the latest reconnect attempt is scheduled for, milliseconds since epoch, 0 while no session is dropped.
+     */
+    public long getNextReconnectTime()
+    {
+        return reconnectStrategy.getNextAttemptTime();
+    }
+
+    public CircuitBreaker.State getReconnectCircuitState()
+    {
+        return reconnectStrategy.getCircuitState();
+    }
+
+    /**
+     * @return Number of messages waiting for command channel to be reconnected.
+     */
+    public int getQueuedMessageCount()
+    {
+        return outageQueue.size();
+    }
+
+    /**
+     * Uploads response content. Content given as a file is sent to coalesced commands
+     * from the same file and is not cached, as it is already on local disk.
+     * Upload result is read from the server response when returned future is queried,
+     * or as soon as upload completes when content is cached, failed uploads are retried
+     * or small uploads are batched.
+     */
     public Future<ResponseStatus<Void>> send(FileUpload response) throws CmsGatewayClientException, IOException
     {
         failIfClosed();
+        FutureCallback<ResponseStatus<Void>> callback = shareUpload(response, null);
+
+        if (callback != null || uploadRetrier.isEnabled() || uploadBatcher.isEnabled() || contentDeduplicator.isEnabled()
+                || uploadScheduler.isEnabled() || isResumable(response))
+            return upload(response, callback);
+
+        return new ResponseStatusFuture(post(response, null));
+    }
+
+    /**
+     * Uploads response content without blocking a thread until upload completes.
+     * Upload result is read on upload channel I/O thread, then returned future
+     * is completed and callback is called.
+     *
+     * {@code
+     *  client.send(upload, new FutureCallback<ResponseStatus<Void>>() {
+     *      public void completed(ResponseStatus<Void> status) { ... }
+     *      public void failed(Exception e) { ... }
+     *      public void cancelled() { ... }
+     *  });
+     * }
+     *
+     * @param callback Called on upload channel I/O thread with result of the last attempt,
+     *      must not block. May be null.
+     */
+    public Future<ResponseStatus<Void>> send(FileUpload response, FutureCallback<ResponseStatus<Void>> callback) throws CmsGatewayClientException, IOException
+    {
+        failIfClosed();
+        return upload(response, shareUpload(response, callback));
+    }
+
+    /**
+     * Uploads the same content for coalesced commands. Streamed content is read into memory
+     * only as far as content cache may hold it in heap, unless coalesced commands need a copy of it.
+     * @return Callback caching the content once upload succeeds, then calling the given callback.
+     */
+    private FutureCallback<ResponseStatus<Void>> shareUpload(FileUpload response, FutureCallback<ResponseStatus<Void>> callback)
+            throws CmsGatewayClientException, IOException
+    {
+        BaseCommand request = response.getRequest();
+        List<BaseCommand> followers = requestCoalescer.complete(request);
+        if (response.getContentFile() != null)
+        {
+            for (BaseCommand follower : followers)
+            {
+                FileUpload upload = response.forRequest(follower);
+                upload.setContentFile(response.getContentFile());
+                upload(upload, new BackgroundUploadCallback(follower));
+            }
+            return callback;
+        }
+
+        if (followers.isEmpty())
+            return contentCache.isEnabled() ? cacheOnSuccess(response, callback) : callback;
+
+        byte[] content = bufferContent(response, MAX_SHARED_CONTENT_SIZE);
+        if (content == null)
+        {
+            failCoalescedCommands(followers, HTTP_INTERNAL_SERVER_ERROR, "Content is too large to share with coalesced commands");
+            return callback;
+        }
+
+        for (BaseCommand follower : followers)
+        {
+            FileUpload upload = response.forRequest(follower);
+            upload.setContent(content);
+            upload(upload, new BackgroundUploadCallback(follower));
+        }
+        return contentCache.isEnabled() ? new CachingUploadCallback(response, content, callback) : callback;
+    }
+
+    /**
+     * Reads content into memory as far as content cache may hold it in heap. Larger content the disk
+     * store may hold is written to a file of the store while it is read, and uploaded from the file.
+     * @return Callback caching the content once upload succeeds, then calling the given callback.
+     */
+    private FutureCallback<ResponseStatus<Void>> cacheOnSuccess(FileUpload response, FutureCallback<ResponseStatus<Void>> callback)
+            throws IOException
+    {
+        byte[] content = bufferContent(response, contentCache.getMaxHeapEntrySize());
+        if (content != null)
+            return new CachingUploadCallback(response, content, callback);
+        if (!contentCache.isStoredOnDisk(response))
+            return callback;
+
+        StagedContent staged = contentCache.stage(response.getInputStream());
+        response.setContentFile(staged.getFile());
+        return new CachingUploadCallback(response, staged, callback);
+    }
+
+    /**
+     * Reads upload content into memory, if it is not larger than maximum size.
+     * Streamed content is then replaced with the content read, or with a stream giving
+     * the part read followed by the rest of content; repeatable content is kept as it is.
+     * @return Content, or null if it is larger than maximum size.
+     */
+    private static byte[] bufferContent(FileUpload response, long maxSize) throws IOException
+    {
+        InputStream content = response.getInputStream();
+        Validate.notNull(content);
+        int limit = (int)Math.min(maxSize, MAX_SHARED_CONTENT_SIZE);
+        byte[] head = Entities.readUpTo(content, limit);
+        if (response.isRepeatable())
+        {
+            content.close();
+            return head.length > limit ? null : head;
+        }
+
+        if (head.length > limit)
+        {
+            response.setContentStream(new SequenceInputStream(new ByteArrayInputStream(head), content));
+            return null;
+        }
+
+        response.setContent(head);
+        return head;
+    }
+
+    private void sendCachedContent(BaseCommand request, CachedContent content)
+    {
+        try
+        {
+            upload(content.toUpload(request), new BackgroundUploadCallback(request, content));
+        }
+        catch (Exception e)
+        {
+            content.release();
+            handler.onError(e);
+        }
+    }
+
+    /**
+     * Buffers streamed content and computes its digest on the calling thread, then starts upload
+     * when upload scheduler gives it a slot, so that threads starting uploads only wait for I/O.
+     */
+    private Future<ResponseStatus<Void>> upload(final FileUpload response, FutureCallback<ResponseStatus<Void>> callback) throws CmsGatewayClientException, IOException
+    {
+        HttpEntity entity = isResumable(response) ? null : response.getHttpEntity();
+        final ContentDeduplicator.Content content;
+        if (entity == null)
+        {
+            content = null;
+        }
+        else if (entity.isRepeatable() || !uploadBuffer.isEnabled())
+        {
+            content = prepareDeduplication(response, entity);
+        }
+        else
+        {
+            BufferedEntity buffered = uploadBuffer.buffer(entity);
+            try
+            {
+                content = prepareDeduplication(response, buffered);
+            }
+            catch (IOException e)
+            {
+                buffered.release();
+                throw e;
+            }
+            entity = buffered;
+            callback = UploadBuffer.releaseOnCompletion(buffered, callback);
+        }
+
+        final HttpEntity body = content != null ? content.getEntity() : entity;
+        if (!uploadScheduler.isEnabled())
+            return startUpload(response, body, content, callback);
+
+        return uploadScheduler.submit(response.getPriority(), new UploadScheduler.Upload()
+        {
+            @Override
+            public void start(FutureCallback<ResponseStatus<Void>> callback) throws Exception
+            {
+                startUpload(response, body, content, callback);
+            }
+        }, callback);
+    }
+
+    /**
+     * @return Content with its digest, or null if upload is not deduplicated.
+     */
+    private ContentDeduplicator.Content prepareDeduplication(FileUpload response, HttpEntity entity) throws IOException
+    {
+        if (response instanceof HtmlUpload || !contentDeduplicator.isEnabled())
+            return null;
+        return contentDeduplicator.prepare(entity);
+    }
+
+    private Future<ResponseStatus<Void>> startUpload(final FileUpload response, HttpEntity entity, ContentDeduplicator.Content content,
+            FutureCallback<ResponseStatus<Void>> callback) throws CmsGatewayClientException, IOException
+    {
+        if (content == null)
+            return upload(response, entity, callback);
+
+        BaseCommand request = response.getRequest();
+        return contentDeduplicator.execute(uploadChannel, getUploadChannelUri("digest", request.getId()), request.getUri(),
+                content, new ContentDeduplicator.BodyUpload()
+                {
+                    @Override
+                    public Future<ResponseStatus<Void>> send(HttpEntity entity, FutureCallback<ResponseStatus<Void>> callback)
+                            throws IOException, CmsGatewayClientException
+                    {
+                        return upload(response, entity, callback);
+                    }
+                }, callback);
+    }
+
+    private Future<ResponseStatus<Void>> upload(FileUpload response, HttpEntity entity, FutureCallback<ResponseStatus<Void>> callback) throws CmsGatewayClientException, IOException
+    {
+        if (isResumable(response))
+        {
+            URI partUri = getUploadChannelUri("part", response.getRequest().getId());
+            return resumableUploader.execute(uploadChannel, partUri, response.getContentFile(), response.getContentType(), callback);
+        }
+
+        if (!(response instanceof HtmlUpload) && uploadBatcher.isEnabled())
+        {
+            entity = uploadBatcher.prepare(entity);
+            if (uploadBatcher.accepts(entity))
+                return uploadBatcher.execute(uploadChannel, getUploadChannelUri("batch", null), response.getRequest().getId(), entity, callback);
+        }
+
+        URI uploadUri = getUploadChannelUri(response.getRequest().getId());
+        return uploadRetrier.execute(uploadChannel, uploadUri, compressionPolicy.apply(response, entity), callback);
+    }
 
+    /**
+     * @return true if upload is sent in parts. HTML content is sent in a JSON envelope, so never in parts.
+     */
+    private boolean isResumable(FileUpload response)
+    {
+        return !(response instanceof HtmlUpload) && resumableUploader.accepts(response.getContentFile());
+    }
+
+    private Future<HttpResponse> post(FileUpload response, FutureCallback<HttpResponse> callback) throws CmsGatewayClientException, IOException
+    {
         String requestId = response.getRequest().getId();
         URI uploadUri = getUploadChannelUri(requestId);
         HttpPost post = new HttpPost(uploadUri);
-        post.setEntity(response.getHttpEntity());
-        return new ResponseStatusFuture(uploadChannel.execute(post, null));
+        post.setEntity(compressionPolicy.apply(response, response.getHttpEntity()));
+        return uploadChannel.execute(post, callback);
+    }
+
+
+    /**
+     * Reports failed uploads nobody waits for to command handler, and releases cached content they were sent from.
+     */
+    private class BackgroundUploadCallback implements FutureCallback<ResponseStatus<Void>>
+    {
+        private final BaseCommand request;
+        private final CachedContent content;
+
+        private BackgroundUploadCallback(BaseCommand request)
+        {
+            this(request, null);
+        }
+
+        private BackgroundUploadCallback(BaseCommand request, CachedContent content)
+        {
+            this.request = request;
+            this.content = content;
+        }
+
+        @Override
+        public void completed(ResponseStatus<Void> status)
+        {
+            release();
+            if (Status.findByName(status.getCode()) != Status.SUCCESS)
+                handler.onError(new CmsGatewayClientException(String.format("Upload failed (%s) for request %s", status.getCode(), request.getId())));
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            release();
+            handler.onError(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            release();
+        }
+
+        private void release()
+        {
+            if (content != null)
+                content.release();
+        }
+    }
+
+
+    /**
+     * Puts uploaded content into content cache once server accepts it. Cache may write content to disk,
+     * so it is put on the scheduler rather than on upload channel I/O thread. Staged content
+     * of an upload which is not accepted is discarded.
+     */
+    private class CachingUploadCallback implements FutureCallback<ResponseStatus<Void>>
+    {
+        private final FileUpload response;
+        private final byte[] content;
+        private final StagedContent staged;
+        private final FutureCallback<ResponseStatus<Void>> callback;
+
+        private CachingUploadCallback(FileUpload response, byte[] content, FutureCallback<ResponseStatus<Void>> callback)
+        {
+            this(response, content, null, callback);
+        }
+
+        private CachingUploadCallback(FileUpload response, StagedContent staged, FutureCallback<ResponseStatus<Void>> callback)
+        {
+            this(response, null, staged, callback);
+        }
+
+        private CachingUploadCallback(FileUpload response, byte[] content, StagedContent staged, FutureCallback<ResponseStatus<Void>> callback)
+        {
+            this.response = response;
+            this.content = content;
+            this.staged = staged;
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(ResponseStatus<Void> status)
+        {
+            if (Status.findByName(status.getCode()) == Status.SUCCESS)
+                cache();
+            else
+                discard();
+
+            if (callback != null)
+                callback.completed(status);
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            discard();
+            if (callback != null)
+                callback.failed(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            discard();
+            if (callback != null)
+                callback.cancelled();
+        }
+
+        private void cache()
+        {
+            try
+            {
+                scheduler.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (staged != null)
+                            contentCache.put(response.getRequest(), response, staged);
+                        else
+                            contentCache.put(response.getRequest(), response, content);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                discard();
+                logger.debug("Not caching content of closed client", e);
+            }
+        }
+
+        private void discard()
+        {
+            if (staged != null)
+                staged.discard();
+        }
     }
 
 
-    private class ConnectionManager
+    /**
+     * Connects command channel sessions. Client connects them on the calling thread, while dropped sessions
+     * are reconnected by tasks on reconnect scheduler, so no thread waits between attempts. Dropped sessions
+     * take turns using reconnect strategy, while the other sessions keep serving.
+     */
+    private class ConnectionManager implements Runnable
     {
         private final ReconnectStrategy reconnectStrategy;
-        private final CommandChannelTransportEndpoint commandChannelTransportEndpoint;
+        private final Queue<CommandChannelTransportEndpoint> dropped = new ArrayDeque<CommandChannelTransportEndpoint>();
+        private boolean reconnecting;
 
-        public ConnectionManager(ReconnectStrategy reconnectStrategy, CommandChannelTransportEndpoint commandChannelTransportEndpoint)
+        public ConnectionManager(ReconnectStrategy reconnectStrategy)
         {
             this.reconnectStrategy = reconnectStrategy;
-            this.commandChannelTransportEndpoint = commandChannelTransportEndpoint;
         }
 
-        public CommandChannelSession reconnect() throws CmsGatewayClientException
+        public void connect(CommandChannelTransportEndpoint endpoint) throws CmsGatewayClientException
         {
             uploadChannel.start();
-            do
+            synchronized (reconnectStrategy)
+            {
+                reconnectStrategy.reset();
+                do
+                {
+                    try
+                    {
+                        reconnectStrategy.delay();
+                        endpoint.onConnected(commandChannelTransport.connectToServer(endpoint, commandChannelUri));
+                        reconnectStrategy.observeSuccess();
+                        return;
+                    }
+                    catch (IOException e)
+                    {
+                        reconnectStrategy.observeError(e);
+                        logger.warn("Failed on connect", e);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        reconnectStrategy.observeError(e);
+                        logger.debug("Interrupted connect", e);
+                    }
+                }
+                while (reconnectStrategy.shouldRetry());
+
+                throw new CmsGatewayClientException(reconnectStrategy.getLastError());
+            }
+        }
+
+        /**
+         * Schedules reconnect of dropped session.
+         */
+        public void reconnectLater(CommandChannelTransportEndpoint endpoint)
+        {
+            synchronized (this)
+            {
+                dropped.add(endpoint);
+                if (reconnecting)
+                    return;
+                reconnecting = true;
+            }
+
+            long delay;
+            synchronized (reconnectStrategy)
+            {
+                reconnectStrategy.reset();
+                delay = reconnectStrategy.nextDelay();
+            }
+            schedule(delay);
+        }
+
+        /**
+         * Makes one attempt to reconnect the first dropped session.
+         */
+        @Override
+        public void run()
+        {
+            CommandChannelTransportEndpoint endpoint;
+            synchronized (this)
+            {
+                endpoint = dropped.peek();
+            }
+
+            if (closed)
+            {
+                stop();
+                return;
+            }
+
+            Exception error;
+            synchronized (reconnectStrategy)
             {
                 try
                 {
-                    reconnectStrategy.delay();
-                    CommandChannelSession session = commandChannelTransport.connectToServer(commandChannelTransportEndpoint, commandChannelUri);
-                    reconnectStrategy.reset();
-                    return session;
+                    endpoint.onConnected(commandChannelTransport.connectToServer(endpoint, commandChannelUri));
+                    reconnectStrategy.observeSuccess();
+                    next();
+                    return;
                 }
                 catch (IOException e)
                 {
                     reconnectStrategy.observeError(e);
                     logger.warn("Failed on reconnect", e);
                 }
-                catch (InterruptedException e)
+                catch (Exception e)
                 {
                     reconnectStrategy.observeError(e);
-                    logger.debug("Interrupted reconnect", e);
                 }
+
+                if (reconnectStrategy.shouldRetry())
+                {
+                    schedule(reconnectStrategy.nextDelay());
+                    return;
+                }
+
+                error = reconnectStrategy.getLastError();
+                reconnectStrategy.reset();
             }
-            while (reconnectStrategy.shouldRetry());
 
-            throw new CmsGatewayClientException(reconnectStrategy.getLastError());
+            giveUp(error);
+            next();
+        }
+
+        private void schedule(long delay)
+        {
+            try
+            {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                stop();
+                giveUp(e);
+            }
+        }
+
+        /**
+         * Goes on to the next dropped session, if any.
+         */
+        private void next()
+        {
+            synchronized (this)
+            {
+                dropped.poll();
+                if (dropped.isEmpty())
+                {
+                    reconnecting = false;
+                    return;
+                }
+            }
+            schedule(0);
+        }
+
+        private synchronized void stop()
+        {
+            dropped.clear();
+            reconnecting = false;
+        }
+
+        private void giveUp(Exception error)
+        {
+            handler.onError(error instanceof CmsGatewayClientException ? error : new CmsGatewayClientException(error));
+            if (!isCommandChannelConnected())
+                handler.onDisconnect();
         }
     }
 
 
+    /**
+     * Handles one command channel session. Handler is told of connect when the first session
+     * is authenticated, and of disconnect when the last one is closed.
+     */
     @ClientEndpoint
     public class CommandChannelTransportEndpoint
     {
+        private final AtomicReference<CommandChannelSession> session = new AtomicReference<CommandChannelSession>();
+        private volatile boolean authenticated;
+
+        /**
+         * Keeps the new session, unless client was closed while it was connecting.
+         * Queued messages are sent once the session is authenticated.
+         */
+        private void onConnected(CommandChannelSession commandChannel)
+        {
+            session.set(commandChannel);
+            if (closed && session.compareAndSet(commandChannel, null))
+            {
+                try
+                {
+                    commandChannel.close();
+                }
+                catch (IOException e)
+                {
+                    logger.debug("Failed to close session connected by closed client", e);
+                }
+            }
+        }
+
+        /**
+         * Schedules reconnect unless session was closed normally, without waiting for it.
+         */
         @OnClose
         public void onClose(Session session, CloseReason reason)
         {
-            if (reason.getCloseCode().equals(CloseCodes.NORMAL_CLOSURE))
+            this.session.set(null);
+            authenticated = false;
+            if (closed || reason.getCloseCode().equals(CloseCodes.NORMAL_CLOSURE))
             {
-                handler.onDisconnect();
+                if (!isCommandChannelConnected())
+                    handler.onDisconnect();
                 return;
             }
 
-            try
-            {
-                connectionManager.reconnect();
-            }
-            catch (Exception e)
-            {
-                handler.onError(e);
-                handler.onDisconnect();
-            }
+            connectionManager.reconnectLater(this);
         }
 
         @OnError
@@ -243,17 +1200,102 @@ public class CmsGatewayClient implements Closeable
                 handler.onError(new CmsGatewayClientAuthenticationException());
                 break;
             case AUTHENTICATION_SUCCESS:
-                handler.onConnect();
+                onAuthenticated();
                 break;
             case GET_HTML:
-                handler.onGetHtmlCommand((GetHtmlCommand) request);
-                break;
             case GET_RESOURCE:
-                handler.onGetResourceCommand((GetResourceCommand) request);
+                dispatch(request);
                 break;
             }
         }
 
+        private void onAuthenticated()
+        {
+            boolean first;
+            synchronized (commandChannels)
+            {
+                first = true;
+                for (CommandChannelTransportEndpoint endpoint : commandChannels)
+                    first &= !endpoint.authenticated;
+                authenticated = true;
+            }
+
+            CommandChannelSession commandChannel = session.get();
+            if (commandChannel != null)
+                outageQueue.flush(commandChannel);
+
+            if (first)
+                handler.onConnect();
+        }
+
+        private void dispatch(final BaseCommand request)
+        {
+            CachedContent cachedContent = contentCache.get(request);
+            if (cachedContent != null)
+            {
+                sendCachedContent(request, cachedContent);
+                return;
+            }
+
+            if (!requestCoalescer.join(request))
+                return;
+
+            if (!admissionController.tryAdmit())
+            {
+                rejectCommand(request, "too many commands in flight");
+                return;
+            }
+
+            try
+            {
+                commandExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        handleGetCommand(request);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                admissionController.reject();
+                rejectCommand(request, "command queue is full");
+            }
+        }
+
+        private void handleGetCommand(BaseCommand request)
+        {
+            try
+            {
+                if (request.getType() == BaseCommand.Type.GET_HTML)
+                    handler.onGetHtmlCommand((GetHtmlCommand) request);
+                else
+                    handler.onGetResourceCommand((GetResourceCommand) request);
+            }
+            catch (Throwable e)
+            {
+                handler.onError(e);
+                failCoalescedCommands(requestCoalescer.complete(request), HTTP_INTERNAL_SERVER_ERROR,
+                        "Command handler failed: " + e.getMessage());
+            }
+            finally
+            {
+                admissionController.release();
+            }
+        }
+
+        private void rejectCommand(BaseCommand request, String reason)
+        {
+            ErrorResponse error = new ErrorResponse(request);
+            error.setHttpCode(HTTP_SERVICE_UNAVAILABLE);
+            error.setRetryAfter(admissionController.getRetryAfterSeconds());
+            error.addErrorMessage("Client is overloaded: " + reason);
+            sendErrorResponse(error);
+
+            handler.onError(new CmsGatewayClientException(String.format("Rejected command %s: %s", request.getId(), reason)));
+        }
+
         private void closeSession(Session session, CloseReason closeReason)
         {
             try
@@ -266,4 +1308,102 @@ public class CmsGatewayClient implements Closeable
         }
     }
 
+    /**
+     * Collaborators of the client, set by {@link CmsGatewayClientBuilder}. Defaults add no behaviour.
+     */
+    static class Components
+    {
+        /**
+         * Executor to run command handler calls for get commands on.
+         * Owned by the client: shut down on {@link #close()} if it is an {@link ExecutorService}.
+         */
+        Executor commandExecutor = CommandExecutors.directExecutor();
+
+        /**
+         * Limits get commands in flight, commands over limit are answered with 503 error.
+         */
+        AdmissionController admissionController = AdmissionController.unlimited();
+
+        /**
+         * Answers concurrent get commands for the same URI with a single handler call.
+         */
+        RequestCoalescer requestCoalescer = RequestCoalescer.disabled();
+
+        /**
+         * Answers get commands with previously uploaded content without calling handler.
+         */
+        ContentCache contentCache = ContentCache.disabled();
+
+        /**
+         * Connection pool of the HTTP client, closed on {@link #close()}.
+         */
+        UploadConnectionPool uploadConnectionPool = UploadConnectionPool.unmanaged();
+
+        /**
+         * Sends failed uploads again, closed on {@link #close()}.
+         */
+        UploadRetrier uploadRetrier = UploadRetrier.disabled();
+
+        /**
+         * Makes streamed upload content repeatable, so that it can be sent again.
+         */
+        UploadBuffer uploadBuffer = UploadBuffer.disabled();
+
+        /**
+         * Selects uploads sent gzip-compressed.
+         */
+        CompressionPolicy compressionPolicy = CompressionPolicy.none();
+
+        /**
+         * Sends small resource uploads together, flushed on {@link #close()}.
+         */
+        UploadBatcher uploadBatcher = UploadBatcher.disabled();
+
+        /**
+         * Sends large files in parts, closed on {@link #close()}.
+         */
+        ResumableUploader resumableUploader = ResumableUploader.disabled();
+
+        /**
+         * Skips uploading resources gateway already holds.
+         */
+        ContentDeduplicator contentDeduplicator = ContentDeduplicator.disabled();
+
+        /**
+         * Limits bandwidth and request rate of the HTTP client, closed on {@link #close()}.
+         */
+        UploadRateLimiter uploadRateLimiter = UploadRateLimiter.unlimited();
+
+        /**
+         * Limits uploads in flight, starting waiting ones by priority. Closed on {@link #close()}.
+         */
+        UploadScheduler uploadScheduler = UploadScheduler.unlimited();
+
+        /**
+         * Number of command channel sessions opened in parallel, each reconnected on its own.
+         */
+        int commandChannelSessionCount = 1;
+
+        /**
+         * Scheduler to reconnect dropped sessions on, also given to upload collaborators
+         * for their timed tasks.
+         */
+        ScheduledExecutorService scheduler = CommandExecutors.sharedScheduler();
+
+        /**
+         * Whether scheduler is shut down on {@link #close()}, after collaborators are closed.
+         */
+        boolean ownsScheduler;
+
+        /**
+         * Whether command executor is shut down on {@link #close()}.
+         */
+        boolean ownsCommandExecutor;
+
+        /**
+         * Holds or fails messages sent to command channel while no session is connected.
+         */
+        OutageQueue outageQueue = OutageQueue.failFast();
+    }
+
 }
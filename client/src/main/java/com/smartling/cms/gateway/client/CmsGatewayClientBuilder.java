@@ -1,32 +1,110 @@
 package com.smartling.cms.gateway.client;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.websocket.ContainerProvider;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
 
+import com.smartling.cms.gateway.client.cache.ContentCache;
+import com.smartling.cms.gateway.client.command.CircuitBreaker;
+import com.smartling.cms.gateway.client.command.CommandOverflowPolicy;
+import com.smartling.cms.gateway.client.command.OutagePolicy;
+import com.smartling.cms.gateway.client.command.ReconnectPolicies;
+import com.smartling.cms.gateway.client.command.ReconnectPolicy;
 import com.smartling.cms.gateway.client.command.ReconnectStrategy;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+import com.smartling.cms.gateway.client.internal.CommandExecutors;
+import com.smartling.cms.gateway.client.internal.AdmissionController;
+import com.smartling.cms.gateway.client.internal.AimdLimit;
+import com.smartling.cms.gateway.client.internal.CappedKeepAliveStrategy;
 import com.smartling.cms.gateway.client.internal.CommandChannelTransport;
 import com.smartling.cms.gateway.client.internal.CommandChannelWebsocketTransport;
 import com.smartling.cms.gateway.client.internal.CommandParser;
+import com.smartling.cms.gateway.client.internal.ContentDeduplicator;
+import com.smartling.cms.gateway.client.internal.OutageQueue;
+import com.smartling.cms.gateway.client.internal.RequestCoalescer;
+import com.smartling.cms.gateway.client.internal.ResumableUploader;
+import com.smartling.cms.gateway.client.internal.SharedHttpAsyncClient;
+import com.smartling.cms.gateway.client.internal.StreamingCommandParser;
+import com.smartling.cms.gateway.client.internal.UploadBatcher;
+import com.smartling.cms.gateway.client.internal.UploadBuffer;
+import com.smartling.cms.gateway.client.internal.UploadConnectionPool;
+import com.smartling.cms.gateway.client.internal.UploadRateLimiter;
+import com.smartling.cms.gateway.client.internal.UploadRetrier;
+import com.smartling.cms.gateway.client.internal.UploadScheduler;
+import com.smartling.cms.gateway.client.upload.CompressionPolicy;
 
 /**
  * Builder for {@link CmsGatewayClient} instances.
  */
 public class CmsGatewayClientBuilder
 {
+    public static final int DEFAULT_COMMAND_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_OVERLOAD_RETRY_AFTER = 5;
+    public static final int DEFAULT_MAX_UPLOAD_CONNECTIONS = 100;
+    public static final int DEFAULT_UPLOAD_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_UPLOAD_SOCKET_TIMEOUT = 60000;
+    public static final long DEFAULT_UPLOAD_KEEP_ALIVE = 60000;
+    public static final long DEFAULT_UPLOAD_IDLE_TIMEOUT = 30000;
+    public static final int DEFAULT_SHARED_SCHEDULER_THREADS = 2;
+
     private String commandChannelEndpoint = CmsGatewayClient.DEFAULT_COMMAND_CHANNEL_ENDPOINT;
     private String uploadChannelEndpoint = CmsGatewayClient.DEFAULT_UPLOAD_CHANNEL_ENDPOINT;
     private String apiKey;
     private String projectId;
     private CommandChannelTransport commandChannelTransport;
     private CloseableHttpAsyncClient uploadChannelTransport;
-    private CommandParser commandParser = new CommandParser();
-    private ReconnectStrategy reconnectStrategy = new ReconnectStrategy();
+    private CommandParser commandParser = new StreamingCommandParser();
+    private ReconnectStrategy reconnectStrategy;
+    private ReconnectPolicy reconnectPolicy = ReconnectPolicies.decorrelatedJitter(ReconnectPolicies.DEFAULT_BASE_DELAY, ReconnectPolicies.DEFAULT_MAX_DELAY);
+    private int reconnectFailureThreshold;
+    private long reconnectOpenTime;
+    private int commandChannelSessions = 1;
+    private OutagePolicy outagePolicy = OutagePolicy.FAIL_FAST;
+    private int outageQueueCapacity = OutageQueue.DEFAULT_CAPACITY;
+    private int commandThreads;
+    private int commandQueueCapacity = DEFAULT_COMMAND_QUEUE_CAPACITY;
+    private CommandOverflowPolicy commandOverflowPolicy = CommandOverflowPolicy.CALLER_RUNS;
+    private int maxInFlightCommands = AdmissionController.UNLIMITED;
+    private int overloadRetryAfter = DEFAULT_OVERLOAD_RETRY_AFTER;
+    private boolean coalesceRequests;
+    private long coalescingTimeout = RequestCoalescer.DEFAULT_TIMEOUT;
+    private ContentCache contentCache = ContentCache.disabled();
+    private int maxUploadConnections = DEFAULT_MAX_UPLOAD_CONNECTIONS;
+    private int maxUploadConnectionsPerRoute = DEFAULT_MAX_UPLOAD_CONNECTIONS;
+    private int uploadIoThreads = Runtime.getRuntime().availableProcessors();
+    private int uploadConnectTimeout = DEFAULT_UPLOAD_CONNECT_TIMEOUT;
+    private int uploadSocketTimeout = DEFAULT_UPLOAD_SOCKET_TIMEOUT;
+    private long uploadKeepAlive = DEFAULT_UPLOAD_KEEP_ALIVE;
+    private long uploadIdleTimeout = DEFAULT_UPLOAD_IDLE_TIMEOUT;
+    private UploadRetryPolicy uploadRetryPolicy = UploadRetryPolicy.none();
+    private long uploadBufferThreshold = -1;
+    private File uploadBufferDirectory;
+    private CompressionPolicy uploadCompression = CompressionPolicy.none();
+    private long uploadBatchDelay = -1;
+    private int uploadBatchSize;
+    private long resumableUploadThreshold = -1;
+    private int resumableUploadPartSize = ResumableUploader.DEFAULT_PART_SIZE;
+    private boolean deduplicateUploads;
+    private long uploadBytesPerSecond;
+    private long uploadBurstBytes;
+    private double uploadRequestsPerSecond;
+    private int uploadBurstRequests;
+    private int maxUploadsInFlight;
+    private int minUploadsInFlight;
+    private int sharedSchedulerThreads = DEFAULT_SHARED_SCHEDULER_THREADS;
 
     protected CmsGatewayClientBuilder()
     {
@@ -80,15 +158,359 @@ public class CmsGatewayClientBuilder
         return this;
     }
 
+    /**
+     * Sets reconnect strategy used instead of the one made of reconnect policy and circuit breaker.
+     * The strategy keeps state of attempts, so each project of a multi-project client
+     * gets its own {@link ReconnectStrategy#copy()}.
+     */
     public final CmsGatewayClientBuilder setReconnectStrategy(ReconnectStrategy reconnectStrategy)
     {
         this.reconnectStrategy = reconnectStrategy;
         return this;
     }
 
+    /**
+     * Sets delays between attempts to reconnect command channel. Defaults to
+     * {@link ReconnectPolicies#decorrelatedJitter(long, long)} between 1 second and 1 minute.
+     */
+    public final CmsGatewayClientBuilder setReconnectPolicy(ReconnectPolicy reconnectPolicy)
+    {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    /**
+     * Holds reconnect attempts back after consecutive failures, see {@link CircuitBreaker}. Disabled by default.
+     * @param failureThreshold Number of consecutive failed attempts opening the circuit.
+     * @param openTime Milliseconds to wait before probing with another attempt.
+     */
+    public final CmsGatewayClientBuilder setReconnectCircuitBreaker(int failureThreshold, long openTime)
+    {
+        this.reconnectFailureThreshold = failureThreshold;
+        this.reconnectOpenTime = openTime;
+        return this;
+    }
+
+    /**
+     * Sets number of command channel sessions opened in parallel, 1 by default.
+     * Commands arriving on every session go to the same command handler, and a dropped session
+     * is reconnected while the others keep serving.
+     */
+    public final CmsGatewayClientBuilder setCommandChannelSessions(int commandChannelSessions)
+    {
+        this.commandChannelSessions = commandChannelSessions;
+        return this;
+    }
+
+    /**
+     * Sets what to do with error responses sent while command channel is reconnecting.
+     * They fail right away by default.
+     * @param outageQueueCapacity Maximum number of responses queued with {@link OutagePolicy#QUEUE}.
+     */
+    public final CmsGatewayClientBuilder setOutagePolicy(OutagePolicy outagePolicy, int outageQueueCapacity)
+    {
+        this.outagePolicy = outagePolicy;
+        this.outageQueueCapacity = outageQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets number of worker threads to call command handler for get commands on.
+     * Command channel receive thread then only parses commands. Projects of multi-project client share the threads.
+     * @param commandThreads Number of threads. Set to 0 to call handler on receive thread (default).
+     */
+    public final CmsGatewayClientBuilder setCommandThreads(int commandThreads)
+    {
+        this.commandThreads = commandThreads;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of get commands waiting for a free worker thread.
+     * Applies only when command threads are set.
+     */
+    public final CmsGatewayClientBuilder setCommandQueueCapacity(int commandQueueCapacity)
+    {
+        this.commandQueueCapacity = commandQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets what to do with a get command when command queue is full.
+     * Defaults to {@link CommandOverflowPolicy#CALLER_RUNS}.
+     */
+    public final CmsGatewayClientBuilder setCommandOverflowPolicy(CommandOverflowPolicy commandOverflowPolicy)
+    {
+        this.commandOverflowPolicy = commandOverflowPolicy;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of upload connections.
+     * This and other upload settings apply only when upload channel transport is not set.
+     */
+    public final CmsGatewayClientBuilder setMaxUploadConnections(int maxUploadConnections)
+    {
+        this.maxUploadConnections = maxUploadConnections;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of upload connections to one host.
+     * Defaults to {@link #DEFAULT_MAX_UPLOAD_CONNECTIONS}, as all uploads go to the gateway host.
+     */
+    public final CmsGatewayClientBuilder setMaxUploadConnectionsPerRoute(int maxUploadConnectionsPerRoute)
+    {
+        this.maxUploadConnectionsPerRoute = maxUploadConnectionsPerRoute;
+        return this;
+    }
+
+    /**
+     * Sets number of I/O reactor threads sending uploads. Defaults to number of processors.
+     */
+    public final CmsGatewayClientBuilder setUploadIoThreads(int uploadIoThreads)
+    {
+        this.uploadIoThreads = uploadIoThreads;
+        return this;
+    }
+
+    /**
+     * @param uploadConnectTimeout Milliseconds to wait for upload connection to be established.
+     */
+    public final CmsGatewayClientBuilder setUploadConnectTimeout(int uploadConnectTimeout)
+    {
+        this.uploadConnectTimeout = uploadConnectTimeout;
+        return this;
+    }
+
+    /**
+     * @param uploadSocketTimeout Milliseconds of upload connection inactivity after which upload fails.
+     */
+    public final CmsGatewayClientBuilder setUploadSocketTimeout(int uploadSocketTimeout)
+    {
+        this.uploadSocketTimeout = uploadSocketTimeout;
+        return this;
+    }
+
+    /**
+     * @param uploadKeepAlive Maximum milliseconds to keep upload connection for reuse,
+     *      also used when server does not send Keep-Alive header.
+     */
+    public final CmsGatewayClientBuilder setUploadKeepAlive(long uploadKeepAlive)
+    {
+        this.uploadKeepAlive = uploadKeepAlive;
+        return this;
+    }
+
+    /**
+     * @param uploadIdleTimeout Milliseconds after which idle upload connection is closed.
+     *      Set to 0 to keep idle connections until keep alive expires.
+     */
+    public final CmsGatewayClientBuilder setUploadIdleTimeout(long uploadIdleTimeout)
+    {
+        this.uploadIdleTimeout = uploadIdleTimeout;
+        return this;
+    }
+
+    /**
+     * Sets policy for sending failed uploads again. By default uploads are sent once.
+     * Uploads with content given as a stream are sent once, unless content is buffered.
+     */
+    public final CmsGatewayClientBuilder setUploadRetryPolicy(UploadRetryPolicy uploadRetryPolicy)
+    {
+        this.uploadRetryPolicy = uploadRetryPolicy;
+        return this;
+    }
+
+    /**
+     * Enables buffering of uploads with content given as a stream, so that they can be retried.
+     * Content up to the threshold is held in pooled memory, larger content in a temporary file.
+     * @param uploadBufferThreshold Maximum size of content to buffer in memory, bytes.
+     */
+    public final CmsGatewayClientBuilder setUploadBufferThreshold(long uploadBufferThreshold)
+    {
+        this.uploadBufferThreshold = uploadBufferThreshold;
+        return this;
+    }
+
+    /**
+     * Sets directory for temporary files of buffered uploads. Defaults to system temporary directory.
+     */
+    public final CmsGatewayClientBuilder setUploadBufferDirectory(File uploadBufferDirectory)
+    {
+        this.uploadBufferDirectory = uploadBufferDirectory;
+        return this;
+    }
+
+    /**
+     * Sets policy for sending uploads gzip-compressed. By default uploads are not compressed.
+     * Upload channel endpoint must accept "Content-Encoding: gzip" requests.
+     * @see CompressionPolicy#text()
+     */
+    public final CmsGatewayClientBuilder setUploadCompression(CompressionPolicy uploadCompression)
+    {
+        this.uploadCompression = uploadCompression;
+        return this;
+    }
+
+    /**
+     * Enables sending small resource uploads together in a single multipart request
+     * to "batch" path of upload channel endpoint. By default every upload is sent on its own.
+     * @param uploadBatchDelay Maximum time an upload waits for a batch to fill, milliseconds.
+     * @param uploadBatchSize Batch is sent as soon as its content reaches this size, bytes.
+     */
+    public final CmsGatewayClientBuilder setUploadBatching(long uploadBatchDelay, int uploadBatchSize)
+    {
+        this.uploadBatchDelay = uploadBatchDelay;
+        this.uploadBatchSize = uploadBatchSize;
+        return this;
+    }
+
+    /**
+     * Enables sending large files in parts to "part" path of upload channel endpoint, so that
+     * failed uploads are resumed from the last received part. By default files are sent whole.
+     * Uploads are resumed as allowed by upload retry policy, or by a default policy if retries are disabled.
+     * @param resumableUploadThreshold Files of this size and larger are sent in parts, bytes.
+     * @param resumableUploadPartSize Size of parts, bytes.
+     */
+    public final CmsGatewayClientBuilder setResumableUploads(long resumableUploadThreshold, int resumableUploadPartSize)
+    {
+        this.resumableUploadThreshold = resumableUploadThreshold;
+        this.resumableUploadPartSize = resumableUploadPartSize;
+        return this;
+    }
+
+    /**
+     * Enables skipping resource uploads gateway already holds. Client remembers SHA-256 digest of
+     * content uploaded for each resource URI, and when the same content is uploaded for the URI again,
+     * asks gateway for it by digest at "digest" path of upload channel endpoint before sending it.
+     * By default all content is uploaded.
+     */
+    public final CmsGatewayClientBuilder setDeduplicateUploads(boolean deduplicateUploads)
+    {
+        this.deduplicateUploads = deduplicateUploads;
+        return this;
+    }
+
+    /**
+     * Limits bandwidth of uploads. By default bandwidth is not limited.
+     * @param uploadBytesPerSecond Maximum average bandwidth, bytes per second.
+     * @param uploadBurstBytes Bytes which may be sent at once over the average bandwidth.
+     */
+    public final CmsGatewayClientBuilder setUploadBandwidthLimit(long uploadBytesPerSecond, long uploadBurstBytes)
+    {
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+        this.uploadBurstBytes = uploadBurstBytes;
+        return this;
+    }
+
+    /**
+     * Limits rate of upload requests. By default rate is not limited.
+     * @param uploadRequestsPerSecond Maximum average rate of requests.
+     * @param uploadBurstRequests Requests which may be started at once over the average rate.
+     */
+    public final CmsGatewayClientBuilder setUploadRequestRateLimit(double uploadRequestsPerSecond, int uploadBurstRequests)
+    {
+        this.uploadRequestsPerSecond = uploadRequestsPerSecond;
+        this.uploadBurstRequests = uploadBurstRequests;
+        return this;
+    }
+
+    /**
+     * Limits the number of uploads in flight. Uploads over the limit wait, and are started by priority:
+     * HTML uploads before resource uploads by default, see {@link com.smartling.cms.gateway.client.upload.FileUpload#setPriority}.
+     * By default uploads are not limited, and are started in order they are sent.
+     */
+    public final CmsGatewayClientBuilder setMaxUploadsInFlight(int maxUploadsInFlight)
+    {
+        this.maxUploadsInFlight = maxUploadsInFlight;
+        this.minUploadsInFlight = maxUploadsInFlight;
+        return this;
+    }
+
+    /**
+     * Limits the number of uploads in flight like {@link #setMaxUploadsInFlight(int)}, adapting the limit to gateway load:
+     * it starts at minimum and grows while uploads succeed, and is cut when they fail with overload
+     * or their round-trip time grows. Current limit is reported by {@link CmsGatewayClient#getUploadConcurrencyLimit()}.
+     */
+    public final CmsGatewayClientBuilder setAdaptiveUploadConcurrency(int minUploadsInFlight, int maxUploadsInFlight)
+    {
+        this.minUploadsInFlight = minUploadsInFlight;
+        this.maxUploadsInFlight = maxUploadsInFlight;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of get commands queued or being handled at the same time.
+     * Commands over the limit are answered right away with an error response (HTTP 503)
+     * instead of being passed to command handler, so server can retry them elsewhere.
+     * @param maxInFlightCommands Maximum number of commands. Set to 0 for no limit (default).
+     */
+    public final CmsGatewayClientBuilder setMaxInFlightCommands(int maxInFlightCommands)
+    {
+        this.maxInFlightCommands = maxInFlightCommands;
+        return this;
+    }
+
+    /**
+     * Sets retry hint sent with commands rejected because client is overloaded.
+     * @param overloadRetryAfter Seconds for server to wait before retrying. Set to 0 to send no hint.
+     */
+    public final CmsGatewayClientBuilder setOverloadRetryAfter(int overloadRetryAfter)
+    {
+        this.overloadRetryAfter = overloadRetryAfter;
+        return this;
+    }
+
+    /**
+     * Enables coalescing of get commands for the same URI.
+     * While command handler works on a command, further commands of the same type for the same URI
+     * are not passed to handler. Response sent for the first command is buffered once and
+     * uploaded for each of them.
+     */
+    public final CmsGatewayClientBuilder setCoalesceRequests(boolean coalesceRequests)
+    {
+        this.coalesceRequests = coalesceRequests;
+        return this;
+    }
+
+    /**
+     * Sets how long coalesced commands wait for the first command's response.
+     * After that next command for the URI is passed to command handler again.
+     * @param coalescingTimeout Milliseconds, defaults to {@link RequestCoalescer#DEFAULT_TIMEOUT}.
+     */
+    public final CmsGatewayClientBuilder setCoalescingTimeout(long coalescingTimeout)
+    {
+        this.coalescingTimeout = coalescingTimeout;
+        return this;
+    }
+
+    /**
+     * Sets cache for uploaded content. Get commands for cached URIs are answered
+     * from the cache without calling command handler. Not cached by default.
+     * Projects of a multi-project client each use a {@link ContentCache#forProject(String)} view of it.
+     */
+    public final CmsGatewayClientBuilder setContentCache(ContentCache contentCache)
+    {
+        this.contentCache = contentCache;
+        return this;
+    }
+
+    /**
+     * Sets number of threads of the scheduler owned by the client, or shared by projects of
+     * {@link CmsGatewayMultiProjectClient}. It runs reconnects, upload retries, batch flushes,
+     * rate-limited uploads and connection eviction, which only start I/O and return.
+     */
+    public final CmsGatewayClientBuilder setSharedSchedulerThreads(int sharedSchedulerThreads)
+    {
+        this.sharedSchedulerThreads = sharedSchedulerThreads;
+        return this;
+    }
+
     /**
      * Sets interval to ping command channel connection.
      * This is to prevent intermediate gateways to drop inactive websocket connection.
+     * Sessions sending messages are pinged only after being idle for the interval.
      * @param heartbeatInterval Milliseconds between pings. Set to 0 to never ping.
      */
     public final CmsGatewayClientBuilder setDefaultHeartbeatInterval(long heartbeatInterval)
@@ -97,25 +519,202 @@ public class CmsGatewayClientBuilder
         return this;
     }
 
+    /**
+     * Sets number of pings in a row left without pong to consider server dead.
+     * Session to dead server is closed and reconnected without waiting for TCP to time out.
+     * @param heartbeatMissLimit Defaults to 3. Set to 0 to never close session.
+     */
+    public final CmsGatewayClientBuilder setHeartbeatMissLimit(int heartbeatMissLimit)
+    {
+        this.commandChannelTransport.setHeartbeatMissLimit(heartbeatMissLimit);
+        return this;
+    }
+
     public CmsGatewayClient build() throws CmsGatewayClientException
     {
+        ScheduledExecutorService scheduler = CommandExecutors.newDaemonScheduler(sharedSchedulerThreads, "cmsgateway-client-");
+        try
+        {
+            CloseableHttpAsyncClient uploadChannel = this.uploadChannelTransport;
+            UploadConnectionPool uploadConnectionPool = UploadConnectionPool.unmanaged();
+            if (uploadChannel == null)
+            {
+                PoolingNHttpClientConnectionManager connectionManager = createUploadConnectionManager();
+                uploadChannel = createUploadChannel(connectionManager);
+                uploadConnectionPool = new UploadConnectionPool(connectionManager, uploadIdleTimeout, scheduler);
+            }
+
+            return createClient(projectId, uploadChannel, uploadConnectionPool, scheduler, getCommandExecutor(), false);
+        }
+        catch (CmsGatewayClientException e)
+        {
+            scheduler.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds client serving several projects from one JVM. Clients for projects are added with
+     * {@link CmsGatewayMultiProjectClient#addProject(String)}, configured by this builder, and share
+     * command channel transport, upload channel with its connection pool and I/O reactor, command threads,
+     * and a scheduler for upload retries, batching and rate limiting. Project id set on this builder is ignored.
+     * The builder must not be changed while projects are added.
+     */
+    public CmsGatewayMultiProjectClient buildMultiProjectClient() throws CmsGatewayClientException
+    {
+        ScheduledExecutorService scheduler = CommandExecutors.newDaemonScheduler(sharedSchedulerThreads, "cmsgateway-shared-");
         CloseableHttpAsyncClient uploadChannel = this.uploadChannelTransport;
+        UploadConnectionPool uploadConnectionPool = UploadConnectionPool.unmanaged();
         if (uploadChannel == null)
         {
-            uploadChannel = HttpAsyncClients.createDefault();
+            PoolingNHttpClientConnectionManager connectionManager;
+            try
+            {
+                connectionManager = createUploadConnectionManager();
+            }
+            catch (CmsGatewayClientException e)
+            {
+                scheduler.shutdownNow();
+                throw e;
+            }
+            uploadChannel = createUploadChannel(connectionManager);
+            uploadConnectionPool = new UploadConnectionPool(connectionManager, uploadIdleTimeout, scheduler);
         }
 
-        return new CmsGatewayClient(
-                getCommandChannelUri(),
-                getUploadChannelUri(),
-                commandChannelTransport,
-                uploadChannel,
-                commandParser,
-                reconnectStrategy
-        );
+        return new CmsGatewayMultiProjectClient(this, uploadChannel, uploadConnectionPool, scheduler, getCommandExecutor());
+    }
+
+    /**
+     * Builds client for a project of {@link CmsGatewayMultiProjectClient}, using its shared resources.
+     */
+    CmsGatewayClient buildProjectClient(String projectId, CloseableHttpAsyncClient sharedUploadChannel,
+            ScheduledExecutorService sharedScheduler, Executor sharedCommandExecutor) throws CmsGatewayClientException
+    {
+        return createClient(projectId, new SharedHttpAsyncClient(sharedUploadChannel), UploadConnectionPool.unmanaged(),
+                sharedScheduler, sharedCommandExecutor, true);
+    }
+
+    /**
+     * @param scheduler Scheduler for all timed tasks of the client.
+     * @param commandExecutor Executor to call command handler on.
+     * @param projectClient Whether client is a project of multi-project client. Such client does not own
+     *      the scheduler and command executor, and gets its own view of content cache and copy of reconnect strategy.
+     */
+    private CmsGatewayClient createClient(String projectId, CloseableHttpAsyncClient uploadChannel, UploadConnectionPool uploadConnectionPool,
+            ScheduledExecutorService scheduler, Executor commandExecutor, boolean projectClient) throws CmsGatewayClientException
+    {
+        CmsGatewayClient.Components components = new CmsGatewayClient.Components();
+        components.commandExecutor = commandExecutor;
+        components.admissionController = new AdmissionController(maxInFlightCommands, overloadRetryAfter);
+        components.requestCoalescer = coalesceRequests ? new RequestCoalescer(coalescingTimeout) : RequestCoalescer.disabled();
+        components.contentCache = projectClient ? contentCache.forProject(projectId) : contentCache;
+        components.uploadConnectionPool = uploadConnectionPool;
+        components.uploadRetrier = new UploadRetrier(uploadRetryPolicy, scheduler);
+        components.uploadBuffer = uploadBufferThreshold < 0 ? UploadBuffer.disabled() : new UploadBuffer(uploadBufferThreshold, uploadBufferDirectory);
+        components.compressionPolicy = uploadCompression;
+        components.uploadBatcher = createUploadBatcher(scheduler);
+        components.resumableUploader = createResumableUploader(scheduler);
+        components.contentDeduplicator = deduplicateUploads
+                ? new ContentDeduplicator(ContentDeduplicator.DEFAULT_MAX_ENTRIES, ContentDeduplicator.DEFAULT_MAX_STREAM_SIZE)
+                : ContentDeduplicator.disabled();
+        components.uploadRateLimiter = createUploadRateLimiter(scheduler);
+        components.uploadScheduler = createUploadScheduler(scheduler);
+        components.commandChannelSessionCount = commandChannelSessions;
+        components.scheduler = scheduler;
+        components.ownsScheduler = !projectClient;
+        components.ownsCommandExecutor = !projectClient;
+        components.outageQueue = OutageQueue.create(outagePolicy, outageQueueCapacity);
+
+        return new CmsGatewayClient(getCommandChannelUri(projectId), getUploadChannelUri(projectId),
+                commandChannelTransport, uploadChannel, commandParser, createReconnectStrategy(projectClient), components);
+    }
+
+    private ReconnectStrategy createReconnectStrategy(boolean projectClient)
+    {
+        if (reconnectStrategy != null)
+            return projectClient ? reconnectStrategy.copy() : reconnectStrategy;
+
+        CircuitBreaker circuitBreaker = reconnectFailureThreshold > 0
+                ? new CircuitBreaker(reconnectFailureThreshold, reconnectOpenTime)
+                : CircuitBreaker.disabled();
+        return new ReconnectStrategy(reconnectPolicy, circuitBreaker);
+    }
+
+    private UploadBatcher createUploadBatcher(ScheduledExecutorService scheduler)
+    {
+        if (uploadBatchDelay < 0)
+            return UploadBatcher.disabled();
+
+        return new UploadBatcher(uploadBatchDelay, uploadBatchSize, UploadBatcher.DEFAULT_MAX_ITEM_SIZE, scheduler);
+    }
+
+    private ResumableUploader createResumableUploader(ScheduledExecutorService scheduler)
+    {
+        if (resumableUploadThreshold < 0)
+            return ResumableUploader.disabled();
+
+        UploadRetryPolicy resumePolicy = uploadRetryPolicy.getMaxAttempts() > 1 ? uploadRetryPolicy : ResumableUploader.DEFAULT_RESUME_POLICY;
+        return new ResumableUploader(resumableUploadThreshold, resumableUploadPartSize, resumePolicy, scheduler);
+    }
+
+    private UploadRateLimiter createUploadRateLimiter(ScheduledExecutorService scheduler)
+    {
+        if (uploadBytesPerSecond <= 0 && uploadRequestsPerSecond <= 0)
+            return UploadRateLimiter.unlimited();
+
+        return new UploadRateLimiter(uploadBytesPerSecond, uploadBurstBytes, uploadRequestsPerSecond, uploadBurstRequests, scheduler);
+    }
+
+    private UploadScheduler createUploadScheduler(ScheduledExecutorService scheduler)
+    {
+        if (maxUploadsInFlight <= 0)
+            return UploadScheduler.unlimited();
+
+        AimdLimit limit = new AimdLimit(minUploadsInFlight, maxUploadsInFlight);
+        return new UploadScheduler(limit, scheduler);
+    }
+
+    private CloseableHttpAsyncClient createUploadChannel(PoolingNHttpClientConnectionManager connectionManager)
+    {
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(uploadConnectTimeout)
+                        .setSocketTimeout(uploadSocketTimeout)
+                        .build())
+                .setKeepAliveStrategy(new CappedKeepAliveStrategy(uploadKeepAlive))
+                .build();
+    }
+
+    private PoolingNHttpClientConnectionManager createUploadConnectionManager() throws CmsGatewayClientException
+    {
+        try
+        {
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(uploadIoThreads)
+                    .setConnectTimeout(uploadConnectTimeout)
+                    .setSoTimeout(uploadSocketTimeout)
+                    .build();
+            PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+            connectionManager.setMaxTotal(maxUploadConnections);
+            connectionManager.setDefaultMaxPerRoute(maxUploadConnectionsPerRoute);
+            return connectionManager;
+        }
+        catch (IOReactorException e)
+        {
+            throw new CmsGatewayClientException(e);
+        }
+    }
+
+    private Executor getCommandExecutor()
+    {
+        if (commandThreads == 0)
+            return CommandExecutors.directExecutor();
+
+        return CommandExecutors.newBoundedExecutor(commandThreads, commandQueueCapacity, commandOverflowPolicy);
     }
 
-    private URI getCommandChannelUri() throws CmsGatewayClientException
+    private URI getCommandChannelUri(String projectId) throws CmsGatewayClientException
     {
         try
         {
@@ -130,7 +729,7 @@ public class CmsGatewayClientBuilder
         }
     }
 
-    private URI getUploadChannelUri() throws CmsGatewayClientException
+    private URI getUploadChannelUri(String projectId) throws CmsGatewayClientException
     {
         try
         {
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+
+import com.smartling.cms.gateway.client.internal.UploadConnectionPool;
+
+/**
+ * Client to CMS Gateway service for several projects. Each project has its own {@link CmsGatewayClient}
+ * with its own command handler, while command channel transport, upload channel, scheduler and command
+ * threads are shared, so the number of threads and sockets does not grow with the number of projects.
+ * Command channel sessions of all projects are pinged on the transport's heartbeat scheduler,
+ * by default {@link com.smartling.cms.gateway.client.internal.CommandExecutors#sharedScheduler()}.
+ *
+ * {@code
+ *  CmsGatewayMultiProjectClient clients = CmsGatewayClientBuilder.create()
+ *      .setApiKey(YOUR_API_KEY)
+ *      .buildMultiProjectClient();
+ *  clients.addProject(PROJECT_ID).connect(projectCommandHandler);
+ * }
+ */
+public class CmsGatewayMultiProjectClient implements Closeable
+{
+    private static final Logger logger = Logger.getLogger(CmsGatewayMultiProjectClient.class);
+
+    private final CmsGatewayClientBuilder builder;
+    private final CloseableHttpAsyncClient uploadChannel;
+    private final UploadConnectionPool uploadConnectionPool;
+    private final ScheduledExecutorService scheduler;
+    private final Executor commandExecutor;
+    private final Map<String, CmsGatewayClient> clients = new LinkedHashMap<String, CmsGatewayClient>();
+    private boolean closed;
+
+    CmsGatewayMultiProjectClient(CmsGatewayClientBuilder builder, CloseableHttpAsyncClient uploadChannel,
+            UploadConnectionPool uploadConnectionPool, ScheduledExecutorService scheduler, Executor commandExecutor)
+    {
+        this.builder = Validate.notNull(builder);
+        this.uploadChannel = Validate.notNull(uploadChannel);
+        this.uploadConnectionPool = Validate.notNull(uploadConnectionPool);
+        this.scheduler = Validate.notNull(scheduler);
+        this.commandExecutor = Validate.notNull(commandExecutor);
+    }
+
+    /**
+     * Creates client for the project. It is not connected yet.
+     * @throws IllegalArgumentException if the project is already added.
+     */
+    public synchronized CmsGatewayClient addProject(String projectId) throws CmsGatewayClientException
+    {
+        failIfClosed();
+        Validate.notBlank(projectId);
+        Validate.isTrue(!clients.containsKey(projectId), "Project %s is already added", projectId);
+
+        CmsGatewayClient client = builder.buildProjectClient(projectId, uploadChannel, scheduler, commandExecutor);
+        clients.put(projectId, client);
+        return client;
+    }
+
+    /**
+     * @return Client for the project, null if the project is not added.
+     */
+    public synchronized CmsGatewayClient getClient(String projectId)
+    {
+        return clients.get(projectId);
+    }
+
+    public synchronized Set<String> getProjectIds()
+    {
+        return new LinkedHashMap<String, CmsGatewayClient>(clients).keySet();
+    }
+
+    /**
+     * Closes client for the project, leaving shared resources to other projects.
+     */
+    public void removeProject(String projectId) throws IOException
+    {
+        CmsGatewayClient client;
+        synchronized (this)
+        {
+            client = clients.remove(projectId);
+        }
+
+        if (client != null)
+            client.close();
+    }
+
+    /**
+     * @return Upload connections leased, pending lease and available in pool shared by all projects.
+     */
+    public PoolStats getUploadConnectionStats()
+    {
+        return uploadConnectionPool.getStats();
+    }
+
+    /**
+     * Closes clients for all projects, then shared resources.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        List<CmsGatewayClient> projectClients;
+        synchronized (this)
+        {
+            closed = true;
+            projectClients = new ArrayList<CmsGatewayClient>(clients.values());
+            clients.clear();
+        }
+
+        for (CmsGatewayClient client : projectClients)
+        {
+            try
+            {
+                client.close();
+            }
+            catch (Exception e)
+            {
+                logger.warn("Failed to close project client", e);
+            }
+        }
+
+        if (commandExecutor instanceof ExecutorService)
+            ((ExecutorService)commandExecutor).shutdown();
+        scheduler.shutdownNow();
+        uploadConnectionPool.close();
+        uploadChannel.close();
+    }
+
+    private void failIfClosed()
+    {
+        if (closed)
+            throw new IllegalStateException("Client is closed");
+    }
+}
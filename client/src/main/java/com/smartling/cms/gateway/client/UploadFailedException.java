@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client;
+
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Exception thrown when upload channel answers upload with HTTP error.
+ */
+public class UploadFailedException extends CmsGatewayClientException
+{
+    private static final long serialVersionUID = -2871564397731268554L;
+
+    private final int httpStatusCode;
+    private final transient ResponseStatus<Void> responseStatus;
+
+    public UploadFailedException(String message, int httpStatusCode, ResponseStatus<Void> responseStatus)
+    {
+        super(message);
+        this.httpStatusCode = httpStatusCode;
+        this.responseStatus = responseStatus;
+    }
+
+    public int getHttpStatusCode()
+    {
+        return httpStatusCode;
+    }
+
+    /**
+     * @return Status from error response body, null when body has no status.
+     */
+    public ResponseStatus<Void> getResponseStatus()
+    {
+        return responseStatus;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Snapshot of {@link ContentCache} statistics.
+ */
+public class CacheStats
+{
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int entryCount;
+    private final long size;
+    private final int diskEntryCount;
+    private final long diskSize;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, int entryCount, long size, int diskEntryCount, long diskSize)
+    {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.size = size;
+        this.diskEntryCount = diskEntryCount;
+        this.diskSize = diskSize;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    public double getHitRate()
+    {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double)hitCount / requestCount;
+    }
+
+    /**
+     * @return Number of entries removed because of size limit or expiration.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * @return Number of entries cached in heap.
+     */
+    public int getEntryCount()
+    {
+        return entryCount;
+    }
+
+    /**
+     * @return Total size of content cached in heap, bytes.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    public int getDiskEntryCount()
+    {
+        return diskEntryCount;
+    }
+
+    /**
+     * @return Total size of content cached on disk, bytes.
+     */
+    public long getDiskSize()
+    {
+        return diskSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+
+/**
+ * Content of an upload kept in {@link ContentCache}.
+ * Holds upload properties (content type, base and public URL for HTML) and body.
+ */
+public abstract class CachedContent
+{
+    private final long size;
+    private final long createdAt;
+
+    protected CachedContent(long size, long createdAt)
+    {
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    /**
+     * Creates upload answering given request with cached content.
+     */
+    public abstract FileUpload toUpload(BaseCommand request);
+
+    /**
+     * Called once uploads created from this content are sent, so its store may drop the content.
+     */
+    public void release()
+    {
+    }
+}
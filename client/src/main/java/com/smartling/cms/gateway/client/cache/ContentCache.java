@@ -0,0 +1,361 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+
+/**
+ * Cache of uploaded content, keyed by command type and URI.
+ * When a get command hits the cache, client uploads cached content without calling command handler.
+ * Entries expire after time to live and are dropped on next lookup; least recently used entries
+ * are evicted when total size of cached content exceeds maximum size.
+ *
+ * {@code
+ *  ContentCache cache = new ContentCache(64 * 1024 * 1024, TimeUnit.MINUTES.toMillis(10));
+ *  CmsGatewayClient client = CmsGatewayClientBuilder.create()
+ *      .setContentCache(cache)
+ *      .build();
+ *  ...
+ *  cache.invalidate("/content/site/logo.png");
+ * }
+ *
+ * Optionally file uploads of at least a threshold size go to a {@link DiskContentStore} instead of heap.
+ * Projects of a multi-project client each use a {@link #forProject(String)} view of the cache.
+ */
+public class ContentCache
+{
+    private static final Logger logger = Logger.getLogger(ContentCache.class);
+
+    private final Storage storage;
+    private final String namespace;
+
+    /**
+     * @param maxSize Maximum total size of cached content, bytes.
+     * @param timeToLive Milliseconds to keep an entry for.
+     */
+    public ContentCache(long maxSize, long timeToLive)
+    {
+        this(maxSize, timeToLive, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize Maximum total size of content cached in heap, bytes.
+     * @param timeToLive Milliseconds to keep an entry for.
+     * @param diskStore Store for large file uploads.
+     * @param diskThreshold Minimum size of file upload content to keep in disk store, bytes.
+     */
+    public ContentCache(long maxSize, long timeToLive, DiskContentStore diskStore, long diskThreshold)
+    {
+        Validate.isTrue(maxSize >= 0, "Maximum cache size must not be negative");
+        Validate.isTrue(timeToLive > 0, "Cache time to live must be positive");
+        Validate.isTrue(diskThreshold >= 0, "Disk threshold must not be negative");
+        this.storage = new Storage(maxSize, timeToLive, diskStore, diskThreshold);
+        this.namespace = "";
+    }
+
+    private ContentCache(Storage storage, String namespace)
+    {
+        this.storage = storage;
+        this.namespace = namespace;
+    }
+
+    /**
+     * @return Cache which never holds anything.
+     */
+    public static ContentCache disabled()
+    {
+        return new ContentCache(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return View of this cache for one project. It shares size limits, disk store and
+     *      statistics with this cache, but content cached for the same URI of different projects
+     *      is kept apart. Invalidating URIs of the view affects only the project.
+     */
+    public ContentCache forProject(String projectId)
+    {
+        Validate.notNull(projectId);
+        return new ContentCache(storage, namespace + projectId.length() + ':' + projectId + ' ');
+    }
+
+    public boolean isEnabled()
+    {
+        return storage.maxSize > 0 || storage.diskStore != null;
+    }
+
+    /**
+     * @return Size of the largest content the cache may hold in heap, bytes.
+     */
+    public long getMaxHeapEntrySize()
+    {
+        return storage.maxSize;
+    }
+
+    /**
+     * @return true if content of the upload may be cached in disk store, when it is not smaller than disk threshold.
+     */
+    public boolean isStoredOnDisk(FileUpload upload)
+    {
+        return storage.diskStore != null && upload.getClass() == FileUpload.class;
+    }
+
+    /**
+     * Writes content to a temporary file of disk store. Upload is then sent from the file, which is
+     * {@link #put(BaseCommand, FileUpload, StagedContent) cached} or {@link StagedContent#discard() discarded}.
+     */
+    public StagedContent stage(InputStream content) throws IOException
+    {
+        Validate.validState(storage.diskStore != null, "Content cache has no disk store");
+        return storage.diskStore.stage(content);
+    }
+
+    /**
+     * @return Cached content for the command, or null. It must be {@link CachedContent#release() released}
+     *      once uploads created from it are sent.
+     */
+    public CachedContent get(BaseCommand request)
+    {
+        if (!isEnabled())
+            return null;
+
+        return storage.get(keyOf(request.getType(), request.getUri()));
+    }
+
+    /**
+     * Caches content uploaded for the command. Content larger than maximum cache size is not cached.
+     * @param upload Upload to take properties from, its content is not used.
+     */
+    public void put(BaseCommand request, FileUpload upload, byte[] content)
+    {
+        if (!isEnabled())
+            return;
+
+        storage.put(keyOf(request.getType(), request.getUri()), request, upload, content);
+    }
+
+    /**
+     * Caches staged content uploaded for the command in disk store. Content smaller than disk threshold is discarded.
+     * @param upload Upload to take properties from, its content is not used.
+     */
+    public void put(BaseCommand request, FileUpload upload, StagedContent content)
+    {
+        storage.put(keyOf(request.getType(), request.getUri()), upload, content);
+    }
+
+    public void invalidate(BaseCommand.Type type, String uri)
+    {
+        storage.remove(keyOf(type, uri));
+    }
+
+    /**
+     * Removes content cached for the URI for all command types.
+     */
+    public void invalidate(String uri)
+    {
+        for (BaseCommand.Type type : BaseCommand.Type.values())
+            storage.remove(keyOf(type, uri));
+    }
+
+    /**
+     * Removes all content cached by this cache, or by the project for a project view.
+     */
+    public void invalidateAll()
+    {
+        storage.removeAll(namespace);
+    }
+
+    /**
+     * @return Statistics of the whole cache, shared by project views.
+     */
+    public CacheStats getStats()
+    {
+        return storage.getStats();
+    }
+
+    private String keyOf(BaseCommand.Type type, String uri)
+    {
+        return namespace + type.name() + ' ' + uri;
+    }
+
+
+    /**
+     * Entries of the cache and its project views.
+     */
+    private static class Storage
+    {
+        private final long maxSize;
+        private final long timeToLive;
+        private final DiskContentStore diskStore;
+        private final long diskThreshold;
+        private final LinkedHashMap<String, CachedContent> entries = new LinkedHashMap<String, CachedContent>(16, 0.75f, true);
+        private long size;
+        private long hitCount;
+        private long missCount;
+        private long evictionCount;
+
+        private Storage(long maxSize, long timeToLive, DiskContentStore diskStore, long diskThreshold)
+        {
+            this.maxSize = maxSize;
+            this.timeToLive = timeToLive;
+            this.diskStore = diskStore;
+            this.diskThreshold = diskThreshold;
+        }
+
+        private synchronized CachedContent get(String key)
+        {
+            CachedContent content = entries.get(key);
+            if (content == null && diskStore != null)
+                content = diskStore.get(key);
+
+            if (content != null && isExpired(content, System.currentTimeMillis()))
+            {
+                content.release();
+                remove(key);
+                evictionCount++;
+                content = null;
+            }
+
+            if (content == null)
+                missCount++;
+            else
+                hitCount++;
+
+            return content;
+        }
+
+        /**
+         * Content going to disk store is written outside of cache lock, so lookups are not held up by disk I/O.
+         */
+        private void put(String key, BaseCommand request, FileUpload upload, byte[] content)
+        {
+            if (diskStore != null && content.length >= diskThreshold && upload.getClass() == FileUpload.class)
+            {
+                remove(key);
+                putOnDisk(key, upload, content);
+                return;
+            }
+
+            putInHeap(key, request, upload, content);
+        }
+
+        private void put(String key, FileUpload upload, StagedContent content)
+        {
+            if (diskStore == null || content.getSize() < diskThreshold)
+            {
+                content.discard();
+                return;
+            }
+
+            remove(key);
+            try
+            {
+                diskStore.put(key, upload.getContentType().toString(), content, System.currentTimeMillis());
+            }
+            catch (IOException e)
+            {
+                content.discard();
+                logger.warn(String.format("Failed to cache %s on disk", key), e);
+            }
+        }
+
+        private synchronized void putInHeap(String key, BaseCommand request, FileUpload upload, byte[] content)
+        {
+            remove(key);
+            if (content.length > maxSize)
+                return;
+
+            entries.put(key, new HeapCachedContent(upload.forRequest(request), content, System.currentTimeMillis()));
+            size += content.length;
+
+            evict();
+        }
+
+        private synchronized void removeAll(String namespace)
+        {
+            if (namespace.isEmpty())
+            {
+                entries.clear();
+                size = 0;
+                if (diskStore != null)
+                    diskStore.clear();
+                return;
+            }
+
+            for (String key : entries.keySet().toArray(new String[entries.size()]))
+            {
+                if (key.startsWith(namespace))
+                    remove(key);
+            }
+            if (diskStore != null)
+                diskStore.removeAll(namespace);
+        }
+
+        private synchronized CacheStats getStats()
+        {
+            if (diskStore == null)
+                return new CacheStats(hitCount, missCount, evictionCount, entries.size(), size, 0, 0);
+
+            return new CacheStats(hitCount, missCount, evictionCount, entries.size(), size, diskStore.getEntryCount(), diskStore.getSize());
+        }
+
+        private void putOnDisk(String key, FileUpload upload, byte[] content)
+        {
+            try
+            {
+                diskStore.put(key, upload.getContentType().toString(), content, System.currentTimeMillis());
+            }
+            catch (IOException e)
+            {
+                logger.warn(String.format("Failed to cache %s on disk", key), e);
+            }
+        }
+
+        private void evict()
+        {
+            Iterator<CachedContent> leastRecentlyUsed = entries.values().iterator();
+            while (size > maxSize && leastRecentlyUsed.hasNext())
+            {
+                CachedContent content = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                size -= content.getSize();
+                evictionCount++;
+            }
+        }
+
+        private boolean isExpired(CachedContent content, long now)
+        {
+            return now - content.getCreatedAt() >= timeToLive;
+        }
+
+        private synchronized void remove(String key)
+        {
+            CachedContent removed = entries.remove(key);
+            if (removed != null)
+                size -= removed.getSize();
+            if (diskStore != null)
+                diskStore.remove(key);
+        }
+    }
+}
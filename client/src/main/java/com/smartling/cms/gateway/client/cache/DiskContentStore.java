@@ -0,0 +1,600 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+/**
+ * Second tier of {@link ContentCache} for large file uploads, kept outside of Java heap.
+ * Content is stored in a local directory, one file per content digest, so identical content
+ * cached for different URIs is stored once. Index of URIs to digests is kept in the same
+ * directory and reloaded on start, so cached content survives client restart.
+ * Content files are memory-mapped when served and written to the upload connection from the mapping.
+ * Content is written outside of the store lock, large content straight from its stream into a temporary
+ * file of the store, and changes are appended to the index, which is
+ * rewritten only when it grows well beyond the entries it holds. File of removed content is deleted
+ * once all content served from it is released.
+ */
+public class DiskContentStore
+{
+    private static final Logger logger = Logger.getLogger(DiskContentStore.class);
+
+    private static final String INDEX_FILE = "index";
+    private static final String INDEX_ENCODING = "UTF-8";
+    private static final String CONTENT_FILE_SUFFIX = ".bin";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int MIN_INDEX_LINES_TO_COMPACT = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<String, Integer> digestReferences = new HashMap<String, Integer>();
+    private final Map<String, Integer> digestLeases = new HashMap<String, Integer>();
+    private final StringBuilder indexChanges = new StringBuilder();
+    private int indexLines;
+    private long size;
+
+    /**
+     * Opens store in the directory, loading index of previously stored content.
+     * @param maxSize Maximum total size of stored content, bytes.
+     */
+    public DiskContentStore(File directory, long maxSize) throws IOException
+    {
+        Validate.isTrue(maxSize > 0, "Maximum disk cache size must be positive");
+        this.directory = Validate.notNull(directory);
+        this.maxSize = maxSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create cache directory " + directory);
+
+        loadIndex();
+        saveIndex();
+    }
+
+    /**
+     * @return Content for the key, to be released once it is sent, or null.
+     */
+    synchronized CachedContent get(String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        try
+        {
+            MappedCachedContent content = new MappedCachedContent(this, entry.digest, entry.contentType,
+                    entry.map(contentFile(entry.digest)), entry.createdAt);
+            addLease(entry.digest);
+            return content;
+        }
+        catch (IOException e)
+        {
+            logger.warn(String.format("Dropping unreadable cache entry %s", key), e);
+            remove(key);
+            return null;
+        }
+    }
+
+    void put(String key, String contentType, byte[] content, long createdAt) throws IOException
+    {
+        String digest = digest(content);
+        File file = contentFile(digest);
+        if (!file.exists())
+            writeAtomically(file, digest, content);
+
+        addEntry(key, digest, contentType, content.length, createdAt);
+    }
+
+    /**
+     * Writes content to a temporary file in the store directory, computing its digest while writing,
+     * so that content never has to be held in heap. The file is kept by {@link #put(String, String, StagedContent, long)}.
+     */
+    StagedContent stage(InputStream content) throws IOException
+    {
+        File tempFile = File.createTempFile("content", TEMP_FILE_SUFFIX, directory);
+        boolean staged = false;
+        try
+        {
+            MessageDigest messageDigest = newDigest();
+            FileOutputStream output = new FileOutputStream(tempFile);
+            long size;
+            try
+            {
+                size = IOUtils.copyLarge(content, new DigestOutputStream(output, messageDigest));
+                output.getFD().sync();
+            }
+            finally
+            {
+                output.close();
+            }
+
+            staged = true;
+            return new StagedContent(tempFile, hex(messageDigest.digest()), size);
+        }
+        finally
+        {
+            if (!staged && !tempFile.delete())
+                logger.warn(String.format("Failed to delete staged cache file %s", tempFile));
+        }
+    }
+
+    /**
+     * Keeps staged content for the key. Its file is moved into the store, or discarded if the store holds the same content.
+     */
+    void put(String key, String contentType, StagedContent content, long createdAt) throws IOException
+    {
+        File file = contentFile(content.getDigest());
+        if (file.exists())
+            content.discard();
+        else
+            replace(content.getFile(), file);
+
+        addEntry(key, content.getDigest(), contentType, content.getSize(), createdAt);
+    }
+
+    private synchronized void addEntry(String key, String digest, String contentType, long contentSize, long createdAt)
+    {
+        removeEntry(key);
+        if (contentFile(digest).exists())
+        {
+            Entry entry = new Entry(digest, contentType, contentSize, createdAt);
+            entries.put(key, entry);
+            addReference(digest, contentSize);
+            logEntry(key, entry);
+            evict();
+        }
+        saveChanges();
+    }
+
+    synchronized void remove(String key)
+    {
+        if (removeEntry(key))
+            saveChanges();
+    }
+
+    /**
+     * Removes entries with keys starting with the prefix.
+     */
+    synchronized void removeAll(String keyPrefix)
+    {
+        boolean removed = false;
+        for (String key : entries.keySet().toArray(new String[entries.size()]))
+        {
+            if (key.startsWith(keyPrefix))
+                removed |= removeEntry(key);
+        }
+        if (removed)
+            saveChanges();
+    }
+
+    synchronized void clear()
+    {
+        for (String key : entries.keySet().toArray(new String[entries.size()]))
+            removeEntry(key);
+        compactQuietly();
+    }
+
+    /**
+     * Releases content served from the file with the digest, deleting the file if its content was removed.
+     */
+    synchronized void release(String digest)
+    {
+        Integer leases = digestLeases.get(digest);
+        if (leases == null)
+            return;
+
+        if (leases > 1)
+        {
+            digestLeases.put(digest, leases - 1);
+            return;
+        }
+
+        digestLeases.remove(digest);
+        if (!digestReferences.containsKey(digest))
+            deleteContentFile(digest);
+    }
+
+    long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return Total size of stored content files, bytes.
+     */
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (size > maxSize && leastRecentlyUsed.hasNext())
+        {
+            Map.Entry<String, Entry> evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            removeReference(evicted.getValue().digest, evicted.getValue().size);
+            logRemoval(evicted.getKey());
+        }
+    }
+
+    private boolean removeEntry(String key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry == null)
+            return false;
+
+        removeReference(entry.digest, entry.size);
+        logRemoval(key);
+        return true;
+    }
+
+    private void addReference(String digest, long contentSize)
+    {
+        Integer references = digestReferences.get(digest);
+        if (references == null)
+        {
+            digestReferences.put(digest, 1);
+            size += contentSize;
+        }
+        else
+        {
+            digestReferences.put(digest, references + 1);
+        }
+    }
+
+    private void removeReference(String digest, long contentSize)
+    {
+        Integer references = digestReferences.get(digest);
+        if (references == null)
+            return;
+
+        if (references > 1)
+        {
+            digestReferences.put(digest, references - 1);
+            return;
+        }
+
+        digestReferences.remove(digest);
+        size -= contentSize;
+        if (!digestLeases.containsKey(digest))
+            deleteContentFile(digest);
+    }
+
+    private void addLease(String digest)
+    {
+        Integer leases = digestLeases.get(digest);
+        digestLeases.put(digest, leases == null ? 1 : leases + 1);
+    }
+
+    private void deleteContentFile(String digest)
+    {
+        File file = contentFile(digest);
+        if (file.exists() && !file.delete())
+            logger.warn(String.format("Failed to delete cache file %s", file));
+    }
+
+    private File contentFile(String digest)
+    {
+        return new File(directory, digest + CONTENT_FILE_SUFFIX);
+    }
+
+    private void loadIndex() throws IOException
+    {
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.exists())
+            return;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = StringUtils.split(line, '\t');
+                if (fields.length == 1)
+                {
+                    removeLoaded(URLDecoder.decode(fields[0], INDEX_ENCODING));
+                    continue;
+                }
+                if (fields.length != 5)
+                    continue;
+
+                String key = URLDecoder.decode(fields[0], INDEX_ENCODING);
+                removeLoaded(key);
+                String digest = fields[1];
+                File file = contentFile(digest);
+                long contentSize = Long.parseLong(fields[2]);
+                if (!file.exists() || file.length() != contentSize)
+                    continue;
+
+                entries.put(key, new Entry(digest, URLDecoder.decode(fields[4], INDEX_ENCODING), contentSize, Long.parseLong(fields[3])));
+                addReference(digest, contentSize);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            logger.warn(String.format("Corrupt cache index %s, ignoring rest of it", indexFile), e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(reader);
+        }
+
+        evict();
+        deleteUnreferencedFiles();
+    }
+
+    /**
+     * Removes an entry replaced or removed later in the index. Its file is kept,
+     * as later entries may refer to it again.
+     */
+    private void removeLoaded(String key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry == null)
+            return;
+
+        Integer references = digestReferences.get(entry.digest);
+        if (references > 1)
+        {
+            digestReferences.put(entry.digest, references - 1);
+        }
+        else
+        {
+            digestReferences.remove(entry.digest);
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Deletes content files no entry refers to, and temporary files left by interrupted writes.
+     */
+    private void deleteUnreferencedFiles()
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files)
+        {
+            String name = file.getName();
+            boolean unreferenced = name.endsWith(CONTENT_FILE_SUFFIX)
+                    && !digestReferences.containsKey(StringUtils.removeEnd(name, CONTENT_FILE_SUFFIX));
+            if ((unreferenced || name.endsWith(TEMP_FILE_SUFFIX)) && !file.delete())
+                logger.warn(String.format("Failed to delete cache file %s", file));
+        }
+    }
+
+    private void saveIndex() throws IOException
+    {
+        File indexFile = new File(directory, INDEX_FILE);
+        File tempFile = new File(directory, INDEX_FILE + TEMP_FILE_SUFFIX);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8);
+        try
+        {
+            for (Map.Entry<String, Entry> indexEntry : entries.entrySet())
+                writer.write(entryLine(indexEntry.getKey(), indexEntry.getValue()));
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        replace(tempFile, indexFile);
+        indexChanges.setLength(0);
+        indexLines = entries.size();
+    }
+
+    private void logEntry(String key, Entry entry)
+    {
+        indexChanges.append(entryLine(key, entry));
+        indexLines++;
+    }
+
+    private void logRemoval(String key)
+    {
+        indexChanges.append(encode(key)).append('\n');
+        indexLines++;
+    }
+
+    /**
+     * Appends logged changes to the index, or rewrites it when most of its lines are obsolete.
+     */
+    private void saveChanges()
+    {
+        if (indexChanges.length() == 0)
+            return;
+
+        if (indexLines > Math.max(MIN_INDEX_LINES_TO_COMPACT, 2 * entries.size()))
+        {
+            compactQuietly();
+            return;
+        }
+
+        try
+        {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE), true), Charsets.UTF_8);
+            try
+            {
+                writer.write(indexChanges.toString());
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to save cache index", e);
+        }
+        indexChanges.setLength(0);
+    }
+
+    private void compactQuietly()
+    {
+        try
+        {
+            saveIndex();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to save cache index", e);
+        }
+    }
+
+    private static String entryLine(String key, Entry entry)
+    {
+        return encode(key) + '\t' + entry.digest + '\t' + entry.size + '\t' + entry.createdAt + '\t' + encode(entry.contentType) + '\n';
+    }
+
+    private static String encode(String value)
+    {
+        try
+        {
+            return URLEncoder.encode(value, INDEX_ENCODING);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeAtomically(File file, String digest, byte[] content) throws IOException
+    {
+        File tempFile = File.createTempFile(digest, TEMP_FILE_SUFFIX, directory);
+        FileOutputStream output = new FileOutputStream(tempFile);
+        try
+        {
+            output.write(content);
+            output.getFD().sync();
+        }
+        finally
+        {
+            output.close();
+        }
+
+        replace(tempFile, file);
+    }
+
+    private static void replace(File source, File target) throws IOException
+    {
+        if (source.renameTo(target))
+            return;
+
+        if (target.exists() && !target.delete() || !source.renameTo(target))
+            throw new IOException(String.format("Failed to rename %s to %s", source, target));
+    }
+
+    private static String digest(byte[] content)
+    {
+        return hex(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest)
+    {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++)
+        {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+
+    private static class Entry
+    {
+        private final String digest;
+        private final String contentType;
+        private final long size;
+        private final long createdAt;
+        private MappedByteBuffer mapped;
+
+        private Entry(String digest, String contentType, long size, long createdAt)
+        {
+            this.digest = digest;
+            this.contentType = contentType;
+            this.size = size;
+            this.createdAt = createdAt;
+        }
+
+        private MappedByteBuffer map(File file) throws IOException
+        {
+            if (mapped != null)
+                return mapped;
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try
+            {
+                mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return mapped;
+            }
+            finally
+            {
+                randomAccessFile.close();
+            }
+        }
+    }
+}
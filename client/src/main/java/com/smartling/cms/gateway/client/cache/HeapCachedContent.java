@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import org.apache.commons.lang3.Validate;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+
+/**
+ * Cached content held in a byte array.
+ */
+class HeapCachedContent extends CachedContent
+{
+    private final FileUpload template;
+    private final byte[] content;
+
+    /**
+     * @param template Upload to take properties from, its content is not used.
+     */
+    HeapCachedContent(FileUpload template, byte[] content, long createdAt)
+    {
+        super(content.length, createdAt);
+        this.template = Validate.notNull(template);
+        this.content = content;
+    }
+
+    @Override
+    public FileUpload toUpload(BaseCommand request)
+    {
+        FileUpload upload = template.forRequest(request);
+        upload.setContent(content);
+        return upload;
+    }
+}
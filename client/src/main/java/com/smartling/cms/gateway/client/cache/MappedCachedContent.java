@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpEntity;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.upload.ByteBufferEntity;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+
+/**
+ * Cached content in a memory-mapped file of {@link DiskContentStore}.
+ * Store keeps the file until the content is released.
+ */
+class MappedCachedContent extends CachedContent
+{
+    private final DiskContentStore store;
+    private final String digest;
+    private final String contentType;
+    private final ByteBuffer content;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    MappedCachedContent(DiskContentStore store, String digest, String contentType, ByteBuffer content, long createdAt)
+    {
+        super(content.capacity(), createdAt);
+        this.store = store;
+        this.digest = digest;
+        this.contentType = contentType;
+        this.content = content;
+    }
+
+    @Override
+    public FileUpload toUpload(BaseCommand request)
+    {
+        MappedFileUpload upload = new MappedFileUpload(request, content.duplicate());
+        upload.setContentType(contentType, null);
+        return upload;
+    }
+
+    @Override
+    public void release()
+    {
+        if (released.compareAndSet(false, true))
+            store.release(digest);
+    }
+
+
+    /**
+     * File upload sending content from the mapped buffer.
+     */
+    private static class MappedFileUpload extends FileUpload
+    {
+        private final ByteBuffer content;
+
+        private MappedFileUpload(BaseCommand request, ByteBuffer content)
+        {
+            super(request);
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            try
+            {
+                return getHttpEntity().getContent();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean isRepeatable()
+        {
+            return true;
+        }
+
+        @Override
+        public HttpEntity getHttpEntity() throws IOException
+        {
+            return new ByteBufferEntity(content, getContentType());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Content written to a temporary file of {@link DiskContentStore}, with digest computed while it was written.
+ * Upload is sent from the file, which then becomes cached content or is discarded.
+ */
+public class StagedContent
+{
+    private static final Logger logger = Logger.getLogger(StagedContent.class);
+
+    private final File file;
+    private final String digest;
+    private final long size;
+
+    StagedContent(File file, String digest, long size)
+    {
+        this.file = file;
+        this.digest = digest;
+        this.size = size;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    String getDigest()
+    {
+        return digest;
+    }
+
+    /**
+     * Deletes the file, unless it has become cached content.
+     */
+    public void discard()
+    {
+        if (file.exists() && !file.delete())
+            logger.warn(String.format("Failed to delete staged cache file %s", file));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Stops reconnect attempts after consecutive failures. Once failure threshold is reached the circuit
+ * is open: next attempt waits for open time, and is a single half-open probe. If the probe fails
+ * the circuit opens again, if it succeeds the circuit is closed and attempts follow reconnect policy again.
+ */
+public class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openTime;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold Number of consecutive failures opening the circuit.
+     * @param openTime Milliseconds to wait before probing open circuit.
+     */
+    public CircuitBreaker(int failureThreshold, long openTime)
+    {
+        Validate.isTrue(failureThreshold > 0, "Failure threshold must be positive");
+        Validate.isTrue(openTime >= 0, "Open time must not be negative");
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @return Circuit breaker which is never open.
+     */
+    public static CircuitBreaker disabled()
+    {
+        return new CircuitBreaker(Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @return Closed circuit breaker with the same settings.
+     */
+    public CircuitBreaker copy()
+    {
+        return new CircuitBreaker(failureThreshold, openTime);
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public synchronized void onSuccess()
+    {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void onFailure()
+    {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold)
+        {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Lets next attempt through, as half-open probe if the circuit is open.
+     * @return Milliseconds next attempt has to wait for the circuit, 0 if it is closed.
+     */
+    public synchronized long nextAttempt()
+    {
+        if (state != State.OPEN)
+            return 0;
+
+        state = State.HALF_OPEN;
+        return Math.max(0, openedAt + openTime - System.currentTimeMillis());
+    }
+}
@@ -39,6 +39,7 @@ import com.smartling.cms.gateway.client.Response;
 public class ErrorResponse extends Response
 {
     private int httpCode;
+    private int retryAfter;
     private ArrayList<String> messages;
 
     public ErrorResponse(BaseCommand request)
@@ -55,6 +56,19 @@ public class ErrorResponse extends Response
         httpCode = value;
     }
 
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * Sets hint in seconds for server when to retry the request, same as HTTP Retry-After.
+     */
+    public void setRetryAfter(int seconds)
+    {
+        retryAfter = seconds;
+    }
+
     public void addErrorMessage(String value)
     {
         if (messages == null)
@@ -62,6 +76,19 @@ public class ErrorResponse extends Response
         messages.add(value);
     }
 
+    /**
+     * Creates error response with the same properties for another request.
+     */
+    public ErrorResponse forRequest(BaseCommand request)
+    {
+        ErrorResponse response = new ErrorResponse(request);
+        response.httpCode = httpCode;
+        response.retryAfter = retryAfter;
+        if (messages != null)
+            response.messages = new ArrayList<String>(messages);
+        return response;
+    }
+
     public String toJSONString()
     {
         JsonObject obj = new JsonObject();
@@ -70,6 +97,8 @@ public class ErrorResponse extends Response
         obj.addProperty("uri", getRequest().getUri());
         if (httpCode != 0)
             obj.addProperty("httpCode", httpCode);
+        if (retryAfter != 0)
+            obj.addProperty("retryAfter", retryAfter);
         if (messages != null)
         {
             Type typeOfSrc = new TypeToken<Collection<String>>(){}.getType();
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import java.util.Random;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Built-in {@link ReconnectPolicy} implementations.
+ *
+ * {@code
+ *  builder.setReconnectPolicy(ReconnectPolicies.decorrelatedJitter(1000, 60000));
+ * }
+ */
+public final class ReconnectPolicies
+{
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 60000;
+
+    private ReconnectPolicies()
+    {
+    }
+
+    /**
+     * Delays of 1, 3, 7, 15... seconds without limit, as {@link ReconnectStrategy} always did.
+     */
+    public static ReconnectPolicy doubling()
+    {
+        return new ReconnectPolicy()
+        {
+            @Override
+            public long getDelay(int attempt, long previousDelay)
+            {
+                return (previousDelay + 500) * 2;
+            }
+        };
+    }
+
+    /**
+     * The same delay before every attempt.
+     */
+    public static ReconnectPolicy fixed(final long delay)
+    {
+        Validate.isTrue(delay >= 0, "Delay must not be negative");
+        return new ReconnectPolicy()
+        {
+            @Override
+            public long getDelay(int attempt, long previousDelay)
+            {
+                return delay;
+            }
+        };
+    }
+
+    /**
+     * Delay doubling from base delay with every attempt, up to maximum delay.
+     */
+    public static ReconnectPolicy capped(final long baseDelay, final long maxDelay)
+    {
+        validate(baseDelay, maxDelay);
+        return new ReconnectPolicy()
+        {
+            @Override
+            public long getDelay(int attempt, long previousDelay)
+            {
+                int doublings = Math.min(attempt - 1, 62);
+                return baseDelay > maxDelay >> doublings ? maxDelay : Math.min(baseDelay << doublings, maxDelay);
+            }
+        };
+    }
+
+    /**
+     * Random delay between base delay and three times the previous delay, up to maximum delay.
+     * Clients dropped at the same time spread their attempts instead of reconnecting in lockstep.
+     */
+    public static ReconnectPolicy decorrelatedJitter(final long baseDelay, final long maxDelay)
+    {
+        validate(baseDelay, maxDelay);
+        final Random random = new Random();
+        return new ReconnectPolicy()
+        {
+            @Override
+            public long getDelay(int attempt, long previousDelay)
+            {
+                long upper = Math.min(Math.max(previousDelay, baseDelay) * 3, maxDelay);
+                if (upper <= baseDelay)
+                    return upper;
+                return baseDelay + (long)(random.nextDouble() * (upper - baseDelay));
+            }
+        };
+    }
+
+    private static void validate(long baseDelay, long maxDelay)
+    {
+        Validate.isTrue(baseDelay > 0 && baseDelay <= maxDelay, "Base delay must be positive and not over maximum delay");
+    }
+}
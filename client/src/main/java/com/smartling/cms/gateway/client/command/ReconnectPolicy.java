@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+/**
+ * Decides how long to wait before next attempt to reconnect command channel.
+ * Built-in policies are created by {@link ReconnectPolicies}.
+ */
+public interface ReconnectPolicy
+{
+    /**
+     * @param attempt Number of attempts made so far, 1 or more.
+     * @param previousDelay Milliseconds waited before the last attempt, 0 before the first one.
+     * @return Milliseconds to wait before next attempt.
+     */
+    long getDelay(int attempt, long previousDelay);
+}
@@ -2,51 +2,124 @@ package com.smartling.cms.gateway.client.command;
 
 import java.io.IOException;
 
+import org.apache.commons.lang3.Validate;
+
 /**
  * Implements client reconnect strategy on connection errors.
+ * Delays between attempts are decided by {@link ReconnectPolicy}, and consecutive failures
+ * may open {@link CircuitBreaker}, which holds attempts back for its open time.
  */
 public class ReconnectStrategy
 {
+    private final ReconnectPolicy policy;
+    private final CircuitBreaker circuitBreaker;
     private Exception lastError;
     private long delayInterval;
     private boolean retry = true;
+    private int attemptCount;
+    private long nextAttemptTime;
+
+    public ReconnectStrategy()
+    {
+        this(ReconnectPolicies.doubling(), CircuitBreaker.disabled());
+    }
+
+    public ReconnectStrategy(ReconnectPolicy policy, CircuitBreaker circuitBreaker)
+    {
+        this.policy = Validate.notNull(policy);
+        this.circuitBreaker = Validate.notNull(circuitBreaker);
+    }
+
+    /**
+     * Creates strategy with the same reconnect policy and a new circuit breaker of the same settings,
+     * for another client. Subclasses override it to copy their own settings.
+     */
+    public ReconnectStrategy copy()
+    {
+        return new ReconnectStrategy(policy, circuitBreaker.copy());
+    }
 
-    public boolean shouldRetry()
+    public synchronized boolean shouldRetry()
     {
         return retry;
     }
 
-    public void observeError(Exception e)
+    public synchronized void observeError(Exception e)
     {
         lastError = e;
         retry = retry && (e instanceof IOException);
+        circuitBreaker.onFailure();
+    }
+
+    /**
+     * Resets strategy after connection is established, closing circuit breaker.
+     */
+    public synchronized void observeSuccess()
+    {
+        circuitBreaker.onSuccess();
+        reset();
     }
 
-    public Exception getLastError()
+    public synchronized Exception getLastError()
     {
         return lastError;
     }
 
-    public long getDelayInterval()
+    public synchronized long getDelayInterval()
     {
         return delayInterval;
     }
 
     public void delay() throws InterruptedException
     {
-        if (delayInterval > 0)
+        long delay = nextDelay();
+        if (delay > 0)
         {
-            Thread.sleep(delayInterval);
+            Thread.sleep(delay);
         }
+    }
+
+    /**
+     * Returns delay before next attempt without waiting, for attempts scheduled on a timer.
+     * @return Milliseconds, as decided by reconnect policy and circuit breaker.
+     */
+    public synchronized long nextDelay()
+    {
+        long delay = Math.max(delayInterval, circuitBreaker.nextAttempt());
+        attemptCount++;
+        nextAttemptTime = System.currentTimeMillis() + delay;
+        delayInterval = policy.getDelay(attemptCount, delay);
+        return delay;
+    }
+
+    /**
+     * @return Number of attempts since last reset.
+     */
+    public synchronized int getAttemptCount()
+    {
+        return attemptCount;
+    }
+
+    /**
+     * @return Time of the last attempt scheduled, milliseconds since epoch, 0 if none since last reset.
+     */
+    public synchronized long getNextAttemptTime()
+    {
+        return nextAttemptTime;
+    }
 
-        delayInterval = (delayInterval + 500) * 2;
+    public CircuitBreaker.State getCircuitState()
+    {
+        return circuitBreaker.getState();
     }
 
-    public ReconnectStrategy reset()
+    public synchronized ReconnectStrategy reset()
     {
         lastError = null;
         delayInterval = 0;
         retry = true;
+        attemptCount = 0;
+        nextAttemptTime = 0;
 
         return this;
     }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.commons.lang3.Validate;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+/**
+ * Decides which failed uploads are sent again and when.
+ * Uploads are retried on I/O errors, HTTP 5xx errors and {@link Status#GENERAL_ERROR} or
+ * {@link Status#MAINTENANCE_MODE_ERROR} status, after exponentially growing random delay.
+ * Retries are limited by a budget: each upload adds a fraction of a retry to it, and each
+ * retry takes one, so that a gateway outage does not multiply upload traffic.
+ *
+ * {@code
+ *  CmsGatewayClient client = CmsGatewayClientBuilder.create()
+ *      .setUploadRetryPolicy(new UploadRetryPolicy(4, 500, 30000))
+ *      .build();
+ * }
+ */
+public class UploadRetryPolicy
+{
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+    public static final long DEFAULT_MAX_BACKOFF = 30000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_BUDGET_BURST = 20;
+
+    private static final Random random = new Random();
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double budgetRatio;
+    private final int budgetBurst;
+
+    /**
+     * @param maxAttempts Maximum number of times to send an upload, including the first one.
+     * @param initialBackoff Maximum milliseconds before first retry, doubled for each next retry.
+     * @param maxBackoff Maximum milliseconds before any retry.
+     */
+    public UploadRetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff)
+    {
+        this(maxAttempts, initialBackoff, maxBackoff, DEFAULT_BUDGET_RATIO, DEFAULT_BUDGET_BURST);
+    }
+
+    /**
+     * @param budgetRatio Retries allowed per upload in the long run.
+     * @param budgetBurst Retries allowed in a row when budget is full.
+     */
+    public UploadRetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, double budgetRatio, int budgetBurst)
+    {
+        Validate.isTrue(maxAttempts > 0, "Maximum attempts must be positive");
+        Validate.isTrue(initialBackoff >= 0 && maxBackoff >= initialBackoff, "Invalid backoff range");
+        Validate.isTrue(budgetRatio >= 0, "Retry budget ratio must not be negative");
+        Validate.isTrue(budgetBurst >= 0, "Retry budget burst must not be negative");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.budgetRatio = budgetRatio;
+        this.budgetBurst = budgetBurst;
+    }
+
+    /**
+     * @return Policy which sends every upload once.
+     */
+    public static UploadRetryPolicy none()
+    {
+        return new UploadRetryPolicy(1, 0, 0, 0, 0);
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public double getBudgetRatio()
+    {
+        return budgetRatio;
+    }
+
+    public int getBudgetBurst()
+    {
+        return budgetBurst;
+    }
+
+    /**
+     * @return true if upload answered with the status is worth sending again.
+     */
+    public boolean isRetryable(ResponseStatus<Void> responseStatus)
+    {
+        Status status = Status.findByName(responseStatus.getCode());
+        return status == Status.GENERAL_ERROR || status == Status.MAINTENANCE_MODE_ERROR;
+    }
+
+    /**
+     * @return true if upload failed with the error is worth sending again.
+     */
+    public boolean isRetryable(Exception error)
+    {
+        if (error instanceof IOException)
+            return true;
+
+        if (error instanceof UploadFailedException)
+        {
+            UploadFailedException uploadError = (UploadFailedException)error;
+            if (uploadError.getResponseStatus() != null && isRetryable(uploadError.getResponseStatus()))
+                return true;
+            return uploadError.getHttpStatusCode() >= 500;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param attempt Number of failed attempt, starting from 1.
+     * @return Random milliseconds to wait before next attempt, between 0 and exponential backoff.
+     */
+    public long getBackoff(int attempt)
+    {
+        long backoff = initialBackoff << Math.min(attempt - 1, 30);
+        if (backoff < 0 || backoff > maxBackoff)
+            backoff = maxBackoff;
+
+        return (long)(random.nextDouble() * (backoff + 1));
+    }
+}
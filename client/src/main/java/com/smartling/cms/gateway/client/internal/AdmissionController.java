@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Caps number of get commands being handled at the same time.
+ * A command is in flight from admission until its handler call returns.
+ */
+public class AdmissionController
+{
+    public static final int UNLIMITED = 0;
+
+    private final int maxInFlight;
+    private final int retryAfterSeconds;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxInFlight Maximum number of commands in flight, {@link #UNLIMITED} for no limit.
+     * @param retryAfterSeconds Retry hint sent to server with rejected commands, 0 for none.
+     */
+    public AdmissionController(int maxInFlight, int retryAfterSeconds)
+    {
+        Validate.isTrue(maxInFlight >= 0, "Maximum in-flight commands must not be negative");
+        Validate.isTrue(retryAfterSeconds >= 0, "Retry after must not be negative");
+        this.maxInFlight = maxInFlight;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public static AdmissionController unlimited()
+    {
+        return new AdmissionController(UNLIMITED, 0);
+    }
+
+    /**
+     * @return true when command is admitted and {@link #release()} must be called once it is handled.
+     */
+    public boolean tryAdmit()
+    {
+        while (true)
+        {
+            int current = inFlight.get();
+            if (maxInFlight != UNLIMITED && current >= maxInFlight)
+            {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+            {
+                admitted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public void release()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Turns an admitted command into a rejected one, e.g. when it could not be queued.
+     */
+    public void reject()
+    {
+        release();
+        admitted.decrementAndGet();
+        rejected.incrementAndGet();
+    }
+
+    public int getRetryAfterSeconds()
+    {
+        return retryAfterSeconds;
+    }
+
+    public int getInFlightCount()
+    {
+        return inFlight.get();
+    }
+
+    public long getAdmittedCount()
+    {
+        return admitted.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+}
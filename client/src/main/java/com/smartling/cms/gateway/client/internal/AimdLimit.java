@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+/**
+ * Concurrency limit adjusted by additive increase, multiplicative decrease.
+ * The limit grows by one per limit's worth of successful uploads while it is fully used,
+ * and is cut by backoff ratio when gateway is overloaded: uploads fail with 503, 429, maintenance
+ * status or I/O errors, or recent round-trip time grows over tolerance times its long-term average.
+ * The limit is cut at most once per round trip, as uploads completing meanwhile saw the same overload.
+ */
+public class AimdLimit
+{
+    public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+    public static final double DEFAULT_RTT_TOLERANCE = 2.0;
+
+    private static final double SHORT_RTT_WEIGHT = 0.3;
+    private static final double LONG_RTT_WEIGHT = 0.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double rttTolerance;
+    private double limit;
+    private double shortRtt;
+    private double longRtt;
+    private long lastDecrease;
+    private boolean decreased;
+
+    public AimdLimit(int minLimit, int maxLimit)
+    {
+        this(minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_RTT_TOLERANCE);
+    }
+
+    /**
+     * @param backoffRatio Limit is multiplied by it on overload.
+     * @param rttTolerance Recent round-trip time over this many times its long-term average means overload.
+     */
+    public AimdLimit(int minLimit, int maxLimit, double backoffRatio, double rttTolerance)
+    {
+        Validate.isTrue(minLimit > 0 && minLimit <= maxLimit, "Limits must be positive, minimum not over maximum");
+        Validate.isTrue(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio must be between 0 and 1");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.rttTolerance = rttTolerance;
+        this.limit = minLimit;
+    }
+
+    /**
+     * @return Limit which does not change.
+     */
+    public static AimdLimit fixed(int limit)
+    {
+        return new AimdLimit(limit, limit);
+    }
+
+    public synchronized int getLimit()
+    {
+        return (int)limit;
+    }
+
+    /**
+     * Adjusts limit by upload outcome.
+     * @param rtt Time from upload start to completion, nanoseconds.
+     * @param saturated true if the limit was fully used when upload started.
+     * @param status Upload status, null if upload failed.
+     * @param error Upload error, null if upload completed.
+     */
+    public synchronized void onSample(long rtt, boolean saturated, ResponseStatus<Void> status, Exception error)
+    {
+        if (minLimit == maxLimit)
+            return;
+
+        long now = System.nanoTime();
+        updateRtt(rtt);
+        boolean overloaded = isOverload(status, error) || isSlow(rtt);
+
+        if (overloaded)
+        {
+            if (!decreased || now - lastDecrease > (long)shortRtt)
+            {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+                decreased = true;
+            }
+        }
+        else if (saturated)
+        {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private boolean isSlow(long rtt)
+    {
+        return longRtt > 0 && shortRtt > longRtt * rttTolerance && rtt > longRtt * rttTolerance;
+    }
+
+    private void updateRtt(long rtt)
+    {
+        shortRtt = shortRtt == 0 ? rtt : shortRtt + SHORT_RTT_WEIGHT * (rtt - shortRtt);
+        longRtt = longRtt == 0 ? rtt : longRtt + LONG_RTT_WEIGHT * (rtt - longRtt);
+    }
+
+    private static boolean isOverload(ResponseStatus<Void> status, Exception error)
+    {
+        if (error instanceof IOException)
+            return true;
+
+        if (error instanceof UploadFailedException)
+        {
+            int httpStatusCode = ((UploadFailedException)error).getHttpStatusCode();
+            return httpStatusCode == 503 || httpStatusCode == 429;
+        }
+
+        return status != null && Status.findByName(status.getCode()) == Status.MAINTENANCE_MODE_ERROR;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("AimdLimit[limit=%.2f, rtt=%d ms]", limit, TimeUnit.NANOSECONDS.toMillis((long)longRtt));
+    }
+}
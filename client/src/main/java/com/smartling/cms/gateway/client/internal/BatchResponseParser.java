@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.Charsets;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Extracts statuses of batched uploads from upload channel HttpResponse:
+ * {"response":{"code":..,"messages":[..],"data":{"&lt;rid&gt;":{"code":..,"messages":[..]},..}}}.
+ */
+public final class BatchResponseParser
+{
+    private BatchResponseParser()
+    {
+    }
+
+    /**
+     * @return Upload statuses by request id.
+     * @throws UploadFailedException When the whole batch failed.
+     * @throws CmsGatewayClientException When response has no status.
+     */
+    public static Map<String, ResponseStatus<Void>> parse(HttpResponse httpResponse) throws IOException, CmsGatewayClientException
+    {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        HttpEntity entity = httpResponse.getEntity();
+        if (statusCode != 200)
+        {
+            EntityUtils.consume(entity);
+            throw new UploadFailedException(String.format("Batch upload failed (%d): %s", statusCode,
+                    httpResponse.getStatusLine().getReasonPhrase()), statusCode, null);
+        }
+
+        if (entity == null)
+            throw new CmsGatewayClientException("Batch upload response has no status");
+
+        JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), Charsets.UTF_8));
+        try
+        {
+            Map<String, ResponseStatus<Void>> statuses = read(reader);
+            if (statuses == null)
+                throw new CmsGatewayClientException("Batch upload response has no status");
+            return statuses;
+        }
+        catch (IllegalStateException e)
+        {
+            throw new CmsGatewayClientException(e);
+        }
+        finally
+        {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    private static Map<String, ResponseStatus<Void>> read(JsonReader in) throws IOException
+    {
+        Map<String, ResponseStatus<Void>> statuses = null;
+
+        in.beginObject();
+        while (in.hasNext())
+        {
+            if (in.nextName().equals("response") && in.peek() != JsonToken.NULL)
+                statuses = readResponse(in);
+            else
+                in.skipValue();
+        }
+        in.endObject();
+
+        return statuses;
+    }
+
+    private static Map<String, ResponseStatus<Void>> readResponse(JsonReader in) throws IOException
+    {
+        Map<String, ResponseStatus<Void>> statuses = new HashMap<String, ResponseStatus<Void>>();
+
+        in.beginObject();
+        while (in.hasNext())
+        {
+            if (in.nextName().equals("data") && in.peek() != JsonToken.NULL)
+            {
+                in.beginObject();
+                while (in.hasNext())
+                {
+                    String requestId = in.nextName();
+                    statuses.put(requestId, ResponseStatusTypeAdapter.readStatus(in));
+                }
+                in.endObject();
+            }
+            else
+            {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return statuses;
+    }
+}
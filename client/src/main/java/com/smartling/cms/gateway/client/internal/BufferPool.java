@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.ArrayDeque;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Pool of fixed size byte arrays, so that buffering upload content does not allocate
+ * new memory for every upload. Number of arrays kept in pool is limited.
+ */
+public class BufferPool
+{
+    private final int chunkSize;
+    private final int maxPooled;
+    private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+    /**
+     * @param chunkSize Size of an array, bytes.
+     * @param maxPooled Maximum number of free arrays to keep.
+     */
+    public BufferPool(int chunkSize, int maxPooled)
+    {
+        Validate.isTrue(chunkSize > 0, "Chunk size must be positive");
+        Validate.isTrue(maxPooled >= 0, "Maximum pooled chunks must not be negative");
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public synchronized byte[] acquire()
+    {
+        byte[] chunk = free.pollFirst();
+        return chunk != null ? chunk : new byte[chunkSize];
+    }
+
+    public synchronized void release(byte[] chunk)
+    {
+        if (chunk.length == chunkSize && free.size() < maxPooled)
+            free.addFirst(chunk);
+    }
+
+    /**
+     * @return Number of free arrays in pool.
+     */
+    public synchronized int getPooledCount()
+    {
+        return free.size();
+    }
+}
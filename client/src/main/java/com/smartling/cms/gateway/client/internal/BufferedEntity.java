@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Repeatable copy of upload entity made by {@link UploadBuffer}.
+ * Holds pooled memory or a temporary file until released.
+ */
+public abstract class BufferedEntity extends AbstractHttpEntity implements HttpAsyncContentProducer
+{
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+    /**
+     * Returns memory to pool or deletes temporary file. Entity must not be sent after that.
+     */
+    public abstract void release();
+
+    /**
+     * Frees content without returning memory to pool, for when entity may still be sent.
+     */
+    public abstract void discard();
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Keeps upload connections alive for as long as server allows in Keep-Alive header,
+ * but not longer than maximum. Connections are kept for maximum time when server does not say.
+ */
+public class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy
+{
+    private final long maxKeepAlive;
+
+    /**
+     * @param maxKeepAlive Milliseconds.
+     */
+    public CappedKeepAliveStrategy(long maxKeepAlive)
+    {
+        Validate.isTrue(maxKeepAlive > 0, "Keep alive must be positive");
+        this.maxKeepAlive = maxKeepAlive;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+    {
+        long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return keepAlive >= 0 ? Math.min(keepAlive, maxKeepAlive) : maxKeepAlive;
+    }
+}
@@ -24,4 +24,9 @@ import java.util.concurrent.Future;
 public interface CommandChannelSession extends Closeable
 {
     Future<Void> send(String text);
+
+    /**
+     * @return Smoothed round trip time of heartbeat pings in milliseconds, 0 until measured.
+     */
+    long getRoundTripTime();
 }
@@ -29,4 +29,9 @@ public interface CommandChannelTransport
     CommandChannelSession connectToServer(Object annotatedEndpoint, URI uri) throws IOException, CmsGatewayClientException;
 
     void setHeartbeatInterval(long heartbeatInterval);
+
+    /**
+     * @param heartbeatMissLimit Number of pings in a row left without pong to consider server dead, 0 to never.
+     */
+    void setHeartbeatMissLimit(int heartbeatMissLimit);
 }
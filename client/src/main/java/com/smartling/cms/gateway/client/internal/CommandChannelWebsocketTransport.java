@@ -17,11 +17,18 @@ package com.smartling.cms.gateway.client.internal;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.DeploymentException;
+import javax.websocket.MessageHandler;
+import javax.websocket.PongMessage;
 import javax.websocket.RemoteEndpoint.Async;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
@@ -33,20 +40,33 @@ import com.smartling.cms.gateway.client.CmsGatewayClientException;
 
 /**
  * Websocket transport for command channel.
- *
+ * Sessions are pinged on a scheduler shared by all of them, by default {@link CommandExecutors#sharedScheduler()}.
+ * Pongs measure round trip time, and session is closed when server misses to pong several pings in a row.
  */
 public class CommandChannelWebsocketTransport implements CommandChannelTransport
 {
     public static final long DEFAULT_HEARTBEAT_INTERVAL = 40000;
+    public static final int DEFAULT_HEARTBEAT_MISS_LIMIT = 3;
 
     private static final Logger logger = Logger.getLogger(CommandChannelWebsocketTransport.class);
 
     private final WebSocketContainer container;
+    private final ScheduledExecutorService heartbeatScheduler;
     private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private int heartbeatMissLimit = DEFAULT_HEARTBEAT_MISS_LIMIT;
 
     public CommandChannelWebsocketTransport(WebSocketContainer container)
+    {
+        this(container, CommandExecutors.sharedScheduler());
+    }
+
+    /**
+     * @param heartbeatScheduler Scheduler to ping sessions on, not shut down by transport.
+     */
+    public CommandChannelWebsocketTransport(WebSocketContainer container, ScheduledExecutorService heartbeatScheduler)
     {
         this.container = Validate.notNull(container);
+        this.heartbeatScheduler = Validate.notNull(heartbeatScheduler);
     }
 
     @Override
@@ -56,7 +76,7 @@ public class CommandChannelWebsocketTransport implements CommandChannelTransport
         try
         {
             Session session = container.connectToServer(annotatedEndpoint, path);
-            return new WebsocketSession(session, heartbeatInterval);
+            return new WebsocketSession(session, heartbeatScheduler, heartbeatInterval, heartbeatMissLimit);
         }
         catch (DeploymentException e)
         {
@@ -70,52 +90,189 @@ public class CommandChannelWebsocketTransport implements CommandChannelTransport
         this.heartbeatInterval = heartbeatInterval;
     }
 
+    @Override
+    public void setHeartbeatMissLimit(int heartbeatMissLimit)
+    {
+        this.heartbeatMissLimit = heartbeatMissLimit;
+    }
+
 
     private static class WebsocketSession implements CommandChannelSession
     {
+        private static final int ROUND_TRIP_TIME_WEIGHT = 8;
+
         private final Session session;
-        private final Timer pingTimer = new Timer();
+        private final ScheduledExecutorService heartbeatScheduler;
+        private final long heartbeatInterval;
+        private final int heartbeatMissLimit;
+        private volatile ScheduledFuture<?> ping;
+        private volatile boolean closed;
+        private volatile long lastActivity = System.nanoTime();
+        private long pingSentAt;
+        private int missedPongs;
+        private long roundTripTime = -1;
 
-        private WebsocketSession(Session session, long heartbeatInterval)
+        private WebsocketSession(Session session, ScheduledExecutorService heartbeatScheduler, long heartbeatInterval, int heartbeatMissLimit)
         {
             this.session = Validate.notNull(session);
+            this.heartbeatScheduler = heartbeatScheduler;
+            this.heartbeatInterval = heartbeatInterval;
+            this.heartbeatMissLimit = heartbeatMissLimit;
 
             if (heartbeatInterval > 0)
             {
-                pingTimer.schedule(new PingTimerTask(), heartbeatInterval, heartbeatInterval);
+                addPongHandler();
+                schedulePing(heartbeatInterval);
             }
         }
 
         @Override
         public Future<Void> send(String text)
         {
+            lastActivity = System.nanoTime();
             Async remote = session.getAsyncRemote();
             return remote.sendText(text);
         }
 
+        @Override
+        public synchronized long getRoundTripTime()
+        {
+            return roundTripTime < 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(roundTripTime);
+        }
+
         @Override
         public void close() throws IOException
         {
+            closed = true;
             session.close();
-            pingTimer.cancel();
+            cancelPing();
+        }
+
+        private void addPongHandler()
+        {
+            try
+            {
+                session.addMessageHandler(new MessageHandler.Whole<PongMessage>()
+                {
+                    @Override
+                    public void onMessage(PongMessage message)
+                    {
+                        onPong(message.getApplicationData());
+                    }
+                });
+            }
+            catch (IllegalStateException e)
+            {
+                logger.warn("Command channel endpoint handles pongs itself, dead server is not detected", e);
+            }
+        }
+
+        private void onPong(ByteBuffer applicationData)
+        {
+            long now = System.nanoTime();
+            lastActivity = now;
+            synchronized (this)
+            {
+                missedPongs = 0;
+                if (pingSentAt != 0 && applicationData != null && applicationData.remaining() == 8
+                        && applicationData.getLong(applicationData.position()) == pingSentAt)
+                {
+                    long sample = now - pingSentAt;
+                    roundTripTime = roundTripTime < 0 ? sample : roundTripTime + (sample - roundTripTime) / ROUND_TRIP_TIME_WEIGHT;
+                    pingSentAt = 0;
+                }
+            }
+        }
+
+        private void schedulePing(long delay)
+        {
+            try
+            {
+                ping = heartbeatScheduler.schedule(new PingTask(), delay, TimeUnit.MILLISECONDS);
+                if (closed)
+                    cancelPing();
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.debug("Heartbeat scheduler is shut down, session is not pinged any more");
+            }
+        }
+
+        private void cancelPing()
+        {
+            ScheduledFuture<?> scheduled = ping;
+            if (scheduled != null)
+                scheduled.cancel(false);
         }
 
-        private class PingTimerTask extends TimerTask
+        /**
+         * Pings server once session is idle for heartbeat interval, so sessions sending
+         * responses are not pinged. Server which misses to pong several pings in a row is
+         * considered dead, and session is closed to have it reconnected.
+         */
+        private class PingTask implements Runnable
         {
             @Override
             public void run()
             {
+                // Session closed by server is never closed here, so its pings stop themselves.
+                if (closed || !session.isOpen())
+                    return;
+
+                long delay = heartbeatInterval;
                 try
                 {
-                    if (session.isOpen())
+                    long now = System.nanoTime();
+                    synchronized (WebsocketSession.this)
                     {
-                        // A Pong frame MAY be sent unsolicited. This serves as a unidirectional heartbeat.
-                        session.getAsyncRemote().sendPong(null);
+                        if (pingSentAt != 0)
+                        {
+                            missedPongs++;
+                            if (heartbeatMissLimit > 0 && missedPongs >= heartbeatMissLimit)
+                            {
+                                closeDeadSession();
+                                return;
+                            }
+                        }
+                        else
+                        {
+                            long idle = TimeUnit.NANOSECONDS.toMillis(now - lastActivity);
+                            if (idle < heartbeatInterval)
+                            {
+                                delay = heartbeatInterval - idle;
+                                return;
+                            }
+                        }
+                        pingSentAt = now;
                     }
+
+                    ByteBuffer applicationData = ByteBuffer.allocate(8);
+                    applicationData.putLong(now).flip();
+                    session.getAsyncRemote().sendPing(applicationData);
+                }
+                catch (Exception e)
+                {
+                    // Exception would cancel further pings, so it is only logged.
+                    logger.error("Failed to ping server", e);
+                }
+                finally
+                {
+                    if (!closed && session.isOpen())
+                        schedulePing(delay);
+                }
+            }
+
+            private void closeDeadSession()
+            {
+                logger.warn(String.format("Server missed %d pongs, closing command channel session", missedPongs));
+                closed = true;
+                try
+                {
+                    session.close(new CloseReason(CloseCodes.GOING_AWAY, "heartbeat timeout"));
                 }
                 catch (IOException e)
                 {
-                    logger.error("Failed to pong server", e);
+                    logger.error("Failed to close command channel session", e);
                 }
             }
         }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+
+import com.smartling.cms.gateway.client.command.CommandOverflowPolicy;
+
+/**
+ * Executors for command handler invocations.
+ */
+public final class CommandExecutors
+{
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private static ScheduledExecutorService sharedScheduler;
+
+    private CommandExecutors()
+    {
+    }
+
+    /**
+     * Daemon scheduler shared by all clients in the JVM, for short tasks such as heartbeats and reconnects.
+     * It is never shut down.
+     */
+    public static synchronized ScheduledExecutorService sharedScheduler()
+    {
+        if (sharedScheduler == null)
+            sharedScheduler = newDaemonScheduler(2, "cmsgateway-scheduler-");
+        return sharedScheduler;
+    }
+
+    /**
+     * Runs commands on the calling thread, i.e. command channel receive thread.
+     */
+    public static Executor directExecutor()
+    {
+        return DIRECT;
+    }
+
+    /**
+     * Fixed size pool of daemon worker threads with a bounded queue.
+     * With {@link CommandOverflowPolicy#REJECT} a full queue makes
+     * {@link Executor#execute(Runnable)} throw {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueCapacity, CommandOverflowPolicy overflowPolicy)
+    {
+        Validate.isTrue(threads > 0, "Number of command threads must be positive");
+        Validate.isTrue(queueCapacity > 0, "Command queue capacity must be positive");
+        Validate.notNull(overflowPolicy);
+
+        RejectedExecutionHandler rejectedExecutionHandler = overflowPolicy == CommandOverflowPolicy.CALLER_RUNS
+                ? new ThreadPoolExecutor.CallerRunsPolicy()
+                : new ThreadPoolExecutor.AbortPolicy();
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new DaemonThreadFactory("cmsgateway-command-"),
+                rejectedExecutionHandler);
+    }
+
+    /**
+     * Scheduler with a fixed number of daemon threads, for delayed and periodic tasks shared by several clients.
+     */
+    public static ScheduledExecutorService newDaemonScheduler(int threads, String namePrefix)
+    {
+        Validate.isTrue(threads > 0, "Number of scheduler threads must be positive");
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory(namePrefix));
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return scheduler;
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        DaemonThreadFactory(String namePrefix)
+        {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.log4j.Logger;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+/**
+ * Skips uploading content gateway already holds. Keeps SHA-256 digest of the content last uploaded
+ * for each resource URI. When content for the URI has the same digest again, gateway is asked
+ * with a GET to the probe URI with "sha256" parameter, and answers
+ * {"response":{"code":"SUCCESS","data":{"present":true}}} if it has completed the upload from
+ * stored content. Otherwise, or if probe fails, content is uploaded as usual.
+ * Content larger than maximum digest size is uploaded without computing its digest, as reading
+ * it all before the upload starts would cost more than uploading it again.
+ */
+public class ContentDeduplicator
+{
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final int DEFAULT_MAX_STREAM_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_DIGEST_SIZE = 16 * 1024 * 1024;
+
+    private static final Logger logger = Logger.getLogger(ContentDeduplicator.class);
+
+    private static final ResponseStatusTypeAdapter.DataReader<Boolean> PRESENT_READER = new ResponseStatusTypeAdapter.DataReader<Boolean>()
+    {
+        @Override
+        public Boolean read(JsonReader in) throws IOException
+        {
+            Boolean present = null;
+            in.beginObject();
+            while (in.hasNext())
+            {
+                if (in.nextName().equals("present") && in.peek() == JsonToken.BOOLEAN)
+                    present = in.nextBoolean();
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return present;
+        }
+    };
+
+    private final int maxStreamSize;
+    private final long maxDigestSize;
+    private final Map<String, String> digests;
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * Uploads the content when gateway does not hold it.
+     */
+    public interface BodyUpload
+    {
+        Future<ResponseStatus<Void>> send(HttpEntity entity, FutureCallback<ResponseStatus<Void>> callback)
+                throws IOException, CmsGatewayClientException;
+    }
+
+    /**
+     * @param maxEntries Maximum number of URIs to keep digests for, least recently used are dropped.
+     * @param maxStreamSize Streamed content is read into memory to compute digest up to this size, bytes.
+     */
+    public ContentDeduplicator(int maxEntries, int maxStreamSize)
+    {
+        this(maxEntries, maxStreamSize, DEFAULT_MAX_DIGEST_SIZE);
+    }
+
+    /**
+     * @param maxDigestSize Content of known length is deduplicated up to this size, bytes.
+     */
+    public ContentDeduplicator(final int maxEntries, int maxStreamSize, long maxDigestSize)
+    {
+        this.maxStreamSize = maxStreamSize;
+        this.maxDigestSize = maxDigestSize;
+        digests = new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return Deduplicator uploading all content.
+     */
+    public static ContentDeduplicator disabled()
+    {
+        return new ContentDeduplicator(0, 0);
+    }
+
+    public boolean isEnabled()
+    {
+        return maxStreamSize > 0;
+    }
+
+    /**
+     * @return Number of uploads skipped as gateway held their content.
+     */
+    public long getSkippedCount()
+    {
+        return skippedCount.get();
+    }
+
+    /**
+     * Reads streamed content into memory up to maximum stream size and computes its digest.
+     * Called on the thread submitting the upload, so that upload threads only wait for I/O.
+     */
+    public Content prepare(HttpEntity entity) throws IOException
+    {
+        HttpEntity content = Entities.readUpTo(entity, maxStreamSize);
+        return new Content(content, isDigestible(content) ? digest(content) : null);
+    }
+
+    /**
+     * Uploads prepared content, unless gateway holds the same content for the resource URI.
+     * @param probeUri Upload channel URI to ask for content by digest, with request id.
+     * @param callback Called with upload status, may be null.
+     */
+    public Future<ResponseStatus<Void>> execute(CloseableHttpAsyncClient uploadChannel, URI probeUri, final String resourceUri,
+            Content prepared, final BodyUpload bodyUpload, FutureCallback<ResponseStatus<Void>> callback)
+            throws IOException, CmsGatewayClientException
+    {
+        final HttpEntity content = prepared.entity;
+        final String digest = prepared.digest;
+        final BasicFuture<ResponseStatus<Void>> future = new BasicFuture<ResponseStatus<Void>>(callback);
+        final FutureCallback<ResponseStatus<Void>> remembering = new RememberingCallback(resourceUri, digest, future);
+
+        if (digest == null || !digest.equals(getDigest(resourceUri)))
+        {
+            bodyUpload.send(content, remembering);
+            return future;
+        }
+
+        HttpGet probe;
+        try
+        {
+            probe = new HttpGet(new URIBuilder(probeUri).addParameter("sha256", digest).build());
+        }
+        catch (Exception e)
+        {
+            throw new CmsGatewayClientException(e);
+        }
+
+        uploadChannel.execute(probe, new FutureCallback<HttpResponse>()
+        {
+            @Override
+            public void completed(HttpResponse httpResponse)
+            {
+                boolean present;
+                try
+                {
+                    present = isPresent(httpResponse);
+                }
+                catch (Exception e)
+                {
+                    failed(e);
+                    return;
+                }
+
+                if (present)
+                {
+                    skippedCount.incrementAndGet();
+                    future.completed(new ResponseStatus<Void>(Status.SUCCESS));
+                }
+                else
+                {
+                    upload();
+                }
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                logger.debug(String.format("Content probe for %s failed, uploading content: %s", resourceUri, e.getMessage()));
+                upload();
+            }
+
+            @Override
+            public void cancelled()
+            {
+                future.cancel();
+            }
+
+            private void upload()
+            {
+                try
+                {
+                    bodyUpload.send(content, remembering);
+                }
+                catch (Exception e)
+                {
+                    future.failed(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private boolean isDigestible(HttpEntity content)
+    {
+        return content.isRepeatable() && content.getContentLength() >= 0 && content.getContentLength() <= maxDigestSize;
+    }
+
+    private synchronized String getDigest(String resourceUri)
+    {
+        return digests.get(resourceUri);
+    }
+
+    private synchronized void putDigest(String resourceUri, String digest)
+    {
+        digests.put(resourceUri, digest);
+    }
+
+    /**
+     * @return Hex SHA-256 digest of entity content, computed as content is streamed.
+     */
+    static String digest(HttpEntity entity) throws IOException
+    {
+        MessageDigest messageDigest;
+        try
+        {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        InputStream content = entity.getContent();
+        try
+        {
+            byte[] buffer = new byte[8192];
+            for (int read = content.read(buffer); read >= 0; read = content.read(buffer))
+                messageDigest.update(buffer, 0, read);
+        }
+        finally
+        {
+            content.close();
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : messageDigest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    /**
+     * @return true if gateway answered it has completed the upload from stored content.
+     * @throws CmsGatewayClientException When probe failed with HTTP error, or response has no status.
+     */
+    private static boolean isPresent(HttpResponse httpResponse) throws IOException, CmsGatewayClientException
+    {
+        ResponseStatus<Boolean> responseStatus = ResponseStatusParser.parse(httpResponse, PRESENT_READER);
+        return Status.findByName(responseStatus.getCode()) == Status.SUCCESS && Boolean.TRUE.equals(responseStatus.getData());
+    }
+
+    /**
+     * Upload content with its digest, or with null digest if it is not deduplicated.
+     */
+    public static final class Content
+    {
+        private final HttpEntity entity;
+        private final String digest;
+
+        private Content(HttpEntity entity, String digest)
+        {
+            this.entity = entity;
+            this.digest = digest;
+        }
+
+        public HttpEntity getEntity()
+        {
+            return entity;
+        }
+    }
+
+    /**
+     * Remembers digest of successfully uploaded content.
+     */
+    private class RememberingCallback implements FutureCallback<ResponseStatus<Void>>
+    {
+        private final String resourceUri;
+        private final String digest;
+        private final BasicFuture<ResponseStatus<Void>> future;
+
+        private RememberingCallback(String resourceUri, String digest, BasicFuture<ResponseStatus<Void>> future)
+        {
+            this.resourceUri = resourceUri;
+            this.digest = digest;
+            this.future = future;
+        }
+
+        @Override
+        public void completed(ResponseStatus<Void> responseStatus)
+        {
+            if (digest != null && Status.findByName(responseStatus.getCode()) == Status.SUCCESS)
+                putDigest(resourceUri, digest);
+            future.completed(responseStatus);
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            future.failed(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            future.cancel();
+        }
+    }
+}
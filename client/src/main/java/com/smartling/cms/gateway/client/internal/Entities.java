@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+
+/**
+ * Helpers for upload entities.
+ */
+public final class Entities
+{
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private Entities()
+    {
+    }
+
+    /**
+     * Reads streamed content of unknown length into memory, if it is not larger than maximum size.
+     * @return Entity with the same content: of known length if content was read whole,
+     *      otherwise streaming the part read followed by the rest of content.
+     */
+    public static HttpEntity readUpTo(HttpEntity entity, int maxSize) throws IOException
+    {
+        if (entity.getContentLength() >= 0 || entity.getContentEncoding() != null)
+            return entity;
+
+        InputStream content = entity.getContent();
+        byte[] head = readUpTo(content, maxSize);
+
+        AbstractHttpEntity prepared;
+        if (head.length <= maxSize)
+        {
+            content.close();
+            prepared = new ByteArrayEntity(head);
+        }
+        else
+        {
+            prepared = new InputStreamEntity(new SequenceInputStream(new ByteArrayInputStream(head), content), -1);
+        }
+        prepared.setContentType(entity.getContentType());
+        return prepared;
+    }
+
+    /**
+     * Reads stream until its end, or until more than maximum size is read.
+     * Buffer grows as content arrives, so a short stream takes little memory whatever the maximum size.
+     * @return Content read, longer than maximum size if stream has more.
+     */
+    public static byte[] readUpTo(InputStream content, int maxSize) throws IOException
+    {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(Math.min(maxSize + 1, READ_BUFFER_SIZE));
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long remaining = maxSize + 1L;
+        int length;
+        while (remaining > 0 && (length = content.read(buffer, 0, (int)Math.min(buffer.length, remaining))) != -1)
+        {
+            head.write(buffer, 0, length);
+            remaining -= length;
+        }
+        return head.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NFileEntity;
+import org.apache.log4j.Logger;
+
+/**
+ * Buffered entity spilled to a temporary file, sent from the file without copying.
+ * Once the file is discarded, producing content fails instead of sending a short body.
+ */
+class FileBufferedEntity extends BufferedEntity
+{
+    private static final Logger logger = Logger.getLogger(FileBufferedEntity.class);
+
+    private final File file;
+    private final NFileEntity producer;
+    private volatile boolean discarded;
+
+    FileBufferedEntity(File file)
+    {
+        this.file = file;
+        this.producer = new NFileEntity(file, (ContentType)null);
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return file.length();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        FileUtils.copyFile(file, outstream);
+        outstream.flush();
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException
+    {
+        if (discarded)
+            throw new IOException("Upload buffer was freed before its content was sent");
+        producer.produceContent(encoder, ioctrl);
+    }
+
+    /**
+     * Closes the file, so that the entity can be sent again.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        producer.close();
+    }
+
+    @Override
+    public void release()
+    {
+        discard();
+    }
+
+    @Override
+    public void discard()
+    {
+        discarded = true;
+        try
+        {
+            producer.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn(String.format("Failed to close upload buffer %s", file), e);
+        }
+        if (file.exists() && !file.delete())
+            logger.warn(String.format("Failed to delete upload buffer %s", file));
+    }
+}
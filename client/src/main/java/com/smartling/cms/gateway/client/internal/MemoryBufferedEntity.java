@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+
+/**
+ * Buffered entity held in chunks of pooled memory. Once chunks are released or discarded,
+ * producing or reading content fails instead of sending a short body.
+ */
+class MemoryBufferedEntity extends BufferedEntity
+{
+    private final BufferPool pool;
+    private final List<byte[]> chunks;
+    private final long length;
+    private int nextChunk;
+    private ByteBuffer current;
+    private boolean freed;
+
+    MemoryBufferedEntity(BufferPool pool, List<byte[]> chunks, long length)
+    {
+        this.pool = pool;
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent()
+    {
+        return new ChunksInputStream();
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream outstream) throws IOException
+    {
+        failIfFreed();
+        for (int i = 0; i < chunks.size(); i++)
+            outstream.write(chunks.get(i), 0, chunkLength(i));
+        outstream.flush();
+    }
+
+    @Override
+    public synchronized void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException
+    {
+        failIfFreed();
+        while (true)
+        {
+            if (current == null || !current.hasRemaining())
+            {
+                if (nextChunk == chunks.size())
+                {
+                    encoder.complete();
+                    return;
+                }
+                current = ByteBuffer.wrap(chunks.get(nextChunk), 0, chunkLength(nextChunk));
+                nextChunk++;
+            }
+
+            encoder.write(current);
+            if (current.hasRemaining())
+                return;
+        }
+    }
+
+    /**
+     * Rewinds content, so that the entity can be sent again.
+     */
+    @Override
+    public synchronized void close()
+    {
+        nextChunk = 0;
+        current = null;
+    }
+
+    @Override
+    public synchronized void release()
+    {
+        for (byte[] chunk : chunks)
+            pool.release(chunk);
+        chunks.clear();
+        freed = true;
+    }
+
+    @Override
+    public synchronized void discard()
+    {
+        chunks.clear();
+        freed = true;
+    }
+
+    private void failIfFreed() throws IOException
+    {
+        if (freed)
+            throw new IOException("Upload buffer was freed before its content was sent");
+    }
+
+    private int chunkLength(int index)
+    {
+        long offset = (long)index * pool.getChunkSize();
+        return (int)Math.min(pool.getChunkSize(), length - offset);
+    }
+
+
+    private class ChunksInputStream extends InputStream
+    {
+        private int chunk;
+        private int position;
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException
+        {
+            synchronized (MemoryBufferedEntity.this)
+            {
+                failIfFreed();
+                return readChunks(bytes, offset, count);
+            }
+        }
+
+        private int readChunks(byte[] bytes, int offset, int count)
+        {
+            if (count == 0)
+                return 0;
+
+            while (chunk < chunks.size() && position == chunkLength(chunk))
+            {
+                chunk++;
+                position = 0;
+            }
+            if (chunk == chunks.size())
+                return -1;
+
+            int read = Math.min(count, chunkLength(chunk) - position);
+            System.arraycopy(chunks.get(chunk), position, bytes, offset, read);
+            position += read;
+            return read;
+        }
+    }
+}
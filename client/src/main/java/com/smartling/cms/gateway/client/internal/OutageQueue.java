@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.concurrent.BasicFuture;
+
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.command.OutagePolicy;
+
+/**
+ * Holds command channel messages sent while no session is connected, see {@link OutagePolicy}.
+ * Future of a queued message is completed when the message is passed to reconnected session.
+ */
+public class OutageQueue
+{
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final int capacity;
+    private final Queue<QueuedMessage> messages = new ArrayDeque<QueuedMessage>();
+
+    /**
+     * @param capacity Maximum number of messages kept, 0 to fail every message.
+     */
+    public OutageQueue(int capacity)
+    {
+        Validate.isTrue(capacity >= 0, "Capacity must not be negative");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return Queue failing every message.
+     */
+    public static OutageQueue failFast()
+    {
+        return new OutageQueue(0);
+    }
+
+    public static OutageQueue create(OutagePolicy policy, int capacity)
+    {
+        return policy == OutagePolicy.QUEUE ? new OutageQueue(capacity) : failFast();
+    }
+
+    /**
+     * @return Future completed when message is sent, failed right away if the queue is full.
+     */
+    public Future<Void> add(String text)
+    {
+        BasicFuture<Void> future = new BasicFuture<Void>(null);
+        synchronized (this)
+        {
+            if (messages.size() < capacity)
+            {
+                messages.add(new QueuedMessage(text, future));
+                return future;
+            }
+        }
+
+        future.failed(new CmsGatewayClientException("Command channel is not connected"));
+        return future;
+    }
+
+    /**
+     * Sends queued messages in order they were added.
+     */
+    public void flush(CommandChannelSession session)
+    {
+        for (QueuedMessage message : drain())
+        {
+            try
+            {
+                session.send(message.text);
+                message.future.completed(null);
+            }
+            catch (RuntimeException e)
+            {
+                message.future.failed(e);
+            }
+        }
+    }
+
+    /**
+     * Fails queued messages, e.g. when client is closed.
+     */
+    public void fail(Exception e)
+    {
+        for (QueuedMessage message : drain())
+            message.future.failed(e);
+    }
+
+    public synchronized int size()
+    {
+        return messages.size();
+    }
+
+    private synchronized List<QueuedMessage> drain()
+    {
+        List<QueuedMessage> drained = new ArrayList<QueuedMessage>(messages);
+        messages.clear();
+        return drained;
+    }
+
+    private static class QueuedMessage
+    {
+        private final String text;
+        private final BasicFuture<Void> future;
+
+        private QueuedMessage(String text, BasicFuture<Void> future)
+        {
+            this.text = text;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+
+/**
+ * Tracks get commands in flight by command type and URI, so that only the first
+ * command for a URI (leader) goes to command handler. Commands for the same URI
+ * arriving while leader is handled (followers) are answered with leader's response.
+ */
+public class RequestCoalescer
+{
+    public static final long DEFAULT_TIMEOUT = 60000;
+
+    private final boolean enabled;
+    private final long timeout;
+    private final Map<String, InFlight> inFlight = new HashMap<String, InFlight>();
+
+    /**
+     * @param timeout Milliseconds after which leader is considered lost, and next command
+     *      for the URI becomes new leader for all waiting followers.
+     */
+    public RequestCoalescer(long timeout)
+    {
+        this(true, timeout);
+    }
+
+    private RequestCoalescer(boolean enabled, long timeout)
+    {
+        Validate.isTrue(timeout > 0, "Coalescing timeout must be positive");
+        this.enabled = enabled;
+        this.timeout = timeout;
+    }
+
+    public static RequestCoalescer disabled()
+    {
+        return new RequestCoalescer(false, DEFAULT_TIMEOUT);
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * @return true when command is a leader and must be handled, false when it waits for leader's response.
+     */
+    public synchronized boolean join(BaseCommand command)
+    {
+        if (!enabled)
+            return true;
+
+        String key = keyOf(command);
+        InFlight current = inFlight.get(key);
+        long now = System.currentTimeMillis();
+        if (current == null)
+        {
+            inFlight.put(key, new InFlight(command, now));
+            return true;
+        }
+
+        if (now - current.startedAt > timeout)
+        {
+            current.leader = command;
+            current.startedAt = now;
+            return true;
+        }
+
+        current.followers.add(command);
+        return false;
+    }
+
+    /**
+     * Marks command as answered.
+     * @return Followers to answer with the same response, empty list if command is not a leader.
+     */
+    public synchronized List<BaseCommand> complete(BaseCommand command)
+    {
+        if (!enabled)
+            return Collections.emptyList();
+
+        String key = keyOf(command);
+        InFlight current = inFlight.get(key);
+        if (current == null || !current.leader.getId().equals(command.getId()))
+            return Collections.emptyList();
+
+        inFlight.remove(key);
+        return current.followers;
+    }
+
+    /**
+     * Forgets leaders in flight for longer than timeout, to be called periodically
+     * so that followers are not kept until next command for the same URI.
+     * @return Followers of forgotten leaders, which are never answered with leader's response.
+     */
+    public synchronized List<BaseCommand> expire()
+    {
+        if (!enabled || inFlight.isEmpty())
+            return Collections.emptyList();
+
+        List<BaseCommand> stranded = new ArrayList<BaseCommand>();
+        long now = System.currentTimeMillis();
+        for (Iterator<InFlight> it = inFlight.values().iterator(); it.hasNext();)
+        {
+            InFlight current = it.next();
+            if (now - current.startedAt > timeout)
+            {
+                stranded.addAll(current.followers);
+                it.remove();
+            }
+        }
+        return stranded;
+    }
+
+    private static String keyOf(BaseCommand command)
+    {
+        return command.getType().name() + ' ' + command.getUri();
+    }
+
+    private static class InFlight
+    {
+        private final List<BaseCommand> followers = new ArrayList<BaseCommand>();
+        private BaseCommand leader;
+        private long startedAt;
+
+        private InFlight(BaseCommand leader, long startedAt)
+        {
+            this.leader = leader;
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -1,20 +1,15 @@
 package com.smartling.cms.gateway.client.internal;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.io.Charsets;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpResponse;
 
-import com.google.gson.Gson;
 import com.smartling.cms.gateway.client.CmsGatewayClientException;
 import com.smartling.cms.gateway.client.api.model.ResponseStatus;
-import com.smartling.cms.gateway.client.api.model.ResponseWrapper;
 
 /**
  * Extracts ResponseStatus from HttpResponse.
@@ -52,7 +47,7 @@ public class ResponseStatusFuture implements Future<ResponseStatus<Void>>
         HttpResponse httpResponse = future.get();
         try
         {
-            return responseStatus(httpResponse);
+            return ResponseStatusParser.parse(httpResponse);
         }
         catch (IOException e)
         {
@@ -70,7 +65,7 @@ public class ResponseStatusFuture implements Future<ResponseStatus<Void>>
         HttpResponse httpResponse = future.get(timeout, unit);
         try
         {
-            return responseStatus(httpResponse);
+            return ResponseStatusParser.parse(httpResponse);
         }
         catch (IOException e)
         {
@@ -81,23 +76,4 @@ public class ResponseStatusFuture implements Future<ResponseStatus<Void>>
             throw new ExecutionException(e);
         }
     }
-
-    private ResponseStatus<Void> responseStatus(HttpResponse httpResponse) throws IOException, CmsGatewayClientException
-    {
-        int statusCode = httpResponse.getStatusLine().getStatusCode();
-        InputStreamReader streamReader = new InputStreamReader(httpResponse.getEntity().getContent(), Charsets.UTF_8);
-        Gson gson = new Gson();
-        ResponseWrapper wrapper = gson.fromJson(streamReader, ResponseWrapper.class);
-
-        @SuppressWarnings("unchecked")
-        ResponseStatus<Void> responseStatus = wrapper.getResponse();
-
-        if (statusCode != 200)
-        {
-            String message = String.format("Upload failed (%d): %s %s", statusCode, responseStatus.getCode(), StringUtils.join(responseStatus.getMessages(), ' '));
-            throw new CmsGatewayClientException(message);
-        }
-
-        return responseStatus;
-    }
 }
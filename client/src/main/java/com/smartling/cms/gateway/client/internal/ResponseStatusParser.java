@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.stream.JsonReader;
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Extracts ResponseStatus from upload channel HttpResponse.
+ * Response entity is always consumed, so that connection goes back to pool.
+ */
+public final class ResponseStatusParser
+{
+    private ResponseStatusParser()
+    {
+    }
+
+    /**
+     * @throws UploadFailedException When upload failed with HTTP error.
+     *      Body of HTTP error response is parsed when possible, to include error status and messages.
+     * @throws CmsGatewayClientException When response has no status.
+     */
+    public static ResponseStatus<Void> parse(HttpResponse httpResponse) throws IOException, CmsGatewayClientException
+    {
+        return parse(httpResponse, null);
+    }
+
+    /**
+     * Parses response status, and response data with the given reader.
+     * @param dataReader Reads response data, or null to skip it.
+     */
+    static <D> ResponseStatus<D> parse(HttpResponse httpResponse, ResponseStatusTypeAdapter.DataReader<D> dataReader)
+            throws IOException, CmsGatewayClientException
+    {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        HttpEntity entity = httpResponse.getEntity();
+
+        ResponseStatus<D> responseStatus = null;
+        try
+        {
+            responseStatus = read(entity, dataReader);
+        }
+        catch (IOException e)
+        {
+            if (statusCode == 200)
+                throw e;
+        }
+        catch (IllegalStateException e)
+        {
+            if (statusCode == 200)
+                throw new CmsGatewayClientException(e);
+        }
+        finally
+        {
+            EntityUtils.consume(entity);
+        }
+
+        if (statusCode != 200)
+        {
+            String message = responseStatus == null
+                    ? String.format("Upload failed (%d): %s", statusCode, httpResponse.getStatusLine().getReasonPhrase())
+                    : String.format("Upload failed (%d): %s %s", statusCode, responseStatus.getCode(), StringUtils.join(responseStatus.getMessages(), ' '));
+            throw new UploadFailedException(message, statusCode, withoutData(responseStatus));
+        }
+
+        if (responseStatus == null)
+            throw new CmsGatewayClientException("Upload response has no status");
+
+        return responseStatus;
+    }
+
+    private static <D> ResponseStatus<D> read(HttpEntity entity, ResponseStatusTypeAdapter.DataReader<D> dataReader) throws IOException
+    {
+        if (entity == null)
+            return null;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), Charsets.UTF_8));
+        return ResponseStatusTypeAdapter.readEnvelope(reader, dataReader);
+    }
+
+    /**
+     * @return Status with the same code and messages, and no data, or null.
+     */
+    static ResponseStatus<Void> withoutData(ResponseStatus<?> responseStatus)
+    {
+        return responseStatus == null ? null : new ResponseStatus<Void>(responseStatus.getCode(), responseStatus.getMessages());
+    }
+}
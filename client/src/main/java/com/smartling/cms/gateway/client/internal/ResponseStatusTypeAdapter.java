@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Reads and writes gateway response envelope {"response":{"code":..,"messages":[..]}}
+ * in a single pass, without reflection. Response data is skipped, unless a {@link DataReader} is given.
+ * Stateless and safe to share between threads.
+ */
+public class ResponseStatusTypeAdapter extends TypeAdapter<ResponseStatus<Void>>
+{
+    /**
+     * Reads "data" payload of a response, which is never null.
+     */
+    interface DataReader<D>
+    {
+        D read(JsonReader in) throws IOException;
+    }
+
+    @Override
+    public ResponseStatus<Void> read(JsonReader in) throws IOException
+    {
+        return readEnvelope(in, null);
+    }
+
+    @Override
+    public void write(JsonWriter out, ResponseStatus<Void> value) throws IOException
+    {
+        out.beginObject();
+        out.name("response");
+        out.beginObject();
+        out.name("code").value(value.getCode());
+        if (value.getMessages() != null)
+        {
+            out.name("messages");
+            out.beginArray();
+            for (String message : value.getMessages())
+                out.value(message);
+            out.endArray();
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * @param dataReader Reads response data, or null to skip it.
+     * @return Status read from "response" field of the envelope, null if there is none.
+     */
+    static <D> ResponseStatus<D> readEnvelope(JsonReader in, DataReader<D> dataReader) throws IOException
+    {
+        ResponseStatus<D> responseStatus = null;
+
+        in.beginObject();
+        while (in.hasNext())
+        {
+            if (in.nextName().equals("response"))
+                responseStatus = readStatus(in, dataReader);
+            else
+                in.skipValue();
+        }
+        in.endObject();
+
+        return responseStatus;
+    }
+
+    static ResponseStatus<Void> readStatus(JsonReader in) throws IOException
+    {
+        return readStatus(in, (DataReader<Void>)null);
+    }
+
+    /**
+     * @param dataReader Reads response data, or null to skip it.
+     */
+    static <D> ResponseStatus<D> readStatus(JsonReader in, DataReader<D> dataReader) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+
+        String code = null;
+        List<String> messages = null;
+        D data = null;
+
+        in.beginObject();
+        while (in.hasNext())
+        {
+            String name = in.nextName();
+            if (name.equals("code"))
+                code = nextStringOrNull(in);
+            else if (name.equals("messages"))
+                messages = readMessages(in);
+            else if (name.equals("data") && dataReader != null && in.peek() != JsonToken.NULL)
+                data = dataReader.read(in);
+            else
+                in.skipValue();
+        }
+        in.endObject();
+
+        ResponseStatus<D> responseStatus = new ResponseStatus<D>(code, messages);
+        responseStatus.setData(data);
+        return responseStatus;
+    }
+
+    private static List<String> readMessages(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+
+        List<String> messages = new ArrayList<String>();
+        in.beginArray();
+        while (in.hasNext())
+            messages.add(nextStringOrNull(in));
+        in.endArray();
+        return messages;
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.log4j.Logger;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+
+/**
+ * Sends large file uploads in fixed-size parts, so that a failed upload is resumed
+ * from the last part gateway has received instead of being sent again from the start.
+ *
+ * Each part is posted to the part URI with "offset" and "total" parameters and its CRC32 in
+ * {@value #CHECKSUM_HEADER} header. Gateway answers with the offset it has received up to,
+ * see {@link UploadProgressParser}, and completes the upload once it has received total bytes.
+ * After an error, or a part answered without progress, the offset is asked for with GET to the same URI,
+ * then upload goes on from there. Parts are read from the file on the scheduler, not on upload channel I/O thread.
+ */
+public class ResumableUploader
+{
+    public static final String CHECKSUM_HEADER = "X-Part-CRC32";
+    public static final int DEFAULT_PART_SIZE = 4 * 1024 * 1024;
+    public static final UploadRetryPolicy DEFAULT_RESUME_POLICY = new UploadRetryPolicy(10,
+            UploadRetryPolicy.DEFAULT_INITIAL_BACKOFF, UploadRetryPolicy.DEFAULT_MAX_BACKOFF);
+
+    private static final Logger logger = Logger.getLogger(ResumableUploader.class);
+
+    private final long threshold;
+    private final int partSize;
+    private final UploadRetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong resumeCount = new AtomicLong();
+
+    /**
+     * @param threshold Files of this size and larger are sent in parts, bytes.
+     * @param partSize Size of parts, bytes.
+     * @param policy Number of failures without progress to resume after, and backoff between them.
+     * @param scheduler Scheduler for reading parts and resuming uploads, may be null when threshold is negative.
+     */
+    public ResumableUploader(long threshold, int partSize, UploadRetryPolicy policy, ScheduledExecutorService scheduler)
+    {
+        Validate.isTrue(partSize > 0, "Part size must be positive");
+        Validate.isTrue(scheduler != null || threshold < 0, "Resumable uploads need a scheduler");
+        this.threshold = threshold;
+        this.partSize = partSize;
+        this.policy = Validate.notNull(policy);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return Uploader which sends no upload in parts.
+     */
+    public static ResumableUploader disabled()
+    {
+        return new ResumableUploader(-1, DEFAULT_PART_SIZE, UploadRetryPolicy.none(), null);
+    }
+
+    public boolean isEnabled()
+    {
+        return threshold >= 0;
+    }
+
+    /**
+     * @return true if file is large enough to be sent in parts.
+     */
+    public boolean accepts(File file)
+    {
+        return isEnabled() && file != null && file.length() >= threshold;
+    }
+
+    /**
+     * Sends file in parts.
+     * @param partUri Upload channel URI accepting parts, with request id.
+     * @param callback Called on upload channel I/O thread with upload status, may be null.
+     */
+    public Future<ResponseStatus<Void>> execute(CloseableHttpAsyncClient uploadChannel, URI partUri, File file, ContentType contentType,
+            FutureCallback<ResponseStatus<Void>> callback)
+    {
+        Validate.isTrue(accepts(file), "File can not be sent in parts");
+        BasicFuture<ResponseStatus<Void>> future = new BasicFuture<ResponseStatus<Void>>(callback);
+        new ResumableUpload(uploadChannel, partUri, file, contentType, future).run();
+        return future;
+    }
+
+    /**
+     * @return Number of times uploads were resumed after an error.
+     */
+    public long getResumeCount()
+    {
+        return resumeCount.get();
+    }
+
+    /**
+     * Sends parts one by one, asking for received offset after errors.
+     * Upload is started on the calling thread, and goes on with the next part on the scheduler.
+     */
+    private class ResumableUpload implements FutureCallback<HttpResponse>, Runnable
+    {
+        private final CloseableHttpAsyncClient uploadChannel;
+        private final URI partUri;
+        private final File file;
+        private final ContentType contentType;
+        private final BasicFuture<ResponseStatus<Void>> future;
+        private final long total;
+        private final byte[] buffer;
+        private long offset;
+        private int failures;
+        private boolean resuming;
+
+        private ResumableUpload(CloseableHttpAsyncClient uploadChannel, URI partUri, File file, ContentType contentType,
+                BasicFuture<ResponseStatus<Void>> future)
+        {
+            this.uploadChannel = uploadChannel;
+            this.partUri = partUri;
+            this.file = file;
+            this.contentType = contentType;
+            this.future = future;
+            this.total = file.length();
+            this.buffer = new byte[(int)Math.min(partSize, Math.max(total, 1))];
+        }
+
+        /**
+         * Sends the next part, or asks for received offset when resuming.
+         */
+        @Override
+        public void run()
+        {
+            if (future.isDone())
+                return;
+
+            try
+            {
+                uploadChannel.execute(resuming ? new HttpGet(partUri) : createPart(), this);
+            }
+            catch (Exception e)
+            {
+                future.failed(e);
+            }
+        }
+
+        private HttpUriRequest createPart() throws IOException, URISyntaxException
+        {
+            int length = (int)Math.min(partSize, total - offset);
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try
+            {
+                input.seek(offset);
+                input.readFully(buffer, 0, length);
+            }
+            finally
+            {
+                input.close();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, length);
+
+            HttpPost post = new HttpPost(new URIBuilder(partUri)
+                    .addParameter("offset", Long.toString(offset))
+                    .addParameter("total", Long.toString(total))
+                    .build());
+            post.setHeader(CHECKSUM_HEADER, String.format("%08x", crc.getValue()));
+            post.setEntity(new ByteArrayEntity(buffer, 0, length, contentType));
+            return post;
+        }
+
+        @Override
+        public void completed(HttpResponse httpResponse)
+        {
+            ResponseStatus<Long> progress;
+            try
+            {
+                progress = UploadProgressParser.parse(httpResponse);
+            }
+            catch (Exception e)
+            {
+                failed(e);
+                return;
+            }
+
+            boolean partSent = !resuming;
+            resuming = false;
+            long received = Math.min(progress.getData(), total);
+            if (partSent && received <= offset)
+            {
+                onFailure(new UploadFailedException(String.format("Part at offset %d of %s was not accepted (%s)", offset, partUri, progress.getCode()),
+                        httpResponse.getStatusLine().getStatusCode(), new ResponseStatus<Void>(progress.getCode(), progress.getMessages())));
+                return;
+            }
+
+            if (received > offset)
+                failures = 0;
+            offset = received;
+            if (offset == total)
+                future.completed(new ResponseStatus<Void>(progress.getCode(), progress.getMessages()));
+            else
+                sendNextPart();
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            if (!policy.isRetryable(e))
+                future.failed(e);
+            else
+                onFailure(e);
+        }
+
+        private void onFailure(Exception e)
+        {
+            failures++;
+            if (failures >= policy.getMaxAttempts() || !resume(e.getMessage()))
+                future.failed(e);
+        }
+
+        private void sendNextPart()
+        {
+            try
+            {
+                scheduler.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                future.failed(e);
+            }
+        }
+
+        @Override
+        public void cancelled()
+        {
+            future.cancel();
+        }
+
+        /**
+         * @return true if upload is scheduled to be resumed.
+         */
+        private boolean resume(String reason)
+        {
+            long backoff = policy.getBackoff(failures);
+            resuming = true;
+            try
+            {
+                scheduler.schedule(this, backoff, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                return false;
+            }
+
+            resumeCount.incrementAndGet();
+            logger.debug(String.format("Resuming upload %s from offset %d in %d ms: %s", partUri, offset, backoff, reason));
+            return true;
+        }
+    }
+}
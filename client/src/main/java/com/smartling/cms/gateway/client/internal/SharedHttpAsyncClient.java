@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HTTP client shared by several users. It is started by whichever user needs it first,
+ * and is not closed by them: the owner closes the shared client when all users are done.
+ */
+public class SharedHttpAsyncClient extends CloseableHttpAsyncClient
+{
+    private final CloseableHttpAsyncClient delegate;
+
+    public SharedHttpAsyncClient(CloseableHttpAsyncClient delegate)
+    {
+        this.delegate = Validate.notNull(delegate);
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start()
+    {
+        if (!delegate.isRunning())
+            delegate.start();
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+            HttpContext context, FutureCallback<T> callback)
+    {
+        return delegate.execute(requestProducer, responseConsumer, context, callback);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.StringReader;
+
+import org.apache.commons.lang3.Validate;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.smartling.cms.gateway.client.command.BaseCommand;
+
+/**
+ * Parser of commands, command channel.
+ * Reads command JSON with {@link StreamingCommandReader}, without building
+ * an intermediate JSON tree. Instances are thread-safe.
+ */
+public class StreamingCommandParser extends CommandParser
+{
+    @Override
+    public BaseCommand parse(String value) throws CommandParserException
+    {
+        Validate.notNull(value);
+
+        JsonReader reader = new JsonReader(new StringReader(value));
+        reader.setLenient(true);
+
+        try
+        {
+            BaseCommand command = StreamingCommandReader.read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT)
+                throw new CommandParserException("Command JSON was not fully consumed");
+            return command;
+        }
+        catch (CommandParserException e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new CommandParserException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.smartling.cms.gateway.client.command.AuthenticationErrorCommand;
+import com.smartling.cms.gateway.client.command.AuthenticationSuccessCommand;
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.command.DisconnectCommand;
+import com.smartling.cms.gateway.client.command.GetHtmlCommand;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+
+/**
+ * Factory for command classes, reading JSON tokens in a single pass.
+ * Stateless and safe to use from any thread.
+ */
+public final class StreamingCommandReader
+{
+    private static final Map<String, BaseCommand.Type> COMMAND_TYPES = new TreeMap<String, BaseCommand.Type>(String.CASE_INSENSITIVE_ORDER);
+
+    static
+    {
+        COMMAND_TYPES.put("getResource", BaseCommand.Type.GET_RESOURCE);
+        COMMAND_TYPES.put("getHtml", BaseCommand.Type.GET_HTML);
+        COMMAND_TYPES.put("authenticationSuccess", BaseCommand.Type.AUTHENTICATION_SUCCESS);
+        COMMAND_TYPES.put("authenticationError", BaseCommand.Type.AUTHENTICATION_ERROR);
+        COMMAND_TYPES.put("disconnect", BaseCommand.Type.DISCONNECT);
+    }
+
+    private StreamingCommandReader()
+    {
+    }
+
+    public static BaseCommand read(JsonReader in) throws IOException
+    {
+        String commandName = null;
+        String requestId = null;
+        String fileUri = null;
+        String message = null;
+
+        in.beginObject();
+        while (in.hasNext())
+        {
+            String name = in.nextName();
+            if (name.equals("cmd"))
+                commandName = nextStringOrNull(in);
+            else if (name.equals("rid"))
+                requestId = nextStringOrNull(in);
+            else if (name.equals("uri"))
+                fileUri = nextStringOrNull(in);
+            else if (name.equals("message"))
+                message = nextStringOrNull(in);
+            else
+                in.skipValue();
+        }
+        in.endObject();
+
+        if (commandName == null)
+            throw new JsonParseException("Missing command name");
+
+        BaseCommand.Type type = COMMAND_TYPES.get(commandName);
+        if (type == null)
+            throw new JsonParseException("Unknown command " + commandName);
+
+        switch (type)
+        {
+        case GET_RESOURCE:
+            return new GetResourceCommand(required("rid", requestId), required("uri", fileUri));
+        case GET_HTML:
+            return new GetHtmlCommand(required("rid", requestId), required("uri", fileUri));
+        case AUTHENTICATION_SUCCESS:
+            return new AuthenticationSuccessCommand();
+        case AUTHENTICATION_ERROR:
+            return new AuthenticationErrorCommand();
+        case DISCONNECT:
+            return new DisconnectCommand(message);
+        default:
+            throw new JsonParseException("Unknown command " + commandName);
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static String required(String name, String value)
+    {
+        if (value == null)
+            throw new JsonParseException("Missing " + name);
+        return value;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Token bucket: tokens are added at a fixed rate up to burst capacity, and taken by
+ * requests or bytes sent. Bucket starts full. Thread-safe.
+ */
+public class TokenBucket
+{
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond Tokens added per second.
+     * @param capacity Maximum number of tokens, i.e. burst size.
+     */
+    public TokenBucket(double ratePerSecond, long capacity)
+    {
+        Validate.isTrue(ratePerSecond > 0, "Rate must be positive");
+        Validate.isTrue(capacity > 0, "Capacity must be positive");
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return true if tokens were taken, false if there are not enough of them.
+     */
+    public synchronized boolean tryTake(long count)
+    {
+        refill();
+        if (tokens < count)
+            return false;
+
+        tokens -= count;
+        return true;
+    }
+
+    /**
+     * @return Number of tokens taken, up to requested count.
+     */
+    public synchronized long takeUpTo(long count)
+    {
+        refill();
+        long taken = Math.min(count, (long)tokens);
+        tokens -= taken;
+        return taken;
+    }
+
+    /**
+     * Returns tokens taken but not used.
+     */
+    public synchronized void giveBack(long count)
+    {
+        tokens = Math.min(capacity, tokens + count);
+    }
+
+    /**
+     * @return Milliseconds until the number of tokens is available, at least 1 if it is not available now.
+     */
+    public synchronized long getWaitTime(long count)
+    {
+        refill();
+        double missing = Math.min(count, capacity) - tokens;
+        if (missing <= 0)
+            return 0;
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long)Math.ceil(missing / tokensPerNano)));
+    }
+
+    public long getCapacity()
+    {
+        return (long)capacity;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Gathers small uploads and sends them as a single multipart request, one part per upload
+ * named by request id. Batch is sent when it is older than maximum delay, or has reached
+ * maximum size. Statuses of uploads are read from the batch response, see {@link BatchResponseParser}.
+ */
+public class UploadBatcher implements Closeable
+{
+    public static final int DEFAULT_MAX_ITEM_SIZE = 16384;
+
+    private static final Logger logger = Logger.getLogger(UploadBatcher.class);
+
+    private final long maxDelay;
+    private final int maxBatchSize;
+    private final int maxItemSize;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong batchCount = new AtomicLong();
+    private Batch pending;
+
+    /**
+     * @param maxDelay Maximum time an upload waits for a batch to fill, milliseconds.
+     * @param maxBatchSize Batch is sent as soon as its content reaches this size, bytes.
+     * @param maxItemSize Uploads larger than this are not batched, bytes.
+     * @param scheduler Scheduler for sending batches, may be null when no upload is batched.
+     */
+    public UploadBatcher(long maxDelay, int maxBatchSize, int maxItemSize, ScheduledExecutorService scheduler)
+    {
+        Validate.isTrue(maxDelay >= 0, "Maximum delay must not be negative");
+        Validate.isTrue(maxItemSize <= maxBatchSize, "Maximum upload size must not exceed maximum batch size");
+        Validate.isTrue(scheduler != null || maxItemSize <= 0, "Batches need a scheduler");
+        this.maxDelay = maxDelay;
+        this.maxBatchSize = maxBatchSize;
+        this.maxItemSize = maxItemSize;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return Batcher sending every upload on its own.
+     */
+    public static UploadBatcher disabled()
+    {
+        return new UploadBatcher(0, 0, 0, null);
+    }
+
+    public boolean isEnabled()
+    {
+        return maxItemSize > 0;
+    }
+
+    /**
+     * @return true if entity is small enough to be batched.
+     */
+    public boolean accepts(HttpEntity entity)
+    {
+        long length = entity.getContentLength();
+        return isEnabled() && entity.getContentEncoding() == null && length >= 0 && length <= maxItemSize;
+    }
+
+    /**
+     * Reads up to maximum upload size of streamed content of unknown length,
+     * so that {@link #accepts(HttpEntity)} can tell if it is small.
+     * @return Entity with the same content.
+     */
+    public HttpEntity prepare(HttpEntity entity) throws IOException
+    {
+        if (!isEnabled())
+            return entity;
+
+        return Entities.readUpTo(entity, maxItemSize);
+    }
+
+    /**
+     * Adds entity to the pending batch.
+     * @param batchUri Upload channel URI accepting batches.
+     * @param callback Called on upload channel I/O thread with upload status, may be null.
+     */
+    public Future<ResponseStatus<Void>> execute(CloseableHttpAsyncClient uploadChannel, URI batchUri, String requestId,
+            HttpEntity entity, FutureCallback<ResponseStatus<Void>> callback) throws IOException
+    {
+        Validate.isTrue(accepts(entity), "Entity can not be batched");
+        BasicFuture<ResponseStatus<Void>> future = new BasicFuture<ResponseStatus<Void>>(callback);
+        Item item = new Item(requestId, EntityUtils.toByteArray(entity), ContentType.getOrDefault(entity), future);
+
+        Batch full = null;
+        synchronized (this)
+        {
+            if (pending != null && pending.size + item.content.length > maxBatchSize)
+                full = takePending();
+
+            if (pending == null)
+            {
+                pending = new Batch(uploadChannel, batchUri);
+                schedule(pending);
+            }
+            pending.add(item);
+
+            if (full == null && pending.size >= maxBatchSize)
+                full = takePending();
+        }
+
+        if (full != null)
+            full.send();
+        return future;
+    }
+
+    /**
+     * @return Number of batch requests sent.
+     */
+    public long getBatchCount()
+    {
+        return batchCount.get();
+    }
+
+    /**
+     * Sends pending batch.
+     */
+    public void flush()
+    {
+        Batch batch;
+        synchronized (this)
+        {
+            batch = takePending();
+        }
+        if (batch != null)
+            batch.send();
+    }
+
+    /**
+     * Sends pending batch.
+     */
+    @Override
+    public void close()
+    {
+        flush();
+    }
+
+    private Batch takePending()
+    {
+        Batch batch = pending;
+        pending = null;
+        return batch;
+    }
+
+    private void schedule(final Batch batch)
+    {
+        try
+        {
+            scheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (UploadBatcher.this)
+                    {
+                        if (pending != batch)
+                            return;
+                        pending = null;
+                    }
+                    batch.send();
+                }
+            }, maxDelay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("Upload batcher is closed, batch is sent when it is full");
+        }
+    }
+
+    private static class Item
+    {
+        private final String requestId;
+        private final byte[] content;
+        private final ContentType contentType;
+        private final BasicFuture<ResponseStatus<Void>> future;
+
+        private Item(String requestId, byte[] content, ContentType contentType, BasicFuture<ResponseStatus<Void>> future)
+        {
+            this.requestId = requestId;
+            this.content = content;
+            this.contentType = contentType;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Uploads gathered for a single request. Completes future of every upload with its status from response.
+     */
+    private class Batch implements FutureCallback<HttpResponse>
+    {
+        private final CloseableHttpAsyncClient uploadChannel;
+        private final URI batchUri;
+        private final List<Item> items = new ArrayList<Item>();
+        private int size;
+
+        private Batch(CloseableHttpAsyncClient uploadChannel, URI batchUri)
+        {
+            this.uploadChannel = uploadChannel;
+            this.batchUri = batchUri;
+        }
+
+        private void add(Item item)
+        {
+            items.add(item);
+            size += item.content.length;
+        }
+
+        private void send()
+        {
+            try
+            {
+                HttpPost post = new HttpPost(batchUri);
+                post.setEntity(createEntity());
+                batchCount.incrementAndGet();
+                uploadChannel.execute(post, this);
+            }
+            catch (Exception e)
+            {
+                failed(e);
+            }
+        }
+
+        /**
+         * Multipart entity of httpmime can not be read as a stream, which async upload channel needs,
+         * so the whole batch is written to memory. Batches are small by definition.
+         */
+        private HttpEntity createEntity() throws IOException
+        {
+            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+            for (Item item : items)
+                builder.addBinaryBody(item.requestId, item.content, item.contentType, item.requestId);
+            HttpEntity multipart = builder.build();
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream(size + 256 * items.size());
+            multipart.writeTo(content);
+            return new ByteArrayEntity(content.toByteArray(), ContentType.parse(multipart.getContentType().getValue()));
+        }
+
+        @Override
+        public void completed(HttpResponse httpResponse)
+        {
+            Map<String, ResponseStatus<Void>> statuses;
+            try
+            {
+                statuses = BatchResponseParser.parse(httpResponse);
+            }
+            catch (Exception e)
+            {
+                failed(e);
+                return;
+            }
+
+            for (Item item : items)
+            {
+                ResponseStatus<Void> status = statuses.get(item.requestId);
+                if (status == null)
+                    item.future.failed(new CmsGatewayClientException("Batch upload response has no status for request " + item.requestId));
+                else
+                    item.future.completed(status);
+            }
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            for (Item item : items)
+                item.future.failed(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            for (Item item : items)
+                item.future.cancel();
+        }
+    }
+}
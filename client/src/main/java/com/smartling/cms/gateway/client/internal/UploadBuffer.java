@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntity;
+import org.apache.http.concurrent.FutureCallback;
+
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+/**
+ * Makes repeatable copies of one-shot upload entities, so that they can be sent again.
+ * Content is held in pooled memory up to a threshold, and larger content is spilled
+ * to a temporary file, keeping heap use bounded.
+ */
+public class UploadBuffer
+{
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final String TEMP_FILE_PREFIX = "cmsgateway-upload-";
+
+    private final boolean enabled;
+    private final BufferPool pool;
+    private final long memoryThreshold;
+    private final File tempDirectory;
+
+    /**
+     * @param memoryThreshold Maximum size of content to hold in memory, bytes.
+     * @param tempDirectory Directory for larger content, null for default temporary directory.
+     */
+    public UploadBuffer(long memoryThreshold, File tempDirectory)
+    {
+        this(new BufferPool(CHUNK_SIZE, MAX_POOLED_CHUNKS), memoryThreshold, tempDirectory);
+    }
+
+    public UploadBuffer(BufferPool pool, long memoryThreshold, File tempDirectory)
+    {
+        this(true, pool, memoryThreshold, tempDirectory);
+    }
+
+    private UploadBuffer(boolean enabled, BufferPool pool, long memoryThreshold, File tempDirectory)
+    {
+        Validate.isTrue(memoryThreshold >= 0, "Memory threshold must not be negative");
+        this.enabled = enabled;
+        this.pool = Validate.notNull(pool);
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @return Buffer which leaves entities as they are.
+     */
+    public static UploadBuffer disabled()
+    {
+        return new UploadBuffer(false, new BufferPool(1, 0), 0, null);
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Writes entity content into buffer. Content type and encoding are kept.
+     */
+    public BufferedEntity buffer(HttpEntity entity) throws IOException
+    {
+        ChunkOutputStream output = new ChunkOutputStream();
+        try
+        {
+            entity.writeTo(output);
+            output.close();
+        }
+        catch (IOException e)
+        {
+            output.release();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            output.release();
+            throw e;
+        }
+
+        BufferedEntity buffered = output.toEntity();
+        buffered.setContentType(entity.getContentType());
+        buffered.setContentEncoding(entity.getContentEncoding());
+        return buffered;
+    }
+
+    /**
+     * @return Callback releasing the entity when upload is complete, then calling the callback.
+     */
+    public static FutureCallback<ResponseStatus<Void>> releaseOnCompletion(final BufferedEntity entity, final FutureCallback<ResponseStatus<Void>> callback)
+    {
+        return new FutureCallback<ResponseStatus<Void>>()
+        {
+            @Override
+            public void completed(ResponseStatus<Void> result)
+            {
+                entity.release();
+                if (callback != null)
+                    callback.completed(result);
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                entity.release();
+                if (callback != null)
+                    callback.failed(e);
+            }
+
+            @Override
+            public void cancelled()
+            {
+                // upload may still be in progress
+                entity.discard();
+                if (callback != null)
+                    callback.cancelled();
+            }
+        };
+    }
+
+
+    /**
+     * Collects content in pooled chunks, switching to temporary file over memory threshold.
+     */
+    private class ChunkOutputStream extends OutputStream
+    {
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+        private long length;
+        private File file;
+        private OutputStream fileOutput;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException
+        {
+            if (fileOutput == null && length + count > memoryThreshold)
+                spill();
+
+            if (fileOutput != null)
+            {
+                fileOutput.write(bytes, offset, count);
+                length += count;
+                return;
+            }
+
+            while (count > 0)
+            {
+                int position = (int)(length % pool.getChunkSize());
+                if (position == 0)
+                    chunks.add(pool.acquire());
+
+                int written = Math.min(count, pool.getChunkSize() - position);
+                System.arraycopy(bytes, offset, chunks.get(chunks.size() - 1), position, written);
+                offset += written;
+                count -= written;
+                length += written;
+            }
+        }
+
+        private void spill() throws IOException
+        {
+            file = File.createTempFile(TEMP_FILE_PREFIX, ".tmp", tempDirectory);
+            fileOutput = new BufferedOutputStream(new FileOutputStream(file), pool.getChunkSize());
+
+            for (int i = 0; i < chunks.size(); i++)
+            {
+                long offset = (long)i * pool.getChunkSize();
+                fileOutput.write(chunks.get(i), 0, (int)Math.min(pool.getChunkSize(), length - offset));
+                pool.release(chunks.get(i));
+            }
+            chunks.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (fileOutput != null)
+                fileOutput.close();
+        }
+
+        private BufferedEntity toEntity()
+        {
+            if (file != null)
+                return new FileBufferedEntity(file);
+            return new MemoryBufferedEntity(pool, chunks, length);
+        }
+
+        private void release()
+        {
+            for (byte[] chunk : chunks)
+                pool.release(chunk);
+            chunks.clear();
+
+            if (fileOutput != null)
+            {
+                try
+                {
+                    fileOutput.close();
+                }
+                catch (IOException e)
+                {
+                    // content is dropped anyway
+                }
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Connection pool of upload channel. Periodically closes expired connections and
+ * connections idle for longer than idle timeout, so that connections dropped by
+ * intermediate gateways are not leased for uploads.
+ */
+public class UploadConnectionPool implements Closeable
+{
+    private static final PoolStats NO_STATS = new PoolStats(0, 0, 0, 0);
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final ScheduledFuture<?> eviction;
+
+    /**
+     * @param idleTimeout Milliseconds after which idle connection is closed. Set to 0 to keep idle connections.
+     * @param evictor Scheduler to close idle connections on, not shut down by pool.
+     */
+    public UploadConnectionPool(final PoolingNHttpClientConnectionManager connectionManager, final long idleTimeout,
+            ScheduledExecutorService evictor)
+    {
+        Validate.isTrue(idleTimeout >= 0, "Idle timeout must not be negative");
+        Validate.notNull(evictor);
+        this.connectionManager = Validate.notNull(connectionManager);
+
+        if (idleTimeout == 0)
+        {
+            eviction = null;
+            return;
+        }
+
+        long period = Math.max(idleTimeout / 2, 1);
+        eviction = evictor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private UploadConnectionPool()
+    {
+        connectionManager = null;
+        eviction = null;
+    }
+
+    /**
+     * @return Pool of an upload channel managed by the caller, it has no statistics.
+     */
+    public static UploadConnectionPool unmanaged()
+    {
+        return new UploadConnectionPool();
+    }
+
+    /**
+     * @return Connections leased, pending lease, available in pool, and pool limit.
+     */
+    public PoolStats getStats()
+    {
+        return connectionManager == null ? NO_STATS : connectionManager.getTotalStats();
+    }
+
+    /**
+     * Stops eviction. Connections are closed with upload channel.
+     */
+    @Override
+    public void close()
+    {
+        if (eviction != null)
+            eviction.cancel(false);
+    }
+}
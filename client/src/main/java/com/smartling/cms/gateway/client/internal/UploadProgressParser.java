@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpResponse;
+
+import com.google.gson.stream.JsonReader;
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+/**
+ * Extracts status of resumable upload from upload channel HttpResponse:
+ * {"response":{"code":..,"messages":[..],"data":{"offset":..}}}, where offset is
+ * the number of content bytes gateway has received.
+ */
+public final class UploadProgressParser
+{
+    private static final ResponseStatusTypeAdapter.DataReader<Long> OFFSET_READER = new ResponseStatusTypeAdapter.DataReader<Long>()
+    {
+        @Override
+        public Long read(JsonReader in) throws IOException
+        {
+            Long offset = null;
+            in.beginObject();
+            while (in.hasNext())
+            {
+                if (in.nextName().equals("offset"))
+                    offset = in.nextLong();
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return offset;
+        }
+    };
+
+    private UploadProgressParser()
+    {
+    }
+
+    /**
+     * @return Response status with acknowledged offset as data.
+     * @throws UploadFailedException When response is an HTTP error, or its status is not SUCCESS.
+     * @throws CmsGatewayClientException When response has no status or offset.
+     */
+    public static ResponseStatus<Long> parse(HttpResponse httpResponse) throws IOException, CmsGatewayClientException
+    {
+        ResponseStatus<Long> responseStatus = ResponseStatusParser.parse(httpResponse, OFFSET_READER);
+
+        if (Status.findByName(responseStatus.getCode()) != Status.SUCCESS)
+        {
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            List<String> messages = responseStatus.getMessages() == null ? Collections.<String>emptyList() : responseStatus.getMessages();
+            throw new UploadFailedException(String.format("Upload failed (%d): %s %s", statusCode, responseStatus.getCode(),
+                    StringUtils.join(messages, ' ')), statusCode, ResponseStatusParser.withoutData(responseStatus));
+        }
+
+        if (responseStatus.getData() == null)
+            throw new CmsGatewayClientException("Upload response has no offset");
+
+        return responseStatus;
+    }
+}
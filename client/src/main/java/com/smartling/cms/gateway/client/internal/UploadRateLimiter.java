@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Limits upload channel to a number of bytes and requests per second, with bursts.
+ * Requests over the rate are started later on a scheduler, and content over the bandwidth
+ * is held back by suspending output of the connection until enough bytes are allowed,
+ * so no thread sleeps while an upload is throttled.
+ */
+public class UploadRateLimiter
+{
+    private static final long MIN_ALLOWANCE = 4096;
+    private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+    private final TokenBucket bandwidth;
+    private final TokenBucket requestRate;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong throttleCount = new AtomicLong();
+    private final AtomicLong throttleWaitTime = new AtomicLong();
+
+    /**
+     * @param bytesPerSecond Maximum bandwidth, or 0 for no limit.
+     * @param burstBytes Bytes which may be sent at once over the bandwidth.
+     * @param requestsPerSecond Maximum rate of requests, or 0 for no limit.
+     * @param burstRequests Requests which may be started at once over the rate.
+     * @param scheduler Scheduler for throttled requests and content, may be null when there is no limit.
+     */
+    public UploadRateLimiter(long bytesPerSecond, long burstBytes, double requestsPerSecond, int burstRequests,
+            ScheduledExecutorService scheduler)
+    {
+        this.bandwidth = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, burstBytes) : null;
+        this.requestRate = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, burstRequests) : null;
+        Validate.isTrue(scheduler != null || !isEnabled(), "Rate limits need a scheduler");
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return Limiter which does not limit upload channel.
+     */
+    public static UploadRateLimiter unlimited()
+    {
+        return new UploadRateLimiter(0, 0, 0, 0, null);
+    }
+
+    public boolean isEnabled()
+    {
+        return bandwidth != null || requestRate != null;
+    }
+
+    /**
+     * @return Upload channel sending requests through the limiter, or the same channel if there is no limit.
+     */
+    public CloseableHttpAsyncClient wrap(CloseableHttpAsyncClient uploadChannel)
+    {
+        return isEnabled() ? new RateLimitedClient(uploadChannel) : uploadChannel;
+    }
+
+    /**
+     * @return Number of times a request or its content was held back.
+     */
+    public long getThrottleCount()
+    {
+        return throttleCount.get();
+    }
+
+    /**
+     * @return Total time requests and their content were held back, milliseconds.
+     */
+    public long getThrottleWaitTime()
+    {
+        return throttleWaitTime.get();
+    }
+
+    private void throttled(long waitTime)
+    {
+        throttleCount.incrementAndGet();
+        throttleWaitTime.addAndGet(waitTime);
+    }
+
+    /**
+     * Starts requests as allowed by request rate, and produces their content as allowed by bandwidth.
+     */
+    private class RateLimitedClient extends CloseableHttpAsyncClient
+    {
+        private final CloseableHttpAsyncClient delegate;
+
+        private RateLimitedClient(CloseableHttpAsyncClient delegate)
+        {
+            this.delegate = Validate.notNull(delegate);
+        }
+
+        @Override
+        public boolean isRunning()
+        {
+            return delegate.isRunning();
+        }
+
+        @Override
+        public void start()
+        {
+            delegate.start();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            delegate.close();
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                HttpContext context, FutureCallback<T> callback)
+        {
+            HttpAsyncRequestProducer producer = bandwidth != null ? new ThrottledProducer(requestProducer) : requestProducer;
+            if (requestRate == null || requestRate.tryTake(1))
+                return delegate.execute(producer, responseConsumer, context, callback);
+
+            BasicFuture<T> future = new BasicFuture<T>(callback);
+            new DelayedRequest<T>(producer, responseConsumer, context, future).schedule();
+            return future;
+        }
+
+        /**
+         * Request waiting for request rate to allow it.
+         */
+        private class DelayedRequest<T> implements Runnable, FutureCallback<T>
+        {
+            private final HttpAsyncRequestProducer requestProducer;
+            private final HttpAsyncResponseConsumer<T> responseConsumer;
+            private final HttpContext context;
+            private final BasicFuture<T> future;
+
+            private DelayedRequest(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                    HttpContext context, BasicFuture<T> future)
+            {
+                this.requestProducer = requestProducer;
+                this.responseConsumer = responseConsumer;
+                this.context = context;
+                this.future = future;
+            }
+
+            private void schedule()
+            {
+                long waitTime = requestRate.getWaitTime(1);
+                try
+                {
+                    scheduler.schedule(this, waitTime, TimeUnit.MILLISECONDS);
+                    throttled(waitTime);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    future.failed(e);
+                }
+            }
+
+            @Override
+            public void run()
+            {
+                if (future.isCancelled())
+                    return;
+
+                if (!requestRate.tryTake(1))
+                {
+                    schedule();
+                    return;
+                }
+
+                try
+                {
+                    delegate.execute(requestProducer, responseConsumer, context, this);
+                }
+                catch (RuntimeException e)
+                {
+                    future.failed(e);
+                }
+            }
+
+            @Override
+            public void completed(T result)
+            {
+                future.completed(result);
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                future.failed(e);
+            }
+
+            @Override
+            public void cancelled()
+            {
+                future.cancel();
+            }
+        }
+    }
+
+    /**
+     * Lets request content through as bandwidth allows. When it is used up, output of the
+     * connection is suspended, and requested again once enough bytes are allowed.
+     */
+    private class ThrottledProducer implements HttpAsyncRequestProducer
+    {
+        private final HttpAsyncRequestProducer delegate;
+        private final ThrottledEncoder encoder = new ThrottledEncoder();
+
+        private ThrottledProducer(HttpAsyncRequestProducer delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpHost getTarget()
+        {
+            return delegate.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException
+        {
+            return delegate.generateRequest();
+        }
+
+        @Override
+        public void produceContent(ContentEncoder contentEncoder, final IOControl ioControl) throws IOException
+        {
+            encoder.delegate = contentEncoder;
+            encoder.throttled = false;
+            delegate.produceContent(encoder, ioControl);
+            if (!encoder.throttled || contentEncoder.isCompleted())
+                return;
+
+            long waitTime = bandwidth.getWaitTime(MIN_ALLOWANCE);
+            ioControl.suspendOutput();
+            try
+            {
+                scheduler.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ioControl.requestOutput();
+                    }
+                }, waitTime, TimeUnit.MILLISECONDS);
+                throttled(waitTime);
+            }
+            catch (RejectedExecutionException e)
+            {
+                ioControl.requestOutput();
+            }
+        }
+
+        @Override
+        public void requestCompleted(HttpContext context)
+        {
+            delegate.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception ex)
+        {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable()
+        {
+            return delegate.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException
+        {
+            delegate.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Writes no more bytes than bandwidth allows. File content is transferred to the connection
+     * by the OS when the connection encoder supports it, as it does for unthrottled uploads.
+     */
+    private class ThrottledEncoder implements FileContentEncoder
+    {
+        private ContentEncoder delegate;
+        private boolean throttled;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            long allowed = take(src.remaining());
+            if (allowed == 0)
+                return 0;
+
+            int limit = src.limit();
+            src.limit(src.position() + (int)allowed);
+            int written;
+            try
+            {
+                written = delegate.write(src);
+            }
+            finally
+            {
+                src.limit(limit);
+            }
+
+            if (written < allowed)
+                bandwidth.giveBack(allowed - written);
+            return written;
+        }
+
+        @Override
+        public long transfer(FileChannel src, long position, long count) throws IOException
+        {
+            long allowed = take(count);
+            if (allowed == 0)
+                return 0;
+
+            long written;
+            if (delegate instanceof FileContentEncoder)
+                written = ((FileContentEncoder)delegate).transfer(src, position, allowed);
+            else
+                written = writeFrom(src, position, allowed);
+
+            if (written < allowed)
+                bandwidth.giveBack(allowed - written);
+            return written;
+        }
+
+        private long take(long requested)
+        {
+            long allowed = bandwidth.takeUpTo(requested);
+            if (allowed < requested)
+                throttled = true;
+            return allowed;
+        }
+
+        /**
+         * Writes file content through a buffer, for connection encoders not transferring files.
+         * Bytes read but not written are read again from their position on the next transfer.
+         */
+        private long writeFrom(FileChannel src, long position, long count) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(count, TRANSFER_BUFFER_SIZE));
+            if (src.read(buffer, position) <= 0)
+                return 0;
+
+            buffer.flip();
+            return delegate.write(buffer);
+        }
+
+        @Override
+        public void complete() throws IOException
+        {
+            delegate.complete();
+        }
+
+        @Override
+        public boolean isCompleted()
+        {
+            return delegate.isCompleted();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.net.URI;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.log4j.Logger;
+
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+
+/**
+ * Sends uploads, sending failed ones again as allowed by {@link UploadRetryPolicy}.
+ * Only uploads with repeatable entities are retried. Upload response is read on upload channel
+ * I/O thread, and retries are scheduled on the client scheduler, so no thread waits for an upload.
+ */
+public class UploadRetrier
+{
+    private static final Logger logger = Logger.getLogger(UploadRetrier.class);
+
+    private final UploadRetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong budgetExhaustedCount = new AtomicLong();
+    private double budget;
+
+    /**
+     * @param scheduler Scheduler for retries, may be null when policy allows no retries.
+     */
+    public UploadRetrier(UploadRetryPolicy policy, ScheduledExecutorService scheduler)
+    {
+        Validate.isTrue(scheduler != null || policy.getMaxAttempts() <= 1, "Retries need a scheduler");
+        this.policy = Validate.notNull(policy);
+        this.scheduler = scheduler;
+        this.budget = policy.getBudgetBurst();
+    }
+
+    /**
+     * @return Retrier sending every upload once.
+     */
+    public static UploadRetrier disabled()
+    {
+        return new UploadRetrier(UploadRetryPolicy.none(), null);
+    }
+
+    public boolean isEnabled()
+    {
+        return policy.getMaxAttempts() > 1;
+    }
+
+    /**
+     * Sends entity to upload channel.
+     * @param callback Called on upload channel I/O thread with final result, may be null.
+     */
+    public Future<ResponseStatus<Void>> execute(CloseableHttpAsyncClient uploadChannel, URI uploadUri, HttpEntity entity,
+            FutureCallback<ResponseStatus<Void>> callback)
+    {
+        BasicFuture<ResponseStatus<Void>> future = new BasicFuture<ResponseStatus<Void>>(callback);
+        deposit();
+        new RetryingUpload(uploadChannel, uploadUri, entity, future).send();
+        return future;
+    }
+
+    /**
+     * @return Number of uploads sent again.
+     */
+    public long getRetryCount()
+    {
+        return retryCount.get();
+    }
+
+    /**
+     * @return Number of failed uploads not sent again because retry budget was used up.
+     */
+    public long getBudgetExhaustedCount()
+    {
+        return budgetExhaustedCount.get();
+    }
+
+    private synchronized void deposit()
+    {
+        budget = Math.min(budget + policy.getBudgetRatio(), policy.getBudgetBurst());
+    }
+
+    private synchronized boolean tryWithdraw()
+    {
+        if (budget < 1)
+            return false;
+
+        budget -= 1;
+        return true;
+    }
+
+
+    private class RetryingUpload implements FutureCallback<HttpResponse>, Runnable
+    {
+        private final CloseableHttpAsyncClient uploadChannel;
+        private final URI uploadUri;
+        private final HttpEntity entity;
+        private final BasicFuture<ResponseStatus<Void>> future;
+        private int attempt;
+
+        private RetryingUpload(CloseableHttpAsyncClient uploadChannel, URI uploadUri, HttpEntity entity, BasicFuture<ResponseStatus<Void>> future)
+        {
+            this.uploadChannel = uploadChannel;
+            this.uploadUri = uploadUri;
+            this.entity = entity;
+            this.future = future;
+        }
+
+        private void send()
+        {
+            attempt++;
+            HttpPost post = new HttpPost(uploadUri);
+            post.setEntity(entity);
+            uploadChannel.execute(post, this);
+        }
+
+        @Override
+        public void run()
+        {
+            if (future.isDone())
+                return;
+
+            try
+            {
+                send();
+            }
+            catch (RuntimeException e)
+            {
+                future.failed(e);
+            }
+        }
+
+        @Override
+        public void completed(HttpResponse httpResponse)
+        {
+            ResponseStatus<Void> responseStatus;
+            try
+            {
+                responseStatus = ResponseStatusParser.parse(httpResponse);
+            }
+            catch (Exception e)
+            {
+                failed(e);
+                return;
+            }
+
+            if (!policy.isRetryable(responseStatus) || !retry(responseStatus.getCode()))
+                future.completed(responseStatus);
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            if (!policy.isRetryable(e) || !retry(e.getMessage()))
+                future.failed(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            future.cancel();
+        }
+
+        /**
+         * @return true if upload is scheduled to be sent again.
+         */
+        private boolean retry(String reason)
+        {
+            if (attempt >= policy.getMaxAttempts() || !entity.isRepeatable() || future.isDone())
+                return false;
+
+            if (!tryWithdraw())
+            {
+                budgetExhaustedCount.incrementAndGet();
+                return false;
+            }
+
+            long backoff = policy.getBackoff(attempt);
+            try
+            {
+                scheduler.schedule(this, backoff, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                return false;
+            }
+
+            retryCount.incrementAndGet();
+            logger.debug(String.format("Retrying upload %s in %d ms after attempt %d: %s", uploadUri, backoff, attempt, reason));
+            return true;
+        }
+    }
+}
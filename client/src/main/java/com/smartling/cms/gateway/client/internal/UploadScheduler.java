@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.upload.UploadPriority;
+
+/**
+ * Limits the number of uploads in flight. Uploads over the limit wait in a queue per
+ * {@link UploadPriority}, and free slots are given to the queues by smooth weighted round-robin:
+ * of every 21 slots HIGH uploads get 16, NORMAL 4 and LOW 1, while all of them wait.
+ * Waiting uploads are started on the scheduler thread, not on the thread completing the previous upload.
+ * The limit may be fixed, or adapted to gateway load by {@link AimdLimit}.
+ */
+public class UploadScheduler
+{
+    private final Map<UploadPriority, Queue<ScheduledUpload>> queues = new EnumMap<UploadPriority, Queue<ScheduledUpload>>(UploadPriority.class);
+    private final Map<UploadPriority, Integer> credits = new EnumMap<UploadPriority, Integer>(UploadPriority.class);
+    private final Executor executor;
+    private final AimdLimit limit;
+    private int inFlight;
+    private int queued;
+
+    /**
+     * Starts upload and calls back when it completes.
+     */
+    public interface Upload
+    {
+        void start(FutureCallback<ResponseStatus<Void>> callback) throws Exception;
+    }
+
+    /**
+     * @param limit Maximum number of uploads in flight.
+     * @param executor Executor starting waiting uploads.
+     */
+    public UploadScheduler(int limit, Executor executor)
+    {
+        this(AimdLimit.fixed(limit), executor);
+    }
+
+    /**
+     * @param limit Limit adjusted as uploads complete.
+     * @param executor Executor starting waiting uploads, may be null when there is no limit.
+     */
+    public UploadScheduler(AimdLimit limit, Executor executor)
+    {
+        Validate.isTrue(executor != null || limit == null, "Upload limit needs an executor");
+        this.limit = limit;
+        this.executor = executor;
+        for (UploadPriority priority : UploadPriority.values())
+        {
+            queues.put(priority, new ArrayDeque<ScheduledUpload>());
+            credits.put(priority, 0);
+        }
+    }
+
+    /**
+     * @return Scheduler starting every upload at once.
+     */
+    public static UploadScheduler unlimited()
+    {
+        return new UploadScheduler((AimdLimit)null, null);
+    }
+
+    public boolean isEnabled()
+    {
+        return limit != null;
+    }
+
+    /**
+     * Starts upload now if there is a free slot, otherwise when one is given to its priority.
+     * @param callback Called with upload result, may be null.
+     */
+    public Future<ResponseStatus<Void>> submit(UploadPriority priority, Upload upload, FutureCallback<ResponseStatus<Void>> callback)
+    {
+        ScheduledUpload scheduled = new ScheduledUpload(upload, new BasicFuture<ResponseStatus<Void>>(callback));
+        if (!isEnabled())
+        {
+            scheduled.start(false);
+            return scheduled.future;
+        }
+
+        boolean startNow;
+        synchronized (this)
+        {
+            startNow = inFlight < limit.getLimit() && queued == 0;
+            if (startNow)
+            {
+                inFlight++;
+                scheduled.saturated = inFlight >= limit.getLimit();
+            }
+            else
+            {
+                queues.get(priority).add(scheduled);
+                queued++;
+            }
+        }
+
+        if (startNow)
+            scheduled.start(true);
+        return scheduled.future;
+    }
+
+    /**
+     * @return Current maximum number of uploads in flight, 0 if unlimited.
+     */
+    public int getLimit()
+    {
+        return limit != null ? limit.getLimit() : 0;
+    }
+
+    public synchronized int getInFlightCount()
+    {
+        return inFlight;
+    }
+
+    public synchronized int getQueuedCount()
+    {
+        return queued;
+    }
+
+    /**
+     * @return Number of uploads waiting with the priority.
+     */
+    public synchronized int getQueuedCount(UploadPriority priority)
+    {
+        return queues.get(priority).size();
+    }
+
+    /**
+     * Frees upload slot and starts waiting uploads, more than one if the limit has grown.
+     */
+    private void release()
+    {
+        synchronized (this)
+        {
+            inFlight--;
+        }
+
+        while (true)
+        {
+            ScheduledUpload next;
+            synchronized (this)
+            {
+                next = poll();
+                if (next == null)
+                    return;
+                inFlight++;
+                next.saturated = inFlight >= limit.getLimit();
+            }
+            startLater(next);
+        }
+    }
+
+    private void startLater(final ScheduledUpload upload)
+    {
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    upload.start(true);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            upload.start(true);
+        }
+    }
+
+    /**
+     * Smooth weighted round-robin: every non-empty queue earns its weight, the richest one is served
+     * and pays the total earned.
+     */
+    private ScheduledUpload poll()
+    {
+        if (queued == 0 || inFlight >= limit.getLimit())
+            return null;
+
+        UploadPriority selected = null;
+        int total = 0;
+        for (UploadPriority priority : UploadPriority.values())
+        {
+            if (queues.get(priority).isEmpty())
+                continue;
+
+            int credit = credits.get(priority) + priority.getWeight();
+            credits.put(priority, credit);
+            total += priority.getWeight();
+            if (selected == null || credit > credits.get(selected))
+                selected = priority;
+        }
+
+        credits.put(selected, credits.get(selected) - total);
+        queued--;
+        return queues.get(selected).poll();
+    }
+
+    /**
+     * Upload holding a slot until it completes, timed for the adaptive limit.
+     */
+    private class ScheduledUpload implements FutureCallback<ResponseStatus<Void>>
+    {
+        private final Upload upload;
+        private final BasicFuture<ResponseStatus<Void>> future;
+        private boolean holdsSlot;
+        private boolean saturated;
+        private long startTime;
+
+        private ScheduledUpload(Upload upload, BasicFuture<ResponseStatus<Void>> future)
+        {
+            this.upload = upload;
+            this.future = future;
+        }
+
+        private void start(boolean holdsSlot)
+        {
+            synchronized (this)
+            {
+                this.holdsSlot = holdsSlot;
+                this.startTime = System.nanoTime();
+            }
+
+            if (future.isCancelled())
+            {
+                done(null, null);
+                return;
+            }
+
+            try
+            {
+                upload.start(this);
+            }
+            catch (Exception e)
+            {
+                failed(e);
+            }
+        }
+
+        @Override
+        public void completed(ResponseStatus<Void> responseStatus)
+        {
+            done(responseStatus, null);
+            future.completed(responseStatus);
+        }
+
+        @Override
+        public void failed(Exception e)
+        {
+            done(null, e);
+            future.failed(e);
+        }
+
+        @Override
+        public void cancelled()
+        {
+            done(null, null);
+            future.cancel();
+        }
+
+        private void done(ResponseStatus<Void> responseStatus, Exception error)
+        {
+            synchronized (this)
+            {
+                if (!holdsSlot)
+                    return;
+
+                holdsSlot = false;
+            }
+
+            if (responseStatus != null || error != null)
+                limit.onSample(System.nanoTime() - startTime, saturated, responseStatus, error);
+            release();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Entity with content in a {@link ByteBuffer}, e.g. a memory-mapped file.
+ * Async upload channel writes the buffer straight to the connection, so direct and
+ * mapped buffers are sent without copying content to Java heap.
+ */
+public class ByteBufferEntity extends AbstractHttpEntity implements HttpAsyncContentProducer
+{
+    private static final int STREAM_CHUNK_SIZE = 8192;
+
+    private final ByteBuffer content;
+    private ByteBuffer remaining;
+
+    public ByteBufferEntity(ByteBuffer content, ContentType contentType)
+    {
+        this.content = Validate.notNull(content).slice();
+        this.remaining = this.content.duplicate();
+        if (contentType != null)
+            setContentType(contentType.toString());
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return content.capacity();
+    }
+
+    @Override
+    public InputStream getContent()
+    {
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        ByteBuffer source = content.duplicate();
+        byte[] chunk = new byte[Math.min(STREAM_CHUNK_SIZE, source.remaining())];
+        while (source.hasRemaining())
+        {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            outstream.write(chunk, 0, length);
+        }
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException
+    {
+        encoder.write(remaining);
+        if (!remaining.hasRemaining())
+            encoder.complete();
+    }
+
+    /**
+     * Rewinds content, so that the entity can be sent again.
+     */
+    @Override
+    public void close()
+    {
+        remaining = content.duplicate();
+    }
+
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
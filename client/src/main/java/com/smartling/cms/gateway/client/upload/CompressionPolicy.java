@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+/**
+ * Decides which uploads are sent with gzip content encoding.
+ * Upload is compressed when its content type is on the allowlist, and its length is at least
+ * minimum size or is not known in advance. Allowlist entries may end with a wildcard, e.g. "text/*".
+ * Optionally content known to be compressed already (images, archives, files with such extensions)
+ * is never compressed, even if allowlist has a broad entry.
+ *
+ * {@code
+ *  CmsGatewayClient client = CmsGatewayClientBuilder.create()
+ *      .setUploadCompression(new CompressionPolicy(1024, CompressionPolicy.TEXT_CONTENT_TYPES, true))
+ *      .build();
+ * }
+ */
+public class CompressionPolicy
+{
+    public static final long DEFAULT_MIN_SIZE = 1024;
+
+    public static final List<String> TEXT_CONTENT_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "text/*",
+            "application/json",
+            "application/javascript",
+            "application/x-javascript",
+            "application/xml",
+            "application/xhtml+xml",
+            "application/rss+xml",
+            "image/svg+xml"
+    ));
+
+    private static final List<String> COMPRESSED_CONTENT_TYPES = Arrays.asList(
+            "image/*", "audio/*", "video/*",
+            "application/gzip", "application/x-gzip", "application/zip", "application/x-bzip2",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/pdf",
+            "application/font-woff", "font/woff", "font/woff2"
+    );
+
+    private static final List<String> COMPRESSED_FILE_EXTENSIONS = Arrays.asList(
+            "gz", "tgz", "zip", "bz2", "xz", "7z", "rar", "jar",
+            "png", "jpg", "jpeg", "gif", "webp", "ico",
+            "mp3", "mp4", "webm", "pdf", "woff", "woff2"
+    );
+
+    private final long minSize;
+    private final List<String> contentTypes;
+    private final boolean skipCompressed;
+
+    /**
+     * @param minSize Minimum content length to compress, bytes.
+     * @param contentTypes MIME types to compress.
+     * @param skipCompressed Never compress content which is compressed already.
+     */
+    public CompressionPolicy(long minSize, List<String> contentTypes, boolean skipCompressed)
+    {
+        Validate.isTrue(minSize >= 0, "Minimum size must not be negative");
+        Validate.noNullElements(contentTypes);
+        this.minSize = minSize;
+        this.contentTypes = lowerCase(contentTypes);
+        this.skipCompressed = skipCompressed;
+    }
+
+    /**
+     * @return Policy compressing text content of at least {@link #DEFAULT_MIN_SIZE} bytes.
+     */
+    public static CompressionPolicy text()
+    {
+        return new CompressionPolicy(DEFAULT_MIN_SIZE, TEXT_CONTENT_TYPES, true);
+    }
+
+    /**
+     * @return Policy which never compresses.
+     */
+    public static CompressionPolicy none()
+    {
+        return new CompressionPolicy(0, Collections.<String>emptyList(), true);
+    }
+
+    public boolean isEnabled()
+    {
+        return !contentTypes.isEmpty();
+    }
+
+    /**
+     * @return true if entity of the upload should be sent compressed.
+     */
+    public boolean shouldCompress(FileUpload upload, HttpEntity entity)
+    {
+        if (!isEnabled() || entity.getContentEncoding() != null)
+            return false;
+
+        long length = entity.getContentLength();
+        if (length >= 0 && length < minSize)
+            return false;
+
+        String mimeType = mimeTypeOf(entity.getContentType());
+        if (mimeType == null || !matches(contentTypes, mimeType))
+            return false;
+
+        return !skipCompressed || !isCompressed(mimeType, upload.getContentFile());
+    }
+
+    /**
+     * @return Entity sending content of the upload entity compressed, if policy says so, otherwise the same entity.
+     */
+    public HttpEntity apply(FileUpload upload, HttpEntity entity)
+    {
+        return shouldCompress(upload, entity) ? new GzipEntity(entity) : entity;
+    }
+
+    private static boolean isCompressed(String mimeType, File file)
+    {
+        if (!mimeType.equals("image/svg+xml") && matches(COMPRESSED_CONTENT_TYPES, mimeType))
+            return true;
+        if (file == null)
+            return false;
+
+        String extension = StringUtils.substringAfterLast(file.getName(), ".").toLowerCase(Locale.ENGLISH);
+        return COMPRESSED_FILE_EXTENSIONS.contains(extension);
+    }
+
+    private static boolean matches(List<String> patterns, String mimeType)
+    {
+        for (String pattern : patterns)
+        {
+            if (pattern.endsWith("/*") ? mimeType.startsWith(pattern.substring(0, pattern.length() - 1)) : mimeType.equals(pattern))
+                return true;
+        }
+        return false;
+    }
+
+    private static String mimeTypeOf(Header contentType)
+    {
+        if (contentType == null)
+            return null;
+
+        return StringUtils.substringBefore(contentType.getValue(), ";").trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static List<String> lowerCase(List<String> values)
+    {
+        List<String> lowerCase = new ArrayList<String>(values.size());
+        for (String value : values)
+            lowerCase.add(value.trim().toLowerCase(Locale.ENGLISH));
+        return lowerCase;
+    }
+}
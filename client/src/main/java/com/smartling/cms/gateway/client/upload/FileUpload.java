@@ -15,6 +15,8 @@
  */
 package com.smartling.cms.gateway.client.upload;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -22,6 +24,8 @@ import org.apache.commons.lang3.Validate;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.entity.NFileEntity;
 
 import com.smartling.cms.gateway.client.Response;
 import com.smartling.cms.gateway.client.command.BaseCommand;
@@ -38,11 +42,17 @@ import com.smartling.cms.gateway.client.command.BaseCommand;
  *  upload.setContentStream(dataStream);
  *  client.send(upload);
  * }
+ *
+ * Content of a local file is better given with {@link #setContentFile(File)}: it is sent
+ * with known length and transferred from the file to the connection by the OS, not through Java heap.
  */
 public class FileUpload extends Response
 {
     private ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
     private InputStream contentStream;
+    private File contentFile;
+    private byte[] content;
+    private UploadPriority priority;
 
     public FileUpload(BaseCommand request)
     {
@@ -58,17 +68,104 @@ public class FileUpload extends Response
         }
     }
 
+    public ContentType getContentType()
+    {
+        return contentType;
+    }
+
     public void setContentStream(InputStream value)
     {
         Validate.notNull(value);
         contentStream = value;
+        contentFile = null;
+        content = null;
     }
 
+    /**
+     * Sets content held in memory. It is sent with known length and may be sent again on retry.
+     */
+    public void setContent(byte[] value)
+    {
+        Validate.notNull(value);
+        content = value;
+        contentStream = null;
+        contentFile = null;
+    }
+
+    /**
+     * @return Content stream, null when content is a file.
+     */
     public InputStream getInputStream()
     {
+        if (content != null)
+            return new ByteArrayInputStream(content);
         return this.contentStream;
     }
 
+    public void setContentFile(File value)
+    {
+        Validate.notNull(value);
+        Validate.isTrue(value.isFile(), "Not a file: %s", value);
+        contentFile = value;
+        contentStream = null;
+        content = null;
+    }
+
+    /**
+     * @return Content file, null when content is a stream.
+     */
+    public File getContentFile()
+    {
+        return contentFile;
+    }
+
+    /**
+     * @return true if content may be read more than once, false if it is a stream.
+     */
+    public boolean isRepeatable()
+    {
+        return contentFile != null || content != null;
+    }
+
+    /**
+     * Overrides priority of the upload.
+     * @param value Priority, or null for default priority of the upload kind.
+     */
+    public void setPriority(UploadPriority value)
+    {
+        priority = value;
+    }
+
+    public UploadPriority getPriority()
+    {
+        return priority != null ? priority : getDefaultPriority();
+    }
+
+    protected UploadPriority getDefaultPriority()
+    {
+        return UploadPriority.NORMAL;
+    }
+
+    /**
+     * Creates upload of the same kind and with the same properties for another request.
+     * Content is not copied.
+     */
+    public FileUpload forRequest(BaseCommand request)
+    {
+        FileUpload upload = new FileUpload(request);
+        upload.contentType = contentType;
+        copyPriorityTo(upload);
+        return upload;
+    }
+
+    /**
+     * Copies priority override, so the copy keeps default priority of its kind unless one was set.
+     */
+    protected void copyPriorityTo(FileUpload upload)
+    {
+        upload.priority = priority;
+    }
+
     protected EntityBuilder getEntityBuilder() throws IOException
     {
         return EntityBuilder.create()
@@ -79,6 +176,11 @@ public class FileUpload extends Response
 
     public HttpEntity getHttpEntity() throws IOException
     {
+        if (contentFile != null)
+            return new NFileEntity(contentFile, contentType);
+        if (content != null)
+            return new NByteArrayEntity(content, contentType);
+
         Validate.notNull(contentStream);
         return getEntityBuilder().build();
     }
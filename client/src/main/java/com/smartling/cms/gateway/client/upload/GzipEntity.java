@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Sends content of wrapped entity compressed with gzip.
+ * Content is compressed while it is sent, so compressed copy is never held in memory.
+ * Unlike GzipCompressingEntity of httpclient, content is also available as input stream,
+ * which async upload channel reads from.
+ */
+public class GzipEntity extends HttpEntityWrapper
+{
+    private static final Header CONTENT_ENCODING = new BasicHeader("Content-Encoding", "gzip");
+
+    public GzipEntity(HttpEntity entity)
+    {
+        super(Validate.notNull(entity));
+    }
+
+    @Override
+    public Header getContentEncoding()
+    {
+        return CONTENT_ENCODING;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked()
+    {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return new GzipInputStream(wrappedEntity.getContent());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        GZIPOutputStream gzip = new GZIPOutputStream(outstream);
+        wrappedEntity.writeTo(gzip);
+        gzip.finish();
+        outstream.flush();
+    }
+
+    /**
+     * Reads uncompressed input and returns it gzip-compressed (RFC 1952).
+     */
+    private static class GzipInputStream extends InputStream
+    {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+        private static final int TRAILER_SIZE = 8;
+
+        private final InputStream input;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] inputBuffer = new byte[8192];
+        private final byte[] single = new byte[1];
+        private byte[] trailer;
+        private int headerPosition;
+        private int trailerPosition;
+        private boolean inputDone;
+
+        private GzipInputStream(InputStream input)
+        {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (length == 0)
+                return 0;
+
+            if (headerPosition < HEADER.length)
+            {
+                int count = Math.min(length, HEADER.length - headerPosition);
+                System.arraycopy(HEADER, headerPosition, buffer, offset, count);
+                headerPosition += count;
+                return count;
+            }
+
+            while (!deflater.finished())
+            {
+                int count = deflater.deflate(buffer, offset, length);
+                if (count > 0)
+                    return count;
+
+                if (deflater.needsInput() && !inputDone)
+                {
+                    int read = input.read(inputBuffer);
+                    if (read < 0)
+                    {
+                        inputDone = true;
+                        deflater.finish();
+                    }
+                    else if (read > 0)
+                    {
+                        crc.update(inputBuffer, 0, read);
+                        deflater.setInput(inputBuffer, 0, read);
+                    }
+                }
+            }
+
+            if (trailer == null)
+                trailer = trailer();
+
+            if (trailerPosition == TRAILER_SIZE)
+                return -1;
+
+            int count = Math.min(length, TRAILER_SIZE - trailerPosition);
+            System.arraycopy(trailer, trailerPosition, buffer, offset, count);
+            trailerPosition += count;
+            return count;
+        }
+
+        private byte[] trailer()
+        {
+            byte[] bytes = new byte[TRAILER_SIZE];
+            writeInt(bytes, 0, crc.getValue());
+            writeInt(bytes, 4, deflater.getBytesRead());
+            return bytes;
+        }
+
+        private static void writeInt(byte[] bytes, int offset, long value)
+        {
+            for (int i = 0; i < 4; i++)
+                bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            deflater.end();
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * JSON entity of HTML upload: {"baseUrl":..,"body":..,"publicUrl":..}.
+ * Body is escaped while the entity is written, so the page is never copied into
+ * an intermediate JSON string. Content length is known when body is a String.
+ */
+public class HtmlJsonEntity extends AbstractHttpEntity
+{
+    private static final String[] REPLACEMENTS = new String[128];
+
+    static
+    {
+        for (int c = 0; c < 0x20; c++)
+            REPLACEMENTS[c] = String.format("\\u%04x", c);
+        REPLACEMENTS['"'] = "\\\"";
+        REPLACEMENTS['\\'] = "\\\\";
+        REPLACEMENTS['\t'] = "\\t";
+        REPLACEMENTS['\b'] = "\\b";
+        REPLACEMENTS['\n'] = "\\n";
+        REPLACEMENTS['\r'] = "\\r";
+        REPLACEMENTS['\f'] = "\\f";
+    }
+
+    private final String prefix;
+    private final String suffix;
+    private final String body;
+    private final Reader bodyReader;
+    private final long contentLength;
+    private boolean consumed;
+
+    public HtmlJsonEntity(String baseUrl, String publicUrl, String body)
+    {
+        this(baseUrl, publicUrl, Validate.notNull(body), null);
+    }
+
+    public HtmlJsonEntity(String baseUrl, String publicUrl, Reader body)
+    {
+        this(baseUrl, publicUrl, null, Validate.notNull(body));
+    }
+
+    private HtmlJsonEntity(String baseUrl, String publicUrl, String body, Reader bodyReader)
+    {
+        this.prefix = "{\"baseUrl\":" + quote(baseUrl) + ",\"body\":\"";
+        this.suffix = StringUtils.isNotEmpty(publicUrl) ? "\",\"publicUrl\":" + quote(publicUrl) + "}" : "\"}";
+        this.body = body;
+        this.bodyReader = bodyReader;
+        this.contentLength = body == null ? -1 : utf8Length(prefix) + escapedUtf8Length(body) + utf8Length(suffix);
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(body == null);
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return body != null;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        if (body == null)
+        {
+            if (consumed)
+                throw new IllegalStateException("Entity content has been consumed already");
+            consumed = true;
+        }
+
+        Reader reader = body == null ? bodyReader : new StringReader(body);
+        return new ReaderInputStream(new JsonEnvelopeReader(prefix, reader, suffix), Charsets.UTF_8);
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        InputStream content = getContent();
+        try
+        {
+            IOUtils.copy(content, outstream);
+            outstream.flush();
+        }
+        finally
+        {
+            content.close();
+        }
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return body == null && !consumed;
+    }
+
+    private static String quote(String value)
+    {
+        if (value == null)
+            return "null";
+
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            String replacement = replacement(c);
+            if (replacement == null)
+                quoted.append(c);
+            else
+                quoted.append(replacement);
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String replacement(char c)
+    {
+        if (c < REPLACEMENTS.length)
+            return REPLACEMENTS[c];
+        if (c == '\u2028')
+            return "\\u2028";
+        if (c == '\u2029')
+            return "\\u2029";
+        return null;
+    }
+
+    private static long utf8Length(String value)
+    {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                length += 4;
+                i++;
+            }
+            else
+            {
+                length += utf8Length(c);
+            }
+        }
+        return length;
+    }
+
+    private static long escapedUtf8Length(String value)
+    {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            String replacement = replacement(c);
+            if (replacement != null)
+            {
+                length += replacement.length();
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                length += 4;
+                i++;
+            }
+            else
+            {
+                length += utf8Length(c);
+            }
+        }
+        return length;
+    }
+
+    private static int utf8Length(char c)
+    {
+        if (c < 0x80)
+            return 1;
+        if (c < 0x800)
+            return 2;
+        if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            return 1; // unpaired surrogate is encoded as replacement '?'
+        return 3;
+    }
+
+
+    /**
+     * Reads prefix, then body with JSON string escaping, then suffix.
+     */
+    private static class JsonEnvelopeReader extends Reader
+    {
+        private static final int PREFIX = 0;
+        private static final int BODY = 1;
+        private static final int SUFFIX = 2;
+        private static final int DONE = 3;
+
+        private final String prefix;
+        private final Reader body;
+        private final String suffix;
+        private final char[] input = new char[4096];
+        private int inputPosition;
+        private int inputLimit;
+        private int stage = PREFIX;
+        private int position;
+        private String pending;
+
+        private JsonEnvelopeReader(String prefix, Reader body, String suffix)
+        {
+            this.prefix = prefix;
+            this.body = body;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            int count = 0;
+            while (count < length && stage != DONE)
+            {
+                if (pending != null)
+                {
+                    count += copyPending(buffer, offset + count, length - count);
+                }
+                else if (stage == BODY)
+                {
+                    if (inputPosition == inputLimit && !fillInput())
+                    {
+                        stage = SUFFIX;
+                        pending = suffix;
+                        continue;
+                    }
+
+                    char c = input[inputPosition++];
+                    String replacement = replacement(c);
+                    if (replacement == null)
+                    {
+                        buffer[offset + count++] = c;
+                    }
+                    else
+                    {
+                        pending = replacement;
+                    }
+                }
+                else if (stage == PREFIX)
+                {
+                    stage = BODY;
+                    pending = prefix;
+                }
+                else
+                {
+                    stage = DONE;
+                }
+            }
+
+            return count == 0 && length > 0 ? -1 : count;
+        }
+
+        private int copyPending(char[] buffer, int offset, int length)
+        {
+            int count = Math.min(length, pending.length() - position);
+            pending.getChars(position, position + count, buffer, offset);
+            position += count;
+            if (position == pending.length())
+            {
+                pending = null;
+                position = 0;
+            }
+            return count;
+        }
+
+        private boolean fillInput() throws IOException
+        {
+            int read = body.read(input);
+            if (read < 0)
+                return false;
+
+            inputPosition = 0;
+            inputLimit = read;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            body.close();
+        }
+    }
+}
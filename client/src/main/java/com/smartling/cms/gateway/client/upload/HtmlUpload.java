@@ -15,16 +15,19 @@
  */
 package com.smartling.cms.gateway.client.upload;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
+import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.CharEncoding;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.io.input.ReaderInputStream;
 import org.apache.commons.lang3.Validate;
-import org.apache.http.client.entity.EntityBuilder;
-import org.apache.http.entity.ContentType;
+import org.apache.http.HttpEntity;
 
-import com.google.gson.JsonObject;
 import com.smartling.cms.gateway.client.command.BaseCommand;
 
 /**
@@ -38,11 +41,16 @@ import com.smartling.cms.gateway.client.command.BaseCommand;
  *  upload.setBody(dataString);
  *  client.send(upload);
  * }
+ *
+ * Body is written to the upload channel as a JSON string while it is read,
+ * so a large page may be given as a {@link Reader} or a UTF-8 content stream.
  */
 public class HtmlUpload extends FileUpload
 {
     private String baseUrl;
     private String publicUrl;
+    private String body;
+    private Reader bodyReader;
 
     public HtmlUpload(BaseCommand request)
     {
@@ -70,21 +78,96 @@ public class HtmlUpload extends FileUpload
     public void setBody(String value) throws IOException
     {
         Validate.notNull(value);
-        setContentStream(IOUtils.toInputStream(value, CharEncoding.UTF_8));
+        body = value;
+        bodyReader = null;
+    }
+
+    public void setBody(Reader value)
+    {
+        Validate.notNull(value);
+        body = null;
+        bodyReader = value;
     }
 
+    /**
+     * Sets body as UTF-8 encoded stream.
+     */
     @Override
-    protected EntityBuilder getEntityBuilder() throws IOException
+    public void setContentStream(InputStream value)
     {
-        JsonObject response = new JsonObject();
-        response.addProperty("baseUrl", baseUrl);
-        response.addProperty("body", IOUtils.toString(getInputStream()));
+        super.setContentStream(value);
+        body = null;
+        bodyReader = null;
+    }
 
-        if (StringUtils.isNotEmpty(publicUrl))
-            response.addProperty("publicUrl", publicUrl);
+    /**
+     * Sets body as UTF-8 encoded content, kept as a string so that it is sent with known length.
+     */
+    @Override
+    public void setContent(byte[] value)
+    {
+        Validate.notNull(value);
+        body = new String(value, Charsets.UTF_8);
+        bodyReader = null;
+    }
+
+    /**
+     * Sets body as UTF-8 encoded file.
+     */
+    @Override
+    public void setContentFile(File value)
+    {
+        super.setContentFile(value);
+        body = null;
+        bodyReader = null;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        if (body != null)
+            return IOUtils.toInputStream(body, Charsets.UTF_8);
+        if (bodyReader != null)
+            return new ReaderInputStream(bodyReader, Charsets.UTF_8);
+        return super.getInputStream();
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return body != null || bodyReader == null && super.isRepeatable();
+    }
+
+    @Override
+    public HtmlUpload forRequest(BaseCommand request)
+    {
+        HtmlUpload upload = new HtmlUpload(request);
+        upload.baseUrl = baseUrl;
+        upload.publicUrl = publicUrl;
+        copyPriorityTo(upload);
+        return upload;
+    }
+
+    /**
+     * Pages hold up translation, so they are sent before resources by default.
+     */
+    @Override
+    protected UploadPriority getDefaultPriority()
+    {
+        return UploadPriority.HIGH;
+    }
+
+    @Override
+    public HttpEntity getHttpEntity() throws IOException
+    {
+        if (body != null)
+            return new HtmlJsonEntity(baseUrl, publicUrl, body);
+        if (bodyReader != null)
+            return new HtmlJsonEntity(baseUrl, publicUrl, bodyReader);
+        if (getContentFile() != null)
+            return new HtmlJsonEntity(baseUrl, publicUrl, new InputStreamReader(new FileInputStream(getContentFile()), Charsets.UTF_8));
 
-        return EntityBuilder.create()
-                .setContentType(ContentType.APPLICATION_JSON)
-                .setText(response.toString());
+        InputStream contentStream = Validate.notNull(super.getInputStream());
+        return new HtmlJsonEntity(baseUrl, publicUrl, new InputStreamReader(contentStream, Charsets.UTF_8));
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+/**
+ * Priority class of an upload. When uploads wait for a free slot, each class gets a share
+ * of slots in proportion to its weight, so urgent uploads are not stuck behind many others,
+ * and less urgent ones still make progress.
+ */
+public enum UploadPriority
+{
+    HIGH(16),
+    NORMAL(4),
+    LOW(1);
+
+    private final int weight;
+
+    private UploadPriority(int weight)
+    {
+        this.weight = weight;
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+}
@@ -16,12 +16,17 @@
 package com.smartling.cms.gateway.client;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -34,14 +39,26 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import javax.websocket.CloseReason;
 import javax.websocket.Session;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -54,28 +71,60 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicStatusLine;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.cache.ContentCache;
+import com.smartling.cms.gateway.client.cache.DiskContentStore;
 import com.smartling.cms.gateway.client.command.CommandChannelHandler;
 import com.smartling.cms.gateway.client.command.ErrorResponse;
 import com.smartling.cms.gateway.client.command.GetHtmlCommand;
 import com.smartling.cms.gateway.client.command.GetResourceCommand;
 import com.smartling.cms.gateway.client.command.ReconnectStrategy;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+import com.smartling.cms.gateway.client.internal.AdmissionController;
 import com.smartling.cms.gateway.client.internal.CommandChannelSession;
 import com.smartling.cms.gateway.client.internal.CommandChannelTransport;
+import com.smartling.cms.gateway.client.internal.CommandExecutors;
 import com.smartling.cms.gateway.client.internal.CommandParser;
+import com.smartling.cms.gateway.client.internal.ContentDeduplicator;
+import com.smartling.cms.gateway.client.internal.OutageQueue;
+import com.smartling.cms.gateway.client.internal.RequestCoalescer;
+import com.smartling.cms.gateway.client.internal.ResumableUploader;
+import com.smartling.cms.gateway.client.internal.UploadBatcher;
+import com.smartling.cms.gateway.client.internal.UploadBuffer;
+import com.smartling.cms.gateway.client.internal.UploadConnectionPool;
+import com.smartling.cms.gateway.client.internal.UploadRateLimiter;
+import com.smartling.cms.gateway.client.internal.UploadRetrier;
+import com.smartling.cms.gateway.client.internal.UploadScheduler;
+import com.smartling.cms.gateway.client.upload.CompressionPolicy;
 import com.smartling.cms.gateway.client.upload.FileUpload;
+import com.smartling.cms.gateway.client.upload.HtmlUpload;
 
 public class CmsGatewayClientTest
 {
     private static final URI STUB_COMMAND_CHANNEL_URI = URI.create("some:command_channel_uri");
     private static final URI STUB_UPLOAD_CHANNEL_URI = URI.create("some_upload_channel_uri?projectId=some+project+id");
+    private static final FilenameFilter TEMP_FILES = new FilenameFilter()
+    {
+        @Override
+        public boolean accept(File dir, String name)
+        {
+            return name.endsWith(".tmp");
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Mock
     private CommandChannelTransport commandChannelTransport;
@@ -101,6 +150,29 @@ public class CmsGatewayClientTest
     @Mock
     private Session session;
 
+    private Executor commandExecutor = CommandExecutors.directExecutor();
+
+    private AdmissionController admissionController = AdmissionController.unlimited();
+
+    private RequestCoalescer requestCoalescer = RequestCoalescer.disabled();
+
+    private ContentCache contentCache = ContentCache.disabled();
+    private UploadConnectionPool uploadConnectionPool = UploadConnectionPool.unmanaged();
+    private UploadRetrier uploadRetrier = UploadRetrier.disabled();
+    private UploadBuffer uploadBuffer = UploadBuffer.disabled();
+    private CompressionPolicy compressionPolicy = CompressionPolicy.none();
+    private UploadBatcher uploadBatcher = UploadBatcher.disabled();
+    private ResumableUploader resumableUploader = ResumableUploader.disabled();
+    private ContentDeduplicator contentDeduplicator = ContentDeduplicator.disabled();
+    private UploadRateLimiter uploadRateLimiter = UploadRateLimiter.unlimited();
+    private UploadScheduler uploadScheduler = UploadScheduler.unlimited();
+    private int commandChannelSessionCount = 1;
+    private ScheduledExecutorService reconnectScheduler = mock(ScheduledExecutorService.class);
+    private boolean ownsScheduler;
+    private OutageQueue outageQueue = OutageQueue.failFast();
+    private final List<Runnable> scheduledReconnects = new ArrayList<Runnable>();
+    private boolean runReconnectsNow = true;
+
     private CmsGatewayClient client;
 
 
@@ -111,8 +183,55 @@ public class CmsGatewayClientTest
 
         when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(commandChannel);
         doNothing().when(reconnectStrategy).delay();
+        when(reconnectScheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                Runnable task = (Runnable)invocation.getArguments()[0];
+                if (runReconnectsNow)
+                    task.run();
+                else
+                    scheduledReconnects.add(task);
+                return null;
+            }
+        });
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                ((Runnable)invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(reconnectScheduler).execute(any(Runnable.class));
+
+        client = createClient();
+    }
 
-        client = new CmsGatewayClient(STUB_COMMAND_CHANNEL_URI, STUB_UPLOAD_CHANNEL_URI, commandChannelTransport, uploadChannel, commandParser, reconnectStrategy);
+    private CmsGatewayClient createClient()
+    {
+        CmsGatewayClient.Components components = new CmsGatewayClient.Components();
+        components.commandExecutor = commandExecutor;
+        components.admissionController = admissionController;
+        components.requestCoalescer = requestCoalescer;
+        components.contentCache = contentCache;
+        components.uploadConnectionPool = uploadConnectionPool;
+        components.uploadRetrier = uploadRetrier;
+        components.uploadBuffer = uploadBuffer;
+        components.compressionPolicy = compressionPolicy;
+        components.uploadBatcher = uploadBatcher;
+        components.resumableUploader = resumableUploader;
+        components.contentDeduplicator = contentDeduplicator;
+        components.uploadRateLimiter = uploadRateLimiter;
+        components.uploadScheduler = uploadScheduler;
+        components.commandChannelSessionCount = commandChannelSessionCount;
+        components.scheduler = reconnectScheduler;
+        components.ownsScheduler = ownsScheduler;
+        components.outageQueue = outageQueue;
+        return new CmsGatewayClient(STUB_COMMAND_CHANNEL_URI, STUB_UPLOAD_CHANNEL_URI, commandChannelTransport, uploadChannel, commandParser, reconnectStrategy,
+                components);
     }
     
 	@Test
@@ -208,6 +327,199 @@ public class CmsGatewayClientTest
         verify(handler, never()).onDisconnect();
     }
 
+    @Test
+    public void opensConfiguredNumberOfCommandChannelSessions() throws Exception
+    {
+        commandChannelSessionCount = 3;
+        client = createClient();
+
+        client.connect(handler);
+
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(commandChannelTransport, times(3)).connectToServer(captor.capture(), eq(STUB_COMMAND_CHANNEL_URI));
+        assertThat(new HashSet<Object>(captor.getAllValues()).size(), is(3));
+        assertThat(client.getConnectedCommandChannelCount(), is(3));
+    }
+
+    @Test
+    public void keepsServingOnOtherSessionsWhenOneIsClosed() throws Exception
+    {
+        List<CmsGatewayClient.CommandChannelTransportEndpoint> endpoints = connectSessions(2);
+
+        endpoints.get(0).onClose(null, new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+
+        verify(handler, never()).onDisconnect();
+        assertThat(client.getConnectedCommandChannelCount(), is(1));
+
+        endpoints.get(1).onClose(null, new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+
+        verify(handler).onDisconnect();
+    }
+
+    @Test
+    public void callsOnConnectOnceWhenSeveralSessionsAreAuthenticated() throws Exception
+    {
+        for (CmsGatewayClient.CommandChannelTransportEndpoint endpoint : connectSessions(2))
+            endpoint.onMessage("{\"cmd\": \"authenticationSuccess\"}", null);
+
+        verify(handler, only()).onConnect();
+    }
+
+    @Test
+    public void sendsErrorResponsesOnConnectedSessionsRoundRobin() throws Exception
+    {
+        CommandChannelSession otherChannel = mock(CommandChannelSession.class);
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(commandChannel, otherChannel);
+        connectSessions(2);
+
+        ErrorResponse error = new ErrorResponse(new GetResourceCommand("some request id", "some file uri"));
+        client.send(error);
+        client.send(error);
+
+        verify(commandChannel).send(error.toJSONString());
+        verify(otherChannel).send(error.toJSONString());
+    }
+
+    @Test
+    public void averagesRoundTripTimeOverMeasuredSessions() throws Exception
+    {
+        CommandChannelSession otherChannel = mock(CommandChannelSession.class);
+        CommandChannelSession unmeasuredChannel = mock(CommandChannelSession.class);
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(commandChannel, otherChannel, unmeasuredChannel);
+        when(commandChannel.getRoundTripTime()).thenReturn(10L);
+        when(otherChannel.getRoundTripTime()).thenReturn(30L);
+        connectSessions(3);
+
+        assertThat(client.getCommandChannelRoundTripTime(), is(20L));
+    }
+
+    private List<CmsGatewayClient.CommandChannelTransportEndpoint> connectSessions(int count) throws Exception
+    {
+        commandChannelSessionCount = count;
+        client = createClient();
+        client.connect(handler);
+
+        ArgumentCaptor<CmsGatewayClient.CommandChannelTransportEndpoint> captor = ArgumentCaptor.forClass(CmsGatewayClient.CommandChannelTransportEndpoint.class);
+        verify(commandChannelTransport, times(count)).connectToServer(captor.capture(), any(URI.class));
+        return captor.getAllValues();
+    }
+
+    @Test
+    public void reconnectsOnSchedulerInsteadOfClosingThread() throws Exception
+    {
+        runReconnectsNow = false;
+        CmsGatewayClient.CommandChannelTransportEndpoint transportEndpoint = getCommandChannelTransportEndpoint();
+
+        transportEndpoint.onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+
+        verify(commandChannelTransport, times(1)).connectToServer(anyObject(), any(URI.class));
+        assertThat(scheduledReconnects.size(), is(1));
+
+        scheduledReconnects.remove(0).run();
+
+        verify(commandChannelTransport, times(2)).connectToServer(anyObject(), any(URI.class));
+        verify(reconnectStrategy, times(1)).delay();
+    }
+
+    @Test
+    public void sendsOnReconnectedSession() throws Exception
+    {
+        CommandChannelSession reconnectedChannel = mock(CommandChannelSession.class);
+        CmsGatewayClient.CommandChannelTransportEndpoint transportEndpoint = getCommandChannelTransportEndpoint();
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(reconnectedChannel);
+
+        transportEndpoint.onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+        ErrorResponse error = new ErrorResponse(new GetResourceCommand("some request id", "some file uri"));
+        client.send(error);
+
+        verify(reconnectedChannel).send(error.toJSONString());
+        verify(commandChannel, never()).send(anyString());
+    }
+
+    @Test
+    public void failsErrorResponseSentDuringOutageByDefault() throws Exception
+    {
+        runReconnectsNow = false;
+        getCommandChannelTransportEndpoint().onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+
+        Future<Void> sent = client.sendAsync(new ErrorResponse(new GetResourceCommand("some request id", "some file uri")));
+
+        try
+        {
+            sent.get();
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause().getMessage(), containsString("not connected"));
+        }
+        verify(commandChannel, never()).send(anyString());
+    }
+
+    @Test
+    public void queuesErrorResponseSentDuringOutageUntilReconnected() throws Exception
+    {
+        outageQueue = new OutageQueue(10);
+        client = createClient();
+        runReconnectsNow = false;
+        CommandChannelSession reconnectedChannel = mock(CommandChannelSession.class);
+        CmsGatewayClient.CommandChannelTransportEndpoint transportEndpoint = getCommandChannelTransportEndpoint();
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(reconnectedChannel);
+        transportEndpoint.onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+
+        ErrorResponse error = new ErrorResponse(new GetResourceCommand("some request id", "some file uri"));
+        Future<Void> sent = client.sendAsync(error);
+
+        assertThat(sent.isDone(), is(false));
+        assertThat(client.getQueuedMessageCount(), is(1));
+
+        scheduledReconnects.remove(0).run();
+
+        verify(reconnectedChannel, never()).send(anyString());
+        assertThat(client.getQueuedMessageCount(), is(1));
+
+        transportEndpoint.onMessage("{\"cmd\": \"authenticationSuccess\"}", null);
+
+        assertThat(sent.isDone(), is(true));
+        verify(reconnectedChannel).send(error.toJSONString());
+    }
+
+    @Test
+    public void doesNotReconnectClosedClient() throws Exception
+    {
+        runReconnectsNow = false;
+        CmsGatewayClient.CommandChannelTransportEndpoint transportEndpoint = getCommandChannelTransportEndpoint();
+        transportEndpoint.onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+
+        client.close();
+        scheduledReconnects.remove(0).run();
+
+        verify(commandChannelTransport, times(1)).connectToServer(anyObject(), any(URI.class));
+    }
+
+    @Test
+    public void closesSessionConnectedWhileClientIsClosed() throws Exception
+    {
+        runReconnectsNow = false;
+        final CommandChannelSession reconnectedChannel = mock(CommandChannelSession.class);
+        CmsGatewayClient.CommandChannelTransportEndpoint transportEndpoint = getCommandChannelTransportEndpoint();
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenAnswer(new Answer<CommandChannelSession>()
+        {
+            @Override
+            public CommandChannelSession answer(InvocationOnMock invocation) throws Throwable
+            {
+                client.close();
+                return reconnectedChannel;
+            }
+        });
+        transportEndpoint.onClose(null, new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, null));
+
+        scheduledReconnects.remove(0).run();
+
+        verify(reconnectedChannel).close();
+        assertThat(client.getConnectedCommandChannelCount(), is(0));
+    }
+
     @Test
     public void forwardsTransportErrorToCommandHandler() throws Exception
     {
@@ -298,6 +610,344 @@ public class CmsGatewayClientTest
         return captor.getValue();
     }
 
+    @Test
+    public void dispatchesGetCommandsToCommandExecutor() throws Exception
+    {
+        commandExecutor = mock(Executor.class);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"some request id\", \"uri\":\"some file uri\"}", null);
+
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(commandExecutor).execute(captor.capture());
+        verifyZeroInteractions(handler);
+
+        captor.getValue().run();
+
+        assertThat(getGetResourceCommand().getUri(), is("some file uri"));
+    }
+
+    @Test
+    public void handlesControlCommandsOnReceiveThread() throws Exception
+    {
+        commandExecutor = mock(Executor.class);
+        client = createClient();
+
+        getCommandChannelTransportEndpoint().onMessage("{\"cmd\": \"authenticationSuccess\"}", null);
+
+        verify(handler, only()).onConnect();
+        verifyZeroInteractions(commandExecutor);
+    }
+
+    @Test
+    public void repliesServiceUnavailableWhenCommandExecutorRejects() throws Exception
+    {
+        commandExecutor = mock(Executor.class);
+        doThrow(RejectedExecutionException.class).when(commandExecutor).execute(any(Runnable.class));
+        client = createClient();
+
+        getCommandChannelTransportEndpoint().onMessage("{\"cmd\":\"getHtml\", \"rid\":\"some request id\", \"uri\":\"some file uri\"}", null);
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(commandChannel).send(captor.capture());
+        assertThat(captor.getValue(), containsString("\"httpCode\":503"));
+        assertThat(captor.getValue(), containsString("\"rid\":\"some request id\""));
+        verify(handler, only()).onError(any(CmsGatewayClientException.class));
+    }
+
+    @Test
+    public void repliesServiceUnavailableWithRetryHintWhenTooManyCommandsInFlight() throws Exception
+    {
+        commandExecutor = mock(Executor.class);
+        admissionController = new AdmissionController(1, 7);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+
+        verify(commandExecutor, times(1)).execute(any(Runnable.class));
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(commandChannel).send(captor.capture());
+        assertThat(captor.getValue(), containsString("\"rid\":\"second request id\""));
+        assertThat(captor.getValue(), containsString("\"httpCode\":503"));
+        assertThat(captor.getValue(), containsString("\"retryAfter\":7"));
+        assertThat(client.getAdmittedCommandCount(), is(1L));
+        assertThat(client.getRejectedCommandCount(), is(1L));
+        assertThat(client.getInFlightCommandCount(), is(1));
+    }
+
+    @Test
+    public void admitsCommandsAgainWhenHandlerReturns() throws Exception
+    {
+        admissionController = new AdmissionController(1, 0);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+
+        verify(handler, times(2)).onGetResourceCommand(any(GetResourceCommand.class));
+        assertThat(client.getAdmittedCommandCount(), is(2L));
+        assertThat(client.getRejectedCommandCount(), is(0L));
+        assertThat(client.getInFlightCommandCount(), is(0));
+    }
+
+    @Test
+    public void passesOnlyFirstOfConcurrentCommandsForSameUriToHandlerWhenCoalescing() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"third request id\", \"uri\":\"another file uri\"}", null);
+
+        verify(handler, times(2)).onGetResourceCommand(any(GetResourceCommand.class));
+    }
+
+    @Test
+    public void uploadsFirstResponseForEachCoalescedCommand() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+
+        ArgumentCaptor<HttpPost> argPost = ArgumentCaptor.forClass(HttpPost.class);
+        verify(uploadChannel, times(2)).execute(argPost.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        assertThat(argPost.getAllValues().get(0).getURI(), is(URI.create(STUB_UPLOAD_CHANNEL_URI + "&rid=second+request+id")));
+        assertThat(IOUtils.toString(argPost.getAllValues().get(0).getEntity().getContent()), is("some file body"));
+        assertThat(argPost.getAllValues().get(1).getURI(), is(URI.create(STUB_UPLOAD_CHANNEL_URI + "&rid=first+request+id")));
+        assertThat(IOUtils.toString(argPost.getAllValues().get(1).getEntity().getContent()), is("some file body"));
+    }
+
+    @Test
+    public void uploadsContentFileForEachCoalescedCommandWithoutCaching() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+        contentCache = new ContentCache(1024, 60000);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, "some file body");
+        FileUpload upload = new FileUpload(getGetResourceCommand());
+
+        upload.setContentFile(file);
+        client.send(upload);
+
+        ArgumentCaptor<HttpPost> argPost = ArgumentCaptor.forClass(HttpPost.class);
+        verify(uploadChannel, times(2)).execute(argPost.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        assertThat(argPost.getAllValues().get(0).getEntity().getContentLength(), is(14L));
+        assertThat(IOUtils.toString(argPost.getAllValues().get(0).getEntity().getContent()), is("some file body"));
+        assertThat(argPost.getAllValues().get(1).getEntity().getContentLength(), is(14L));
+        assertThat(contentCache.getStats().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void sendsFirstErrorResponseForEachCoalescedCommand() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+
+        client.send(new ErrorResponse(getGetHtmlCommand()));
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(commandChannel, times(2)).send(captor.capture());
+        assertThat(captor.getAllValues().get(0), containsString("\"rid\":\"first request id\""));
+        assertThat(captor.getAllValues().get(1), containsString("\"rid\":\"second request id\""));
+    }
+
+    @Test
+    public void answersFollowersWithErrorWhenHandlerThrows() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+        client = createClient();
+        final CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+                throw new IllegalStateException("handler failure");
+            }
+        }).when(handler).onGetHtmlCommand(any(GetHtmlCommand.class));
+
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(commandChannel).send(captor.capture());
+        assertThat(captor.getValue(), containsString("\"rid\":\"second request id\""));
+        assertThat(captor.getValue(), containsString("\"httpCode\":500"));
+        verify(handler).onError(any(IllegalStateException.class));
+        assertTrue(requestCoalescer.join(new GetHtmlCommand("third request id", "some file uri")));
+    }
+
+    @Test
+    public void answersFollowersOfExpiredLeaderOnScheduler() throws Exception
+    {
+        requestCoalescer = new RequestCoalescer(50);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"some file uri\"}", null);
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+        ArgumentCaptor<Runnable> expiry = ArgumentCaptor.forClass(Runnable.class);
+        verify(reconnectScheduler).scheduleWithFixedDelay(expiry.capture(), eq(50L), eq(50L), eq(TimeUnit.MILLISECONDS));
+        Thread.sleep(100);
+
+        expiry.getValue().run();
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(commandChannel).send(captor.capture());
+        assertThat(captor.getValue(), containsString("\"rid\":\"second request id\""));
+        assertThat(captor.getValue(), containsString("\"httpCode\":504"));
+    }
+
+    @Test
+    public void answersCachedUriFromContentCacheWithoutCallingHandler() throws Exception
+    {
+        contentCache = new ContentCache(1024, 60000);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+        completeUpload(200, "{\"response\":{\"code\":\"SUCCESS\"}}");
+
+        endpoint.onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"some file uri\"}", null);
+
+        verifyZeroInteractions(handler);
+        ArgumentCaptor<HttpPost> argPost = ArgumentCaptor.forClass(HttpPost.class);
+        verify(uploadChannel, times(2)).execute(argPost.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        assertThat(argPost.getAllValues().get(0).getURI(), is(URI.create(STUB_UPLOAD_CHANNEL_URI + "&rid=first+request+id")));
+        assertThat(argPost.getAllValues().get(1).getURI(), is(URI.create(STUB_UPLOAD_CHANNEL_URI + "&rid=second+request+id")));
+        assertThat(IOUtils.toString(argPost.getAllValues().get(1).getEntity().getContent()), is("some file body"));
+        assertThat(contentCache.getStats().getHitCount(), is(1L));
+    }
+
+    @Test
+    public void doesNotCacheContentOfFailedUpload() throws Exception
+    {
+        contentCache = new ContentCache(1024, 60000);
+        client = createClient();
+
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+        completeUpload(500, "{\"response\":{\"code\":\"GENERAL_ERROR\"}}");
+
+        assertThat(contentCache.getStats().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void streamsContentLargerThanCacheWithoutCaching() throws Exception
+    {
+        contentCache = new ContentCache(8, 60000);
+        client = createClient();
+
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+
+        assertThat(IOUtils.toString(getHttpPostFromUploadChannel().getEntity().getContent()), is("some file body"));
+        assertThat(contentCache.getStats().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void stagesContentLargerThanHeapCacheToDiskStore() throws Exception
+    {
+        File directory = folder.newFolder();
+        contentCache = new ContentCache(8, 60000, new DiskContentStore(directory, 1024), 4);
+        client = createClient();
+
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+
+        HttpEntity entity = getHttpPostFromUploadChannel().getEntity();
+        assertThat(entity.isRepeatable(), is(true));
+        assertThat(entity.getContentLength(), is(14L));
+        assertThat(IOUtils.toString(entity.getContent()), is("some file body"));
+        completeUpload(200, "{\"response\":{\"code\":\"SUCCESS\"}}");
+        assertThat(contentCache.getStats().getDiskEntryCount(), is(1));
+        assertThat(directory.list(TEMP_FILES).length, is(0));
+    }
+
+    @Test
+    public void discardsStagedContentOfFailedUpload() throws Exception
+    {
+        File directory = folder.newFolder();
+        contentCache = new ContentCache(8, 60000, new DiskContentStore(directory, 1024), 4);
+        client = createClient();
+
+        client.send(makeFileUploadResponse("first request id", "some file uri", "some file body"));
+        completeUpload(500, "{\"response\":{\"code\":\"GENERAL_ERROR\"}}");
+
+        assertThat(contentCache.getStats().getDiskEntryCount(), is(0));
+        assertThat(directory.list(TEMP_FILES).length, is(0));
+    }
+
+    @Test
+    public void sendsCachedHtmlPageWithKnownLength() throws Exception
+    {
+        contentCache = new ContentCache(1024, 60000);
+        client = createClient();
+        CmsGatewayClient.CommandChannelTransportEndpoint endpoint = getCommandChannelTransportEndpoint();
+        HtmlUpload page = new HtmlUpload(new GetHtmlCommand("first request id", "some page uri"));
+        page.setBody("some page body");
+        client.send(page);
+        completeUpload(200, "{\"response\":{\"code\":\"SUCCESS\"}}");
+
+        endpoint.onMessage("{\"cmd\":\"getHtml\", \"rid\":\"second request id\", \"uri\":\"some page uri\"}", null);
+
+        ArgumentCaptor<HttpPost> argPost = ArgumentCaptor.forClass(HttpPost.class);
+        verify(uploadChannel, times(2)).execute(argPost.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        HttpEntity first = argPost.getAllValues().get(0).getEntity();
+        HttpEntity cached = argPost.getAllValues().get(1).getEntity();
+        assertThat(first.isRepeatable(), is(true));
+        assertThat(cached.isRepeatable(), is(true));
+        assertThat(cached.getContentLength(), is(first.getContentLength()));
+        assertThat(IOUtils.toString(cached.getContent()), is(IOUtils.toString(first.getContent())));
+    }
+
+    @Test
+    public void keepsHtmlPageLargerThanCacheRepeatable() throws Exception
+    {
+        contentCache = new ContentCache(8, 60000);
+        client = createClient();
+        HtmlUpload page = new HtmlUpload(new GetHtmlCommand("first request id", "some page uri"));
+        page.setBody("some page body");
+
+        client.send(page);
+
+        HttpEntity entity = getHttpPostFromUploadChannel().getEntity();
+        assertThat(entity.isRepeatable(), is(true));
+        assertTrue(entity.getContentLength() > 0);
+    }
+
+    private void completeUpload(int statusCode, String responseJson)
+    {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<FutureCallback<HttpResponse>> argCallback = ArgumentCaptor.forClass((Class)FutureCallback.class);
+        verify(uploadChannel).execute(any(HttpUriRequest.class), argCallback.capture());
+        argCallback.getValue().completed(mockHttpResponse(statusCode, responseJson));
+    }
+
+    @Test
+    public void passesCommandToHandlerOnContentCacheMiss() throws Exception
+    {
+        contentCache = new ContentCache(1024, 60000);
+        client = createClient();
+
+        getCommandChannelTransportEndpoint().onMessage("{\"cmd\":\"getResource\", \"rid\":\"some request id\", \"uri\":\"some file uri\"}", null);
+
+        assertThat(getGetResourceCommand().getUri(), is("some file uri"));
+        assertThat(contentCache.getStats().getMissCount(), is(1L));
+    }
+
     @Test
     public void sendsErrorResponseJsonToCommandChannel() throws Exception
     {
@@ -398,6 +1048,133 @@ public class CmsGatewayClientTest
         }
     }
 
+    @Test
+    public void completesAsyncUploadFromUploadChannelCallback() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        FutureCallback<ResponseStatus<Void>> callback = mock(FutureCallback.class);
+        Future<ResponseStatus<Void>> future = client.send(makeFileUploadResponse("some request id", "some file uri", "some body content"), callback);
+        assertThat(future.isDone(), is(false));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<FutureCallback<HttpResponse>> argCallback = ArgumentCaptor.forClass((Class)FutureCallback.class);
+        verify(uploadChannel).execute(any(HttpUriRequest.class), argCallback.capture());
+        argCallback.getValue().completed(mockHttpResponse(200, "{\"response\":{\"code\":\"SUCCESS\"}}"));
+
+        assertThat(future.get().getCode(), is("SUCCESS"));
+        verify(callback).completed(future.get());
+    }
+
+    @Test
+    public void buffersStreamedUploadContentWhenEnabled() throws Exception
+    {
+        uploadBuffer = new UploadBuffer(1024, folder.getRoot());
+        client = createClient();
+
+        client.send(makeFileUploadResponse("some request id", "some file uri", "some body content"), null);
+
+        ArgumentCaptor<HttpPost> argPost = ArgumentCaptor.forClass(HttpPost.class);
+        verify(uploadChannel).execute(argPost.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        assertThat(argPost.getValue().getEntity().isRepeatable(), is(true));
+        assertThat(IOUtils.toString(argPost.getValue().getEntity().getContent()), is("some body content"));
+    }
+
+    @Test
+    public void buffersUploadContentBeforeWaitingForUploadSlot() throws Exception
+    {
+        uploadBuffer = new UploadBuffer(1024, folder.getRoot());
+        Executor slotExecutor = mock(Executor.class);
+        uploadScheduler = new UploadScheduler(1, slotExecutor);
+        client = createClient();
+        client.send(makeFileUploadResponse("some request id", "some file uri", "some body content"), null);
+        FileUpload waiting = makeFileUploadResponse("other request id", "other file uri", "other body content");
+
+        client.send(waiting, null);
+
+        assertThat(uploadScheduler.getQueuedCount(), is(1));
+        assertThat(waiting.getInputStream().read(), is(-1));
+        verifyZeroInteractions(slotExecutor);
+    }
+
+    @Test
+    public void compressesUploadContentWhenEnabled() throws Exception
+    {
+        compressionPolicy = new CompressionPolicy(0, Arrays.asList("text/*"), true);
+        client = createClient();
+        FileUpload upload = makeFileUploadResponse("some request id", "some file uri", "some body content");
+        upload.setContentType("text/css", "UTF-8");
+
+        client.send(upload, null);
+
+        HttpEntity entity = getHttpPostFromUploadChannel().getEntity();
+        assertThat(entity.getContentEncoding().getValue(), is("gzip"));
+        assertThat(IOUtils.toString(new GZIPInputStream(entity.getContent())), is("some body content"));
+    }
+
+    @Test
+    public void batchesSmallResourceUploadsWhenEnabled() throws Exception
+    {
+        uploadBatcher = new UploadBatcher(1000, 17, 17, mock(ScheduledExecutorService.class));
+        client = createClient();
+
+        client.send(makeFileUploadResponse("some request id", "some file uri", "some body content"));
+
+        HttpPost httpPost = getHttpPostFromUploadChannel();
+        assertThat(httpPost.getURI().toString(), endsWith("some_upload_channel_uri/batch?projectId=some+project+id"));
+        assertThat(IOUtils.toString(httpPost.getEntity().getContent()), containsString("some body content"));
+    }
+
+    @Test
+    public void sendsLargeFilesInPartsWhenEnabled() throws Exception
+    {
+        resumableUploader = new ResumableUploader(10, 8, UploadRetryPolicy.none(), mock(ScheduledExecutorService.class));
+        client = createClient();
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, "some file body");
+        FileUpload upload = makeFileUploadResponse("some request id", "some file uri", "");
+        upload.setContentFile(file);
+
+        client.send(upload);
+
+        HttpPost httpPost = getHttpPostFromUploadChannel();
+        assertThat(httpPost.getURI().toString(), endsWith("some_upload_channel_uri/part?projectId=some+project+id&rid=some+request+id&offset=0&total=14"));
+        assertThat(IOUtils.toString(httpPost.getEntity().getContent()), is("some fil"));
+    }
+
+    @Test
+    public void sendsLargeHtmlFileInJsonEnvelopeRatherThanInParts() throws Exception
+    {
+        resumableUploader = new ResumableUploader(10, 8, UploadRetryPolicy.none(), mock(ScheduledExecutorService.class));
+        client = createClient();
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, "some html body");
+        HtmlUpload upload = new HtmlUpload(new GetHtmlCommand("some request id", "some file uri"));
+        upload.setContentFile(file);
+
+        client.send(upload);
+
+        HttpPost httpPost = getHttpPostFromUploadChannel();
+        assertThat(httpPost.getURI(), is(URI.create(STUB_UPLOAD_CHANNEL_URI + "&rid=some+request+id")));
+        assertThat(IOUtils.toString(httpPost.getEntity().getContent()), containsString("\"body\":\"some html body\""));
+    }
+
+    @Test
+    public void failsAsyncUploadOnHttpError() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        FutureCallback<ResponseStatus<Void>> callback = mock(FutureCallback.class);
+        client.send(makeFileUploadResponse("some request id", "some file uri", "some body content"), callback);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<FutureCallback<HttpResponse>> argCallback = ArgumentCaptor.forClass((Class)FutureCallback.class);
+        verify(uploadChannel).execute(any(HttpUriRequest.class), argCallback.capture());
+        argCallback.getValue().completed(mockHttpResponse(500, "{\"response\":{\"code\":\"GENERAL_ERROR\",\"messages\":[\"some error message\"]}}"));
+
+        ArgumentCaptor<Exception> argException = ArgumentCaptor.forClass(Exception.class);
+        verify(callback).failed(argException.capture());
+        assertThat(argException.getValue().getMessage(), containsString("some error message"));
+    }
+
     @Test
     public void closesCommandChannelOnClose() throws Exception
     {
@@ -407,6 +1184,36 @@ public class CmsGatewayClientTest
         verify(commandChannel).close();
     }
 
+    @Test
+    public void closesUploadConnectionPoolOnClose() throws Exception
+    {
+        uploadConnectionPool = mock(UploadConnectionPool.class);
+        client = createClient();
+
+        getConnectedClient().close();
+
+        verify(uploadConnectionPool).close();
+    }
+
+    @Test
+    public void shutsDownOwnedSchedulerOnClose() throws Exception
+    {
+        ownsScheduler = true;
+        client = createClient();
+
+        getConnectedClient().close();
+
+        verify(reconnectScheduler).shutdownNow();
+    }
+
+    @Test
+    public void keepsSharedSchedulerOnClose() throws Exception
+    {
+        getConnectedClient().close();
+
+        verify(reconnectScheduler, never()).shutdownNow();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void throwsWhenTryingToConnectClosedClient() throws Exception
     {
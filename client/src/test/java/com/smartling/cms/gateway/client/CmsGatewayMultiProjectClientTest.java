@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.smartling.cms.gateway.client.cache.ContentCache;
+import com.smartling.cms.gateway.client.command.CommandChannelHandler;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+import com.smartling.cms.gateway.client.internal.CommandChannelSession;
+import com.smartling.cms.gateway.client.internal.CommandChannelTransport;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+
+public class CmsGatewayMultiProjectClientTest
+{
+    @Mock
+    private CommandChannelTransport commandChannelTransport;
+
+    @Mock
+    private CommandChannelSession commandChannel;
+
+    @Mock
+    private CloseableHttpAsyncClient uploadChannel;
+
+    @Mock
+    private CommandChannelHandler handler;
+
+    private CmsGatewayMultiProjectClient clients;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        when(commandChannelTransport.connectToServer(anyObject(), any(URI.class))).thenReturn(commandChannel);
+
+        clients = CmsGatewayClientBuilder.create()
+                .setApiKey("some api key")
+                .setCommandChannelTransport(commandChannelTransport)
+                .setUploadChannelTransport(uploadChannel)
+                .buildMultiProjectClient();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clients.close();
+    }
+
+    @Test
+    public void connectsEachProjectWithItsOwnId() throws Exception
+    {
+        clients.addProject("first").connect(handler);
+        clients.addProject("second").connect(handler);
+
+        ArgumentCaptor<URI> captor = ArgumentCaptor.forClass(URI.class);
+        verify(commandChannelTransport, times(2)).connectToServer(anyObject(), captor.capture());
+        List<URI> uris = captor.getAllValues();
+        assertThat(uris.get(0).getQuery(), containsString("projectId=first"));
+        assertThat(uris.get(1).getQuery(), containsString("projectId=second"));
+        assertThat(clients.getProjectIds().size(), is(2));
+    }
+
+    @Test
+    public void keepsContentCachedForSameUriOfProjectsApart() throws Exception
+    {
+        ContentCache cache = new ContentCache(1024, 60000);
+        clients.close();
+        clients = CmsGatewayClientBuilder.create()
+                .setApiKey("some api key")
+                .setCommandChannelTransport(commandChannelTransport)
+                .setUploadChannelTransport(uploadChannel)
+                .setContentCache(cache)
+                .buildMultiProjectClient();
+        CmsGatewayClient first = clients.addProject("first");
+        CmsGatewayClient second = clients.addProject("second");
+        first.connect(handler);
+        second.connect(handler);
+        ArgumentCaptor<CmsGatewayClient.CommandChannelTransportEndpoint> endpoints =
+                ArgumentCaptor.forClass(CmsGatewayClient.CommandChannelTransportEndpoint.class);
+        verify(commandChannelTransport, times(2)).connectToServer(endpoints.capture(), any(URI.class));
+        GetResourceCommand request = new GetResourceCommand("first request id", "/logo.png");
+        first.getContentCache().put(request, new FileUpload(request), "first logo".getBytes("UTF-8"));
+
+        endpoints.getAllValues().get(1).onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"/logo.png\"}", null);
+        endpoints.getAllValues().get(0).onMessage("{\"cmd\":\"getResource\", \"rid\":\"third request id\", \"uri\":\"/logo.png\"}", null);
+
+        ArgumentCaptor<GetResourceCommand> handled = ArgumentCaptor.forClass(GetResourceCommand.class);
+        verify(handler).onGetResourceCommand(handled.capture());
+        assertThat(handled.getValue().getId(), is("second request id"));
+        assertThat(second.getContentCache().get(request), is(nullValue()));
+        assertThat(first.getContentCache().get(request), is(notNullValue()));
+    }
+
+    @Test
+    public void sharesCommandThreadsBetweenProjects() throws Exception
+    {
+        clients.close();
+        clients = CmsGatewayClientBuilder.create()
+                .setApiKey("some api key")
+                .setCommandChannelTransport(commandChannelTransport)
+                .setUploadChannelTransport(uploadChannel)
+                .setCommandThreads(1)
+                .buildMultiProjectClient();
+        clients.addProject("first").connect(handler);
+        clients.addProject("second").connect(handler);
+        ArgumentCaptor<CmsGatewayClient.CommandChannelTransportEndpoint> endpoints =
+                ArgumentCaptor.forClass(CmsGatewayClient.CommandChannelTransportEndpoint.class);
+        verify(commandChannelTransport, times(2)).connectToServer(endpoints.capture(), any(URI.class));
+
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                threads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(handler).onGetResourceCommand(any(GetResourceCommand.class));
+        endpoints.getAllValues().get(0).onMessage("{\"cmd\":\"getResource\", \"rid\":\"first request id\", \"uri\":\"/logo.png\"}", null);
+        verify(handler, timeout(1000)).onGetResourceCommand(any(GetResourceCommand.class));
+
+        clients.removeProject("first");
+        endpoints.getAllValues().get(1).onMessage("{\"cmd\":\"getResource\", \"rid\":\"second request id\", \"uri\":\"/logo.png\"}", null);
+
+        verify(handler, timeout(1000).times(2)).onGetResourceCommand(any(GetResourceCommand.class));
+        assertThat(threads.size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProjectAddedTwice() throws Exception
+    {
+        clients.addProject("first");
+        clients.addProject("first");
+    }
+
+    @Test
+    public void keepsSharedUploadChannelWhenProjectIsRemoved() throws Exception
+    {
+        clients.addProject("first").connect(handler);
+
+        clients.removeProject("first");
+
+        verify(commandChannel).close();
+        verify(uploadChannel, never()).close();
+        assertThat(clients.getClient("first"), is(nullValue()));
+    }
+
+    @Test
+    public void closesProjectsAndSharedUploadChannelOnClose() throws Exception
+    {
+        clients.addProject("first").connect(handler);
+
+        clients.close();
+
+        verify(commandChannel).close();
+        verify(uploadChannel).close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void throwsWhenAddingProjectToClosedClient() throws Exception
+    {
+        clients.close();
+
+        clients.addProject("first");
+    }
+}
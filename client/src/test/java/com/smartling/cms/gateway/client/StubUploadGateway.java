@@ -0,0 +1,273 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for gateway upload endpoint, for tests which need a real HTTP server.
+ * Accepts single uploads at "/upload?rid=..", multipart batches at "/upload/batch"
+ * and resumable uploads in parts at "/upload/part?rid=..". Answers content probes
+ * at "/upload/digest?rid=..&sha256=.." from digests of content it has received.
+ */
+public class StubUploadGateway implements HttpHandler
+{
+    private final HttpServer server;
+    private final Map<String, String> uploads = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+    private final Set<String> digests = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> failingRequests = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, ByteArrayOutputStream> partialUploads = new HashMap<String, ByteArrayOutputStream>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger failingParts = new AtomicInteger();
+    private final AtomicInteger rejectedParts = new AtomicInteger();
+    private final AtomicLong receivedPartBytes = new AtomicLong();
+    private volatile int httpStatus = 200;
+
+    public StubUploadGateway() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/upload", this);
+        server.start();
+    }
+
+    public URI getUploadUri()
+    {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/upload");
+    }
+
+    public URI getBatchUri()
+    {
+        return URI.create(getUploadUri() + "/batch");
+    }
+
+    /**
+     * @return Content of received uploads by request id, in order of arrival.
+     */
+    public Map<String, String> getUploads()
+    {
+        return uploads;
+    }
+
+    public int getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    /**
+     * Makes upload for the request fail with GENERAL_ERROR status.
+     */
+    public void failRequest(String requestId)
+    {
+        failingRequests.add(requestId);
+    }
+
+    /**
+     * Makes next parts of resumable uploads fail with HTTP 503, after their content is received.
+     */
+    public void failNextParts(int count)
+    {
+        failingParts.set(count);
+    }
+
+    /**
+     * Makes next parts of resumable uploads answered with GENERAL_ERROR status, without taking their content.
+     */
+    public void rejectNextParts(int count)
+    {
+        rejectedParts.set(count);
+    }
+
+    /**
+     * @return Content bytes received in parts, including failed ones.
+     */
+    public long getReceivedPartBytes()
+    {
+        return receivedPartBytes.get();
+    }
+
+    /**
+     * Forgets content received so far, so that content probes find nothing.
+     */
+    public void forgetContent()
+    {
+        digests.clear();
+    }
+
+    /**
+     * Makes all requests fail with HTTP status.
+     */
+    public void setHttpStatus(int httpStatus)
+    {
+        this.httpStatus = httpStatus;
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        requestCount.incrementAndGet();
+        String body = IOUtils.toString(exchange.getRequestBody(), Charsets.ISO_8859_1.name());
+        JsonObject response = new JsonObject();
+        int responseCode = httpStatus;
+
+        if (exchange.getRequestURI().getPath().endsWith("/digest"))
+        {
+            Map<String, String> parameters = parseQuery(exchange);
+            boolean present = digests.contains(parameters.get("sha256"));
+            if (present)
+                uploads.put(parameters.get("rid"), null);
+            JsonObject data = new JsonObject();
+            data.addProperty("present", present);
+            JsonObject status = status("SUCCESS");
+            status.add("data", data);
+            response.add("response", status);
+        }
+        else if (exchange.getRequestURI().getPath().endsWith("/part"))
+        {
+            responseCode = receivePart(exchange, body.getBytes(Charsets.ISO_8859_1), response);
+        }
+        else if (exchange.getRequestURI().getPath().endsWith("/batch"))
+        {
+            String boundary = StringUtils.substringAfter(exchange.getRequestHeaders().getFirst("Content-Type"), "boundary=");
+            JsonObject data = new JsonObject();
+            for (String[] part : parseMultipart(body, boundary))
+                data.add(part[0], status(receive(part[0], part[1])));
+            JsonObject status = status("SUCCESS");
+            status.add("data", data);
+            response.add("response", status);
+        }
+        else
+        {
+            String requestId = URLDecoder.decode(StringUtils.substringAfter(exchange.getRequestURI().getRawQuery(), "rid="), "UTF-8");
+            response.add("response", status(receive(requestId, body)));
+        }
+
+        byte[] content = response.toString().getBytes(Charsets.UTF_8);
+        exchange.sendResponseHeaders(responseCode, content.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(content);
+        output.close();
+    }
+
+    private synchronized int receivePart(HttpExchange exchange, byte[] content, JsonObject response) throws IOException
+    {
+        Map<String, String> parameters = parseQuery(exchange);
+        String requestId = parameters.get("rid");
+        ByteArrayOutputStream received = partialUploads.get(requestId);
+        if (received == null)
+        {
+            received = new ByteArrayOutputStream();
+            partialUploads.put(requestId, received);
+        }
+
+        String code = "SUCCESS";
+        if (exchange.getRequestMethod().equals("POST"))
+        {
+            receivedPartBytes.addAndGet(content.length);
+            if (failingParts.getAndDecrement() > 0)
+                return 503;
+
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            boolean valid = String.format("%08x", crc.getValue()).equals(exchange.getRequestHeaders().getFirst("X-Part-CRC32"));
+            if (!valid || rejectedParts.getAndDecrement() > 0)
+                code = "GENERAL_ERROR";
+            else if (Long.parseLong(parameters.get("offset")) == received.size())
+                received.write(content, 0, content.length);
+
+            if (received.size() == Long.parseLong(parameters.get("total")))
+                receive(requestId, new String(received.toByteArray(), Charsets.ISO_8859_1));
+        }
+
+        JsonObject data = new JsonObject();
+        data.addProperty("offset", received.size());
+        JsonObject status = status(code);
+        status.add("data", data);
+        response.add("response", status);
+        return 200;
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws IOException
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String parameter : StringUtils.split(exchange.getRequestURI().getRawQuery(), '&'))
+            parameters.put(StringUtils.substringBefore(parameter, "="), URLDecoder.decode(StringUtils.substringAfter(parameter, "="), "UTF-8"));
+        return parameters;
+    }
+
+    private String receive(String requestId, String content)
+    {
+        uploads.put(requestId, content);
+        digests.add(DigestUtils.sha256Hex(content.getBytes(Charsets.ISO_8859_1)));
+        return failingRequests.contains(requestId) ? "GENERAL_ERROR" : "SUCCESS";
+    }
+
+    private static JsonObject status(String code)
+    {
+        JsonObject status = new JsonObject();
+        status.addProperty("code", code);
+        return status;
+    }
+
+    /**
+     * @return Name and content of each part.
+     */
+    private static List<String[]> parseMultipart(String body, String boundary)
+    {
+        List<String[]> parts = new ArrayList<String[]>();
+        for (String part : StringUtils.splitByWholeSeparator(body, "--" + boundary))
+        {
+            if (!part.startsWith("\r\n"))
+                continue;
+
+            String headers = StringUtils.substringBefore(part, "\r\n\r\n");
+            String name = StringUtils.substringBetween(headers, "name=\"", "\"");
+            String content = StringUtils.removeEnd(StringUtils.substringAfter(part, "\r\n\r\n"), "\r\n");
+            parts.add(new String[] {name, content});
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.command.GetHtmlCommand;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+import com.smartling.cms.gateway.client.upload.HtmlUpload;
+
+public class ContentCacheTest
+{
+    private ContentCache cache = new ContentCache(10, 60000);
+
+    @Test
+    public void returnsCachedContentForSameTypeAndUri() throws Exception
+    {
+        put(new GetResourceCommand("1", "uri"), "body");
+
+        CachedContent content = cache.get(new GetResourceCommand("2", "uri"));
+
+        assertThat(content, notNullValue());
+        assertThat(IOUtils.toString(content.toUpload(new GetResourceCommand("2", "uri")).getInputStream()), is("body"));
+    }
+
+    @Test
+    public void keepsCommandTypesApart() throws Exception
+    {
+        put(new GetResourceCommand("1", "uri"), "body");
+
+        assertThat(cache.get(new GetHtmlCommand("2", "uri")), nullValue());
+    }
+
+    @Test
+    public void keepsHtmlUploadProperties() throws Exception
+    {
+        GetHtmlCommand request = new GetHtmlCommand("1", "uri");
+        HtmlUpload upload = new HtmlUpload(request);
+        upload.setBaseUrl("base url");
+        cache.put(request, upload, "body".getBytes("UTF-8"));
+
+        FileUpload cached = cache.get(request).toUpload(new GetHtmlCommand("2", "uri"));
+
+        assertThat(cached, instanceOf(HtmlUpload.class));
+        assertThat(((HtmlUpload)cached).getBaseUrl(), is("base url"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenFull() throws Exception
+    {
+        put(new GetResourceCommand("1", "first"), "aaaa");
+        put(new GetResourceCommand("2", "second"), "bbbb");
+        cache.get(new GetResourceCommand("3", "first"));
+
+        put(new GetResourceCommand("4", "third"), "cccc");
+
+        assertThat(cache.get(new GetResourceCommand("5", "first")), notNullValue());
+        assertThat(cache.get(new GetResourceCommand("6", "second")), nullValue());
+        assertThat(cache.getStats().getSize(), is(8L));
+        assertThat(cache.getStats().getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void doesNotCacheContentLargerThanMaxSize() throws Exception
+    {
+        put(new GetResourceCommand("1", "uri"), "more than ten bytes");
+
+        assertThat(cache.getStats().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void expiresEntriesAfterTimeToLive() throws Exception
+    {
+        cache = new ContentCache(10, 1);
+        put(new GetResourceCommand("1", "uri"), "body");
+        Thread.sleep(5);
+
+        assertThat(cache.get(new GetResourceCommand("2", "uri")), nullValue());
+        assertThat(cache.getStats().getSize(), is(0L));
+    }
+
+    @Test
+    public void invalidatesUriForAllCommandTypes() throws Exception
+    {
+        put(new GetResourceCommand("1", "uri"), "body");
+        put(new GetHtmlCommand("2", "uri"), "body");
+
+        cache.invalidate("uri");
+
+        assertThat(cache.getStats().getEntryCount(), is(0));
+        assertThat(cache.getStats().getSize(), is(0L));
+    }
+
+    @Test
+    public void countsHitsAndMisses() throws Exception
+    {
+        put(new GetResourceCommand("1", "uri"), "body");
+
+        cache.get(new GetResourceCommand("2", "uri"));
+        cache.get(new GetResourceCommand("3", "another uri"));
+
+        assertThat(cache.getStats().getHitCount(), is(1L));
+        assertThat(cache.getStats().getMissCount(), is(1L));
+        assertThat(cache.getStats().getHitRate(), is(0.5));
+    }
+
+    @Test
+    public void keepsProjectsApart() throws Exception
+    {
+        ContentCache first = cache.forProject("first");
+        ContentCache second = cache.forProject("second");
+        GetResourceCommand request = new GetResourceCommand("1", "uri");
+        first.put(request, new FileUpload(request), "body".getBytes("UTF-8"));
+
+        assertThat(second.get(request), nullValue());
+        assertThat(cache.get(request), nullValue());
+        assertThat(first.get(request), notNullValue());
+        assertThat(cache.getStats().getEntryCount(), is(1));
+    }
+
+    @Test
+    public void invalidatesOnlyContentOfProject() throws Exception
+    {
+        ContentCache first = cache.forProject("first");
+        ContentCache second = cache.forProject("second");
+        GetResourceCommand request = new GetResourceCommand("1", "uri");
+        first.put(request, new FileUpload(request), "body".getBytes("UTF-8"));
+        second.put(request, new FileUpload(request), "body".getBytes("UTF-8"));
+
+        first.invalidateAll();
+
+        assertThat(first.get(request), nullValue());
+        assertThat(second.get(request), notNullValue());
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() throws Exception
+    {
+        cache = ContentCache.disabled();
+        put(new GetResourceCommand("1", "uri"), "body");
+
+        assertFalse(cache.isEnabled());
+        assertThat(cache.get(new GetResourceCommand("2", "uri")), nullValue());
+    }
+
+    private void put(BaseCommand request, String body) throws Exception
+    {
+        cache.put(request, new FileUpload(request), body.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.cache;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smartling.cms.gateway.client.command.GetHtmlCommand;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+import com.smartling.cms.gateway.client.upload.ByteBufferEntity;
+import com.smartling.cms.gateway.client.upload.FileUpload;
+import com.smartling.cms.gateway.client.upload.HtmlUpload;
+
+public class DiskContentStoreTest
+{
+    private static final FilenameFilter CONTENT_FILES = new FilenameFilter()
+    {
+        @Override
+        public boolean accept(File dir, String name)
+        {
+            return name.endsWith(".bin");
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private DiskContentStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = folder.newFolder("cache");
+        store = new DiskContentStore(directory, 10);
+    }
+
+    @Test
+    public void servesStoredContentFromMappedBuffer() throws Exception
+    {
+        store.put("key", "text/css; charset=UTF-8", bytes("body"), 1);
+
+        FileUpload upload = store.get("key").toUpload(new GetResourceCommand("1", "uri"));
+        HttpEntity entity = upload.getHttpEntity();
+
+        assertThat(entity, instanceOf(ByteBufferEntity.class));
+        assertThat(entity.getContentLength(), is(4L));
+        assertThat(entity.getContentType().getValue(), is("text/css; charset=UTF-8"));
+        assertThat(IOUtils.toString(entity.getContent()), is("body"));
+    }
+
+    @Test
+    public void keepsContentAcrossRestart() throws Exception
+    {
+        store.put("key", "image/png", bytes("body"), 1);
+
+        DiskContentStore reopened = new DiskContentStore(directory, 10);
+
+        CachedContent content = reopened.get("key");
+        assertThat(content, notNullValue());
+        assertThat(content.getCreatedAt(), is(1L));
+        assertThat(IOUtils.toString(content.toUpload(new GetResourceCommand("1", "uri")).getInputStream()), is("body"));
+    }
+
+    @Test
+    public void storesIdenticalContentOnce() throws Exception
+    {
+        store.put("first", "image/png", bytes("body"), 1);
+        store.put("second", "image/png", bytes("body"), 1);
+
+        assertThat(store.getEntryCount(), is(2));
+        assertThat(store.getSize(), is(4L));
+        assertThat(directory.listFiles(CONTENT_FILES).length, is(1));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedAndDeletesItsFile() throws Exception
+    {
+        store.put("first", "image/png", bytes("aaaa"), 1);
+        store.put("second", "image/png", bytes("bbbb"), 1);
+        store.get("first");
+
+        store.put("third", "image/png", bytes("cccc"), 1);
+
+        assertThat(store.get("second"), nullValue());
+        assertThat(store.getSize(), is(8L));
+        assertThat(new DiskContentStore(directory, 10).getEntryCount(), is(2));
+    }
+
+    @Test
+    public void keepsFileOfRemovedContentUntilReleased() throws Exception
+    {
+        store.put("key", "image/png", bytes("body"), 1);
+        CachedContent content = store.get("key");
+
+        store.remove("key");
+
+        assertThat(directory.listFiles(CONTENT_FILES).length, is(1));
+        content.release();
+        assertThat(directory.listFiles(CONTENT_FILES).length, is(0));
+    }
+
+    @Test
+    public void appendsChangesToIndexAndReplaysThemOnRestart() throws Exception
+    {
+        store.put("first", "image/png", bytes("aaaa"), 1);
+        store.put("second", "image/png", bytes("bbbb"), 1);
+
+        store.remove("first");
+
+        assertThat(FileUtils.readLines(new File(directory, "index")).size(), is(3));
+        DiskContentStore reopened = new DiskContentStore(directory, 10);
+        assertThat(reopened.getEntryCount(), is(1));
+        assertThat(reopened.get("first"), nullValue());
+        assertThat(reopened.getSize(), is(4L));
+    }
+
+    @Test
+    public void movesStagedContentIntoStore() throws Exception
+    {
+        StagedContent staged = store.stage(new ByteArrayInputStream(bytes("body")));
+
+        assertThat(staged.getSize(), is(4L));
+        store.put("key", "image/png", staged, 1);
+
+        assertThat(staged.getFile().exists(), is(false));
+        assertThat(directory.listFiles(CONTENT_FILES).length, is(1));
+        assertThat(IOUtils.toString(store.get("key").toUpload(new GetResourceCommand("1", "uri")).getInputStream()), is("body"));
+    }
+
+    @Test
+    public void discardsStagedCopyOfStoredContent() throws Exception
+    {
+        store.put("first", "image/png", bytes("body"), 1);
+        StagedContent staged = store.stage(new ByteArrayInputStream(bytes("body")));
+
+        store.put("second", "image/png", staged, 1);
+
+        assertThat(staged.getFile().exists(), is(false));
+        assertThat(store.getSize(), is(4L));
+        assertThat(directory.listFiles(CONTENT_FILES).length, is(1));
+    }
+
+    @Test
+    public void deletesLeftoverStagedFilesOnRestart() throws Exception
+    {
+        StagedContent staged = store.stage(new ByteArrayInputStream(bytes("body")));
+
+        new DiskContentStore(directory, 10);
+
+        assertThat(staged.getFile().exists(), is(false));
+    }
+
+    @Test
+    public void contentCacheKeepsLargeFileUploadsOnDisk() throws Exception
+    {
+        ContentCache cache = new ContentCache(100, 60000, store, 4);
+        GetResourceCommand request = new GetResourceCommand("1", "uri");
+
+        cache.put(request, new FileUpload(request), bytes("body"));
+
+        assertThat(cache.getStats().getEntryCount(), is(0));
+        assertThat(cache.getStats().getDiskEntryCount(), is(1));
+        assertThat(cache.get(new GetResourceCommand("2", "uri")).toUpload(request).getHttpEntity(), instanceOf(ByteBufferEntity.class));
+    }
+
+    @Test
+    public void contentCacheKeepsHtmlUploadsInHeap() throws Exception
+    {
+        ContentCache cache = new ContentCache(100, 60000, store, 4);
+        GetHtmlCommand request = new GetHtmlCommand("1", "uri");
+
+        cache.put(request, new HtmlUpload(request), bytes("body"));
+
+        assertThat(cache.getStats().getEntryCount(), is(1));
+        assertThat(cache.getStats().getDiskEntryCount(), is(0));
+    }
+
+    private static byte[] bytes(String value) throws Exception
+    {
+        return value.getBytes("UTF-8");
+    }
+}
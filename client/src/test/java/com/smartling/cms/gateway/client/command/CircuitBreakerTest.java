@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest
+{
+    private CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+
+    @Test
+    public void staysClosedBelowFailureThreshold()
+    {
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.nextAttempt(), is(0L));
+    }
+
+    @Test
+    public void opensOnFailureThreshold()
+    {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void probesOpenCircuitAfterOpenTime()
+    {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        long wait = circuitBreaker.nextAttempt();
+
+        assertTrue(wait > 59000 && wait <= 60000);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    public void reopensOnFailedProbe()
+    {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.nextAttempt();
+
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void closesOnSuccessfulProbe()
+    {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.nextAttempt();
+
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+}
@@ -53,6 +53,7 @@ public class ErrorResponseTest
         assertEquals(request.getId(), obj.get("rid").getAsString());
         assertEquals(request.getUri(), obj.get("uri").getAsString());
         assertNull(obj.get("httpCode"));
+        assertNull(obj.get("retryAfter"));
         assertNull(obj.get("messages"));
     }
 
@@ -65,6 +66,15 @@ public class ErrorResponseTest
         assertEquals(404, obj.get("httpCode").getAsInt());
     }
 
+    @Test
+    public void testConvertResponseToJsonWithRetryAfter() throws Exception
+    {
+        response.setRetryAfter(30);
+        String value = response.toJSONString();
+        JsonObject obj = jsonParser.parse(value).getAsJsonObject();
+        assertEquals(30, obj.get("retryAfter").getAsInt());
+    }
+
     @Test
     public void testConvertResponseToJsonWithMessages() throws Exception
     {
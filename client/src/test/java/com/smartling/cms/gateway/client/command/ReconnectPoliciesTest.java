@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReconnectPoliciesTest
+{
+    @Test
+    public void doublingKeepsLegacyDelays()
+    {
+        ReconnectPolicy policy = ReconnectPolicies.doubling();
+
+        assertThat(policy.getDelay(1, 0), is(1000L));
+        assertThat(policy.getDelay(2, 1000), is(3000L));
+        assertThat(policy.getDelay(3, 3000), is(7000L));
+    }
+
+    @Test
+    public void fixedReturnsSameDelay()
+    {
+        ReconnectPolicy policy = ReconnectPolicies.fixed(500);
+
+        assertThat(policy.getDelay(1, 0), is(500L));
+        assertThat(policy.getDelay(10, 500), is(500L));
+    }
+
+    @Test
+    public void cappedDoublesUpToMaxDelay()
+    {
+        ReconnectPolicy policy = ReconnectPolicies.capped(1000, 5000);
+
+        assertThat(policy.getDelay(1, 0), is(1000L));
+        assertThat(policy.getDelay(2, 1000), is(2000L));
+        assertThat(policy.getDelay(3, 2000), is(4000L));
+        assertThat(policy.getDelay(4, 4000), is(5000L));
+        assertThat(policy.getDelay(100, 5000), is(5000L));
+    }
+
+    @Test
+    public void decorrelatedJitterStaysBetweenBaseAndMaxDelay()
+    {
+        ReconnectPolicy policy = ReconnectPolicies.decorrelatedJitter(1000, 10000);
+
+        long delay = 0;
+        for (int attempt = 1; attempt <= 100; attempt++)
+        {
+            long next = policy.getDelay(attempt, delay);
+            assertTrue(next >= 1000);
+            assertTrue(next <= Math.min(Math.max(delay, 1000) * 3, 10000));
+            delay = next;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBaseDelayOverMaxDelay()
+    {
+        ReconnectPolicies.capped(2000, 1000);
+    }
+}
@@ -37,6 +37,68 @@ public class ReconnectStrategyTest
         assertThat(strategy.getDelayInterval(), is(3000L));
     }
 
+    @Test
+    public void growsNextDelayWithoutWaiting() throws Exception
+    {
+        assertThat(strategy.nextDelay(), is(0L));
+        assertThat(strategy.nextDelay(), is(1000L));
+        assertThat(strategy.nextDelay(), is(3000L));
+    }
+
+    @Test
+    public void countsAttemptsUntilSuccess() throws Exception
+    {
+        strategy.nextDelay();
+        strategy.nextDelay();
+        assertThat(strategy.getAttemptCount(), is(2));
+
+        strategy.observeSuccess();
+        assertThat(strategy.getAttemptCount(), is(0));
+        assertThat(strategy.getNextAttemptTime(), is(0L));
+    }
+
+    @Test
+    public void schedulesNextAttemptTime() throws Exception
+    {
+        strategy.nextDelay();
+        long delay = strategy.nextDelay();
+
+        assertTrue(strategy.getNextAttemptTime() >= System.currentTimeMillis() + delay - 100);
+    }
+
+    @Test
+    public void waitsForOpenCircuitBeforeProbe() throws Exception
+    {
+        strategy = new ReconnectStrategy(ReconnectPolicies.fixed(10), new CircuitBreaker(1, 60000));
+
+        strategy.observeError(mock(IOException.class));
+        assertThat(strategy.getCircuitState(), is(CircuitBreaker.State.OPEN));
+
+        assertTrue(strategy.nextDelay() > 59000);
+        assertThat(strategy.getCircuitState(), is(CircuitBreaker.State.HALF_OPEN));
+
+        strategy.observeSuccess();
+        assertThat(strategy.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(strategy.nextDelay(), is(0L));
+    }
+
+    @Test
+    public void copiesSettingsWithoutState() throws Exception
+    {
+        strategy = new ReconnectStrategy(ReconnectPolicies.fixed(10), new CircuitBreaker(1, 60000));
+        strategy.nextDelay();
+        strategy.observeError(mock(IOException.class));
+
+        ReconnectStrategy copy = strategy.copy();
+
+        assertThat(copy.getAttemptCount(), is(0));
+        assertThat(copy.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+        copy.nextDelay();
+        assertThat(copy.nextDelay(), is(10L));
+        copy.observeError(mock(IOException.class));
+        assertThat(copy.getCircuitState(), is(CircuitBreaker.State.OPEN));
+    }
+
     @Test
     public void keepsRetryWhileErrorsAreIOException()
     {
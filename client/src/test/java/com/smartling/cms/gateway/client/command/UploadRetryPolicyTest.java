@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.command;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+public class UploadRetryPolicyTest
+{
+    private final UploadRetryPolicy policy = new UploadRetryPolicy(3, 100, 1000);
+
+    @Test
+    public void retriesGeneralAndMaintenanceErrors()
+    {
+        assertTrue(policy.isRetryable(new ResponseStatus<Void>(Status.GENERAL_ERROR)));
+        assertTrue(policy.isRetryable(new ResponseStatus<Void>(Status.MAINTENANCE_MODE_ERROR)));
+        assertFalse(policy.isRetryable(new ResponseStatus<Void>(Status.VALIDATION_ERROR)));
+        assertFalse(policy.isRetryable(new ResponseStatus<Void>(Status.SUCCESS)));
+    }
+
+    @Test
+    public void retriesIoAndServerErrors()
+    {
+        assertTrue(policy.isRetryable(new IOException()));
+        assertTrue(policy.isRetryable(new UploadFailedException("ignored", 502, null)));
+        assertTrue(policy.isRetryable(new UploadFailedException("ignored", 400, new ResponseStatus<Void>(Status.MAINTENANCE_MODE_ERROR))));
+        assertFalse(policy.isRetryable(new UploadFailedException("ignored", 400, new ResponseStatus<Void>(Status.VALIDATION_ERROR))));
+        assertFalse(policy.isRetryable(new CmsGatewayClientException("ignored")));
+    }
+
+    @Test
+    public void keepsBackoffWithinExponentialBound()
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            assertTrue(policy.getBackoff(1) <= 100);
+            assertTrue(policy.getBackoff(3) <= 400);
+            assertTrue(policy.getBackoff(10) <= 1000);
+            assertTrue(policy.getBackoff(100) >= 0);
+        }
+    }
+}
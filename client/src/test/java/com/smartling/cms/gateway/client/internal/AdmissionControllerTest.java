@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest
+{
+    @Test
+    public void admitsUpToMaxInFlight()
+    {
+        AdmissionController controller = new AdmissionController(2, 0);
+
+        assertTrue(controller.tryAdmit());
+        assertTrue(controller.tryAdmit());
+        assertFalse(controller.tryAdmit());
+
+        assertThat(controller.getInFlightCount(), is(2));
+        assertThat(controller.getAdmittedCount(), is(2L));
+        assertThat(controller.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void admitsAgainAfterRelease()
+    {
+        AdmissionController controller = new AdmissionController(1, 0);
+        controller.tryAdmit();
+
+        controller.release();
+
+        assertTrue(controller.tryAdmit());
+    }
+
+    @Test
+    public void neverRejectsWhenUnlimited()
+    {
+        AdmissionController controller = AdmissionController.unlimited();
+
+        for (int i = 0; i < 1000; i++)
+            assertTrue(controller.tryAdmit());
+
+        assertThat(controller.getRejectedCount(), is(0L));
+    }
+
+    @Test
+    public void countsLateRejectionAsRejected()
+    {
+        AdmissionController controller = new AdmissionController(1, 0);
+        controller.tryAdmit();
+
+        controller.reject();
+
+        assertThat(controller.getInFlightCount(), is(0));
+        assertThat(controller.getAdmittedCount(), is(0L));
+        assertThat(controller.getRejectedCount(), is(1L));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+
+public class AimdLimitTest
+{
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final ResponseStatus<Void> SUCCESS = new ResponseStatus<Void>(Status.SUCCESS);
+
+    @Test
+    public void growsByAboutOneAfterLimitSuccessesWhileSaturated()
+    {
+        AimdLimit limit = new AimdLimit(1, 10);
+
+        limit.onSample(RTT, true, SUCCESS, null);
+        assertThat(limit.getLimit(), is(2));
+
+        limit.onSample(RTT, true, SUCCESS, null);
+        limit.onSample(RTT, true, SUCCESS, null);
+        assertThat(limit.getLimit(), is(2));
+        limit.onSample(RTT, true, SUCCESS, null);
+        assertThat(limit.getLimit(), is(3));
+    }
+
+    @Test
+    public void doesNotGrowWhileNotSaturated()
+    {
+        AimdLimit limit = new AimdLimit(1, 10);
+
+        for (int i = 0; i < 10; i++)
+            limit.onSample(RTT, false, SUCCESS, null);
+
+        assertThat(limit.getLimit(), is(1));
+    }
+
+    @Test
+    public void doesNotGrowOverMaximum()
+    {
+        AimdLimit limit = new AimdLimit(1, 3);
+
+        for (int i = 0; i < 100; i++)
+            limit.onSample(RTT, true, SUCCESS, null);
+
+        assertThat(limit.getLimit(), is(3));
+    }
+
+    @Test
+    public void cutsLimitOnOverloadErrors()
+    {
+        AimdLimit limit = grownLimit();
+
+        limit.onSample(RTT, true, null, new UploadFailedException("overloaded", 503, null));
+        assertThat(limit.getLimit(), is(8));
+
+        limit = grownLimit();
+        limit.onSample(RTT, true, null, new IOException("connection reset"));
+        assertThat(limit.getLimit(), is(8));
+
+        limit = grownLimit();
+        limit.onSample(RTT, true, new ResponseStatus<Void>(Status.MAINTENANCE_MODE_ERROR), null);
+        assertThat(limit.getLimit(), is(8));
+    }
+
+    @Test
+    public void keepsLimitOnClientErrors()
+    {
+        AimdLimit limit = grownLimit();
+
+        limit.onSample(RTT, false, null, new UploadFailedException("invalid", 400, null));
+        limit.onSample(RTT, false, new ResponseStatus<Void>(Status.VALIDATION_ERROR), null);
+
+        assertThat(limit.getLimit(), is(16));
+    }
+
+    @Test
+    public void cutsLimitOncePerRoundTrip()
+    {
+        AimdLimit limit = grownLimit();
+
+        long rtt = TimeUnit.SECONDS.toNanos(10);
+        limit.onSample(rtt, true, null, new IOException("connection reset"));
+        limit.onSample(rtt, true, null, new IOException("connection reset"));
+
+        assertThat(limit.getLimit(), is(8));
+    }
+
+    @Test
+    public void cutsLimitWhenRoundTripTimeGrows()
+    {
+        AimdLimit limit = grownLimit();
+
+        limit.onSample(RTT * 10, true, SUCCESS, null);
+
+        assertTrue(limit.getLimit() < 16);
+    }
+
+    @Test
+    public void fixedLimitDoesNotChange()
+    {
+        AimdLimit limit = AimdLimit.fixed(4);
+
+        limit.onSample(RTT, true, SUCCESS, null);
+        limit.onSample(RTT, true, null, new IOException("connection reset"));
+
+        assertThat(limit.getLimit(), is(4));
+    }
+
+    private static AimdLimit grownLimit()
+    {
+        AimdLimit limit = new AimdLimit(1, 16, 0.5, AimdLimit.DEFAULT_RTT_TOLERANCE);
+        while (limit.getLimit() < 16)
+            limit.onSample(RTT, true, SUCCESS, null);
+        return limit;
+    }
+}
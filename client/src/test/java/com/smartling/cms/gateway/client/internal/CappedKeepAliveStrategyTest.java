@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+public class CappedKeepAliveStrategyTest
+{
+    private final CappedKeepAliveStrategy strategy = new CappedKeepAliveStrategy(60000);
+
+    @Test
+    public void usesServerKeepAliveBelowMaximum()
+    {
+        assertThat(strategy.getKeepAliveDuration(responseWithKeepAlive("timeout=5"), new BasicHttpContext()), is(5000L));
+    }
+
+    @Test
+    public void capsServerKeepAliveAtMaximum()
+    {
+        assertThat(strategy.getKeepAliveDuration(responseWithKeepAlive("timeout=300"), new BasicHttpContext()), is(60000L));
+    }
+
+    @Test
+    public void usesMaximumWhenServerDoesNotSay()
+    {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+
+        assertThat(strategy.getKeepAliveDuration(response, new BasicHttpContext()), is(60000L));
+    }
+
+    private static HttpResponse responseWithKeepAlive(String value)
+    {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Keep-Alive", value);
+        return response;
+    }
+}
@@ -15,34 +15,41 @@
  */
 package com.smartling.cms.gateway.client.internal;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
-import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 import java.net.URI;
-import java.util.Timer;
-import java.util.TimerTask;
-
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.CloseReason;
+import javax.websocket.MessageHandler;
+import javax.websocket.PongMessage;
 import javax.websocket.RemoteEndpoint;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(CommandChannelWebsocketTransport.class)
 public class CommandChannelWebsocketTransportTest
 {
     private static final long STUB_HEARTBEAT = 3;
@@ -57,7 +64,10 @@ public class CommandChannelWebsocketTransportTest
     private RemoteEndpoint.Async remote;
 
     @Mock
-    private Timer pingTimer;
+    private ScheduledExecutorService heartbeatScheduler;
+
+    @Mock
+    private ScheduledFuture<Object> ping;
 
     private CommandChannelWebsocketTransport transport;
 
@@ -66,63 +76,163 @@ public class CommandChannelWebsocketTransportTest
     {
         MockitoAnnotations.initMocks(this);
 
-        whenNew(Timer.class).withNoArguments().thenReturn(pingTimer);
-
-
+        when(heartbeatScheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return ping;
+            }
+        });
         when(container.connectToServer(anyObject(), any(URI.class))).thenReturn(session);
         when(session.getAsyncRemote()).thenReturn(remote);
         when(session.isOpen()).thenReturn(true);
 
-        transport = new CommandChannelWebsocketTransport(container);
+        transport = new CommandChannelWebsocketTransport(container, heartbeatScheduler);
         transport.setHeartbeatInterval(STUB_HEARTBEAT);
     }
 
     @Test
-    public void startsPingTimerOnConnect() throws Exception
+    public void schedulesPingsOnConnect() throws Exception
     {
         transport.connectToServer(null, null);
 
-        verify(pingTimer).schedule(any(TimerTask.class), eq(STUB_HEARTBEAT), eq(STUB_HEARTBEAT));
+        verify(heartbeatScheduler).schedule(any(Runnable.class), eq(STUB_HEARTBEAT), eq(TimeUnit.MILLISECONDS));
     }
 
     @Test
-    public void doesNotScheduleTimerForZeroHeartbeatInterval() throws Exception
+    public void doesNotSchedulePingsForZeroHeartbeatInterval() throws Exception
     {
         transport.setHeartbeatInterval(0);
 
         transport.connectToServer(null, null);
 
-        verifyZeroInteractions(pingTimer);
+        verifyZeroInteractions(heartbeatScheduler);
     }
 
     @Test
-    public void pingsServerOnTimerTick() throws Exception
+    public void pingsIdleServerOnSchedulerTick() throws Exception
     {
-        TimerTask timerTask = getPingTimerTask();
+        Runnable pingTask = getPingTask();
+        Thread.sleep(STUB_HEARTBEAT + 1);
 
-        timerTask.run();
+        pingTask.run();
 
-        verify(remote).sendPong(null);
+        verify(remote).sendPing(any(ByteBuffer.class));
+        verify(heartbeatScheduler, times(2)).schedule(any(Runnable.class), eq(STUB_HEARTBEAT), eq(TimeUnit.MILLISECONDS));
     }
 
-    private TimerTask getPingTimerTask() throws Exception
+    @Test
+    public void defersPingWhileSessionSends() throws Exception
     {
-        transport.connectToServer(null, null);
+        transport.setHeartbeatInterval(200);
+        CommandChannelSession commandChannelSession = transport.connectToServer(null, null);
+        Runnable pingTask = getScheduledPingTask();
+        Thread.sleep(100);
+
+        commandChannelSession.send("response");
+        pingTask.run();
+
+        verify(remote, never()).sendPing(any(ByteBuffer.class));
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(heartbeatScheduler, times(2)).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(delay.getValue() > 100);
+    }
 
-        ArgumentCaptor<TimerTask> captor = ArgumentCaptor.forClass(TimerTask.class);
-        verify(pingTimer).schedule(captor.capture(), anyLong(), anyLong());
+    @Test
+    public void measuresRoundTripTimeFromPong() throws Exception
+    {
+        CommandChannelSession commandChannelSession = transport.connectToServer(null, null);
+        Runnable pingTask = getScheduledPingTask();
+        Thread.sleep(STUB_HEARTBEAT + 1);
+        pingTask.run();
+        ArgumentCaptor<ByteBuffer> applicationData = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(remote).sendPing(applicationData.capture());
+        assertThat(commandChannelSession.getRoundTripTime(), is(0L));
+
+        Thread.sleep(20);
+        pong(applicationData.getValue());
+
+        assertTrue(commandChannelSession.getRoundTripTime() >= 20);
+    }
 
-        return captor.getValue();
+    @Test
+    public void closesSessionWhenServerMissesPongs() throws Exception
+    {
+        transport.setHeartbeatMissLimit(2);
+        Runnable pingTask = getPingTask();
+        Thread.sleep(STUB_HEARTBEAT + 1);
+
+        pingTask.run();
+        pingTask.run();
+        verify(session, never()).close(any(CloseReason.class));
+
+        pingTask.run();
+        verify(session).close(any(CloseReason.class));
+        verify(heartbeatScheduler, times(3)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void keepsSessionWhileServerPongs() throws Exception
+    {
+        transport.setHeartbeatMissLimit(2);
+        Runnable pingTask = getPingTask();
+
+        for (int i = 0; i < 3; i++)
+        {
+            Thread.sleep(STUB_HEARTBEAT + 1);
+            pingTask.run();
+            pong(null);
+        }
+
+        verify(session, never()).close(any(CloseReason.class));
+    }
+
+    @Test
+    public void cancelsPingsOnClose() throws Exception
+    {
+        CommandChannelSession commandChannelSession = transport.connectToServer(null, null);
+
+        commandChannelSession.close();
+
+        verify(session).close();
+        verify(ping).cancel(false);
     }
 
     @Test
     public void doesNotPingWhenSessionIsClosed() throws Exception
     {
         when(session.isOpen()).thenReturn(false);
-        TimerTask timerTask = getPingTimerTask();
+        Runnable pingTask = getPingTask();
 
-        timerTask.run();
+        pingTask.run();
 
         verifyZeroInteractions(remote);
+        verify(heartbeatScheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    private Runnable getPingTask() throws Exception
+    {
+        transport.connectToServer(null, null);
+
+        return getScheduledPingTask();
+    }
+
+    private Runnable getScheduledPingTask()
+    {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(heartbeatScheduler).schedule(captor.capture(), anyLong(), any(TimeUnit.class));
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pong(ByteBuffer applicationData)
+    {
+        ArgumentCaptor<MessageHandler> captor = ArgumentCaptor.forClass(MessageHandler.class);
+        verify(session).addMessageHandler(captor.capture());
+        PongMessage message = mock(PongMessage.class);
+        when(message.getApplicationData()).thenReturn(applicationData);
+
+        ((MessageHandler.Whole<PongMessage>)captor.getValue()).onMessage(message);
     }
-}
\ No newline at end of file
+}
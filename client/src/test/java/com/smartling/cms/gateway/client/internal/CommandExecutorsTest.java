@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.command.CommandOverflowPolicy;
+
+public class CommandExecutorsTest
+{
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() throws Exception
+    {
+        release.countDown();
+        if (executor != null)
+        {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void directExecutorRunsOnCallingThread() throws Exception
+    {
+        final Thread[] thread = new Thread[1];
+
+        CommandExecutors.directExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                thread[0] = Thread.currentThread();
+            }
+        });
+
+        assertThat(thread[0], sameInstance(Thread.currentThread()));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsWhenQueueIsFullWithRejectPolicy() throws Exception
+    {
+        executor = CommandExecutors.newBoundedExecutor(1, 1, CommandOverflowPolicy.REJECT);
+
+        executor.execute(blockingTask());
+        executor.execute(blockingTask());
+        executor.execute(blockingTask());
+    }
+
+    @Test
+    public void runsOnCallingThreadWhenQueueIsFullWithCallerRunsPolicy() throws Exception
+    {
+        executor = CommandExecutors.newBoundedExecutor(1, 1, CommandOverflowPolicy.CALLER_RUNS);
+        executor.execute(blockingTask());
+        executor.execute(blockingTask());
+
+        final Thread[] thread = new Thread[1];
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                thread[0] = Thread.currentThread();
+            }
+        });
+
+        assertThat(thread[0], sameInstance(Thread.currentThread()));
+    }
+
+    @Test
+    public void usesDaemonWorkerThreads() throws Exception
+    {
+        executor = CommandExecutors.newBoundedExecutor(1, 1, CommandOverflowPolicy.REJECT);
+        final boolean[] daemon = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                daemon[0] = Thread.currentThread().isDaemon();
+                done.countDown();
+            }
+        });
+
+        done.await(1, TimeUnit.SECONDS);
+        assertThat(daemon[0], is(true));
+    }
+
+    private Runnable blockingTask()
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+/**
+ * Compares tree based {@link CommandParser} with {@link StreamingCommandParser}.
+ */
+public class CommandParserBenchmark
+{
+    private static final int OPERATIONS = 200000;
+
+    private static final String[] MESSAGES = {
+        "{\"cmd\":\"getHtml\", \"rid\":\"6a0c1d9e-3f4b-4a8e-9a51-2b7d1c0e5f11\", \"uri\":\"/content/site/en/products/index.html\"}",
+        "{\"cmd\":\"getResource\", \"rid\":\"0f3e2d1c-4b5a-6978-8a9b-0c1d2e3f4a5b\", \"uri\":\"/etc/designs/site/clientlibs/main.css\"}",
+        "{\"cmd\":\"getResource\", \"rid\":\"9e8d7c6b-5a49-3827-1605-f4e3d2c1b0a9\", \"uri\":\"/content/dam/site/logo.png\"}",
+        "{\"cmd\":\"authenticationSuccess\"}"
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        parserBenchmark("CommandParser", new CommandParser()).run();
+        parserBenchmark("StreamingCommandParser", new StreamingCommandParser()).run();
+    }
+
+    private static MicroBenchmark parserBenchmark(String name, final CommandParser parser)
+    {
+        return new MicroBenchmark(name, OPERATIONS)
+        {
+            @Override
+            protected int operation(int i) throws Exception
+            {
+                return parser.parse(MESSAGES[i & 3]).getType().ordinal();
+            }
+        };
+    }
+}
@@ -35,7 +35,12 @@ public class CommandParserTest
     @Before
     public void setup()
     {
-        commandParser = new CommandParser();
+        commandParser = createCommandParser();
+    }
+
+    protected CommandParser createCommandParser()
+    {
+        return new CommandParser();
     }
 
     @Test
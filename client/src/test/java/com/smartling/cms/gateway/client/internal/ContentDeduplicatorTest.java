@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.StubUploadGateway;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+public class ContentDeduplicatorTest
+{
+    private final ContentDeduplicator deduplicator = new ContentDeduplicator(10, 1024);
+    private final AtomicInteger bodyUploads = new AtomicInteger();
+    private StubUploadGateway gateway;
+    private CloseableHttpAsyncClient uploadChannel;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        gateway = new StubUploadGateway();
+        uploadChannel = HttpAsyncClients.createDefault();
+        uploadChannel.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        uploadChannel.close();
+        gateway.stop();
+    }
+
+    @Test
+    public void uploadsContentSeenFirstTime() throws Exception
+    {
+        assertThat(upload("first", "some.css", "some content").get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+
+        assertThat(bodyUploads.get(), is(1));
+        assertThat(gateway.getUploads().get("first"), is("some content"));
+    }
+
+    @Test
+    public void skipsUploadOfUnchangedContent() throws Exception
+    {
+        upload("first", "some.css", "some content").get(5, TimeUnit.SECONDS);
+
+        assertThat(upload("second", "some.css", "some content").get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+
+        assertThat(bodyUploads.get(), is(1));
+        assertThat(gateway.getUploads().containsKey("second"), is(true));
+        assertThat(deduplicator.getSkippedCount(), is(1L));
+    }
+
+    @Test
+    public void uploadsChangedContentWithoutProbe() throws Exception
+    {
+        upload("first", "some.css", "some content").get(5, TimeUnit.SECONDS);
+
+        upload("second", "some.css", "changed content").get(5, TimeUnit.SECONDS);
+
+        assertThat(bodyUploads.get(), is(2));
+        assertThat(gateway.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void uploadsContentGatewayDoesNotHold() throws Exception
+    {
+        upload("first", "some.css", "some content").get(5, TimeUnit.SECONDS);
+        gateway.forgetContent();
+
+        upload("second", "some.css", "some content").get(5, TimeUnit.SECONDS);
+
+        assertThat(bodyUploads.get(), is(2));
+        assertThat(gateway.getUploads().get("second"), is("some content"));
+        assertThat(deduplicator.getSkippedCount(), is(0L));
+    }
+
+    @Test
+    public void uploadsContentOverMaxDigestSizeWithoutProbe() throws Exception
+    {
+        ContentDeduplicator deduplicator = new ContentDeduplicator(10, 1024, 8);
+        upload(deduplicator, "first", "some.css", "some content").get(5, TimeUnit.SECONDS);
+
+        upload(deduplicator, "second", "some.css", "some content").get(5, TimeUnit.SECONDS);
+
+        assertThat(bodyUploads.get(), is(2));
+        assertThat(gateway.getRequestCount(), is(2));
+        assertThat(gateway.getUploads().get("second"), is("some content"));
+    }
+
+    @Test
+    public void computesSha256OfContent() throws Exception
+    {
+        assertThat(ContentDeduplicator.digest(new StringEntity("abc")), is("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"));
+    }
+
+    private Future<ResponseStatus<Void>> upload(String requestId, String resourceUri, String content) throws Exception
+    {
+        return upload(deduplicator, requestId, resourceUri, content);
+    }
+
+    private Future<ResponseStatus<Void>> upload(ContentDeduplicator deduplicator, String requestId, String resourceUri, String content)
+            throws Exception
+    {
+        HttpEntity entity = new InputStreamEntity(IOUtils.toInputStream(content), -1);
+        URI probeUri = URI.create(gateway.getUploadUri() + "/digest?rid=" + requestId);
+        final URI uploadUri = URI.create(gateway.getUploadUri() + "?rid=" + requestId);
+
+        return deduplicator.execute(uploadChannel, probeUri, resourceUri, deduplicator.prepare(entity), new ContentDeduplicator.BodyUpload()
+        {
+            @Override
+            public Future<ResponseStatus<Void>> send(HttpEntity entity, FutureCallback<ResponseStatus<Void>> callback)
+                    throws IOException, CmsGatewayClientException
+            {
+                bodyUploads.incrementAndGet();
+                return UploadRetrier.disabled().execute(uploadChannel, uploadUri, entity, callback);
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+/**
+ * Minimal warm-up/measure loop for the benchmarks run by the 'benchmark' gradle task.
+ */
+public abstract class MicroBenchmark
+{
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    private final String name;
+    private final int operationsPerRound;
+    private long blackhole;
+
+    protected MicroBenchmark(String name, int operationsPerRound)
+    {
+        this.name = name;
+        this.operationsPerRound = operationsPerRound;
+    }
+
+    /**
+     * Runs one operation, returns any value derived from its result so the JIT cannot drop it.
+     */
+    protected abstract int operation(int i) throws Exception;
+
+    public void run() throws Exception
+    {
+        for (int round = 0; round < WARMUP_ROUNDS; round++)
+            round();
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int round = 0; round < MEASURE_ROUNDS; round++)
+        {
+            long elapsed = round();
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        System.out.println(String.format("%-40s %10.1f ns/op (best %.1f ns/op)",
+                name,
+                (double)total / MEASURE_ROUNDS / operationsPerRound,
+                (double)best / operationsPerRound));
+        if (blackhole == 42)
+            System.out.println();
+    }
+
+    private long round() throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < operationsPerRound; i++)
+            blackhole += operation(i);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class OutageQueueTest
+{
+    private final CommandChannelSession session = mock(CommandChannelSession.class);
+
+    @Test
+    public void sendsQueuedMessagesInOrderOnFlush() throws Exception
+    {
+        OutageQueue queue = new OutageQueue(2);
+        Future<Void> first = queue.add("first");
+        Future<Void> second = queue.add("second");
+
+        queue.flush(session);
+
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).send("first");
+        inOrder.verify(session).send("second");
+        assertThat(first.isDone() && second.isDone(), is(true));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void failsMessagesOverCapacity() throws Exception
+    {
+        OutageQueue queue = new OutageQueue(1);
+        queue.add("first");
+
+        Future<Void> second = queue.add("second");
+
+        assertThat(second.isDone(), is(true));
+        assertThat(queue.size(), is(1));
+    }
+
+    @Test
+    public void failsEveryMessageWhenFailingFast() throws Exception
+    {
+        Future<Void> sent = OutageQueue.failFast().add("message");
+
+        assertThat(sent.isDone(), is(true));
+    }
+
+    @Test
+    public void failsQueuedMessages() throws Exception
+    {
+        OutageQueue queue = new OutageQueue(1);
+        Future<Void> sent = queue.add("message");
+
+        queue.fail(new Exception("closed"));
+
+        assertThat(sent.isDone(), is(true));
+        assertThat(queue.size(), is(0));
+    }
+}
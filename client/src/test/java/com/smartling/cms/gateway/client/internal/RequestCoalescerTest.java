@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.command.GetHtmlCommand;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+
+public class RequestCoalescerTest
+{
+    private final RequestCoalescer coalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_TIMEOUT);
+
+    @Test
+    public void firstCommandForUriIsLeader()
+    {
+        assertTrue(coalescer.join(new GetResourceCommand("1", "uri")));
+        assertFalse(coalescer.join(new GetResourceCommand("2", "uri")));
+    }
+
+    @Test
+    public void keepsCommandTypesApart()
+    {
+        assertTrue(coalescer.join(new GetResourceCommand("1", "uri")));
+        assertTrue(coalescer.join(new GetHtmlCommand("2", "uri")));
+    }
+
+    @Test
+    public void returnsFollowersWhenLeaderCompletes()
+    {
+        GetResourceCommand leader = new GetResourceCommand("1", "uri");
+        GetResourceCommand follower = new GetResourceCommand("2", "uri");
+        coalescer.join(leader);
+        coalescer.join(follower);
+
+        List<BaseCommand> followers = coalescer.complete(leader);
+
+        assertThat(followers.size(), is(1));
+        assertThat(followers.get(0), is((BaseCommand)follower));
+        assertTrue(coalescer.join(new GetResourceCommand("3", "uri")));
+    }
+
+    @Test
+    public void ignoresCompletionOfCommandWhichIsNotLeader()
+    {
+        GetResourceCommand leader = new GetResourceCommand("1", "uri");
+        coalescer.join(leader);
+        coalescer.join(new GetResourceCommand("2", "uri"));
+
+        assertTrue(coalescer.complete(new GetResourceCommand("2", "uri")).isEmpty());
+        assertThat(coalescer.complete(leader).size(), is(1));
+    }
+
+    @Test
+    public void replacesLeaderAfterTimeout() throws Exception
+    {
+        RequestCoalescer shortCoalescer = new RequestCoalescer(1);
+        shortCoalescer.join(new GetResourceCommand("1", "uri"));
+        shortCoalescer.join(new GetResourceCommand("2", "uri"));
+        Thread.sleep(5);
+
+        GetResourceCommand newLeader = new GetResourceCommand("3", "uri");
+        assertTrue(shortCoalescer.join(newLeader));
+        assertThat(shortCoalescer.complete(newLeader).size(), is(1));
+    }
+
+    @Test
+    public void expiresLeadersInFlightLongerThanTimeout() throws Exception
+    {
+        RequestCoalescer shortCoalescer = new RequestCoalescer(1);
+        shortCoalescer.join(new GetResourceCommand("1", "uri"));
+        GetResourceCommand follower = new GetResourceCommand("2", "uri");
+        shortCoalescer.join(follower);
+        Thread.sleep(5);
+
+        List<BaseCommand> stranded = shortCoalescer.expire();
+
+        assertThat(stranded.size(), is(1));
+        assertThat(stranded.get(0), is((BaseCommand)follower));
+        assertTrue(shortCoalescer.expire().isEmpty());
+        assertTrue(shortCoalescer.join(new GetResourceCommand("3", "uri")));
+    }
+
+    @Test
+    public void keepsLeadersWithinTimeoutOnExpiry()
+    {
+        coalescer.join(new GetResourceCommand("1", "uri"));
+        coalescer.join(new GetResourceCommand("2", "uri"));
+
+        assertTrue(coalescer.expire().isEmpty());
+        assertFalse(coalescer.join(new GetResourceCommand("3", "uri")));
+    }
+
+    @Test
+    public void passesEverythingWhenDisabled()
+    {
+        RequestCoalescer disabled = RequestCoalescer.disabled();
+
+        assertTrue(disabled.join(new GetResourceCommand("1", "uri")));
+        assertTrue(disabled.join(new GetResourceCommand("2", "uri")));
+        assertTrue(disabled.complete(new GetResourceCommand("1", "uri")).isEmpty());
+    }
+}
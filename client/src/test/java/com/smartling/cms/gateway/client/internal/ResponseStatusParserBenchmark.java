@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import java.io.InputStreamReader;
+
+import org.apache.commons.io.Charsets;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.google.gson.Gson;
+import com.smartling.cms.gateway.client.api.model.ResponseWrapper;
+
+/**
+ * Compares reflective Gson parsing of upload response with {@link ResponseStatusParser}.
+ */
+public class ResponseStatusParserBenchmark
+{
+    private static final int OPERATIONS = 200000;
+
+    private static final byte[][] RESPONSES = {
+        "{\"response\":{\"code\":\"SUCCESS\",\"messages\":[]}}".getBytes(Charsets.UTF_8),
+        "{\"response\":{\"code\":\"SUCCESS\",\"messages\":[],\"data\":null}}".getBytes(Charsets.UTF_8),
+        "{\"response\":{\"code\":\"GENERAL_ERROR\",\"messages\":[\"Unexpected error while storing content\"]}}".getBytes(Charsets.UTF_8),
+        "{\"response\":{\"code\":\"MAINTENANCE_MODE_ERROR\",\"messages\":[\"Service is in maintenance mode\"]}}".getBytes(Charsets.UTF_8)
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        new MicroBenchmark("Gson", OPERATIONS)
+        {
+            @Override
+            protected int operation(int i) throws Exception
+            {
+                InputStreamReader reader = new InputStreamReader(response(i).getEntity().getContent(), Charsets.UTF_8);
+                return new Gson().fromJson(reader, ResponseWrapper.class).getResponse().getCode().length();
+            }
+        }.run();
+
+        new MicroBenchmark("ResponseStatusParser", OPERATIONS)
+        {
+            @Override
+            protected int operation(int i) throws Exception
+            {
+                return ResponseStatusParser.parse(response(i)).getCode().length();
+            }
+        }.run();
+    }
+
+    private static HttpResponse response(int i)
+    {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(RESPONSES[i & 3]));
+        return response;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.apache.commons.io.Charsets;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonWriter;
+import com.smartling.cms.gateway.client.CmsGatewayClientException;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+public class ResponseStatusParserTest
+{
+    private TrackingInputStream content;
+
+    @Test
+    public void parsesStatusCodeAndMessages() throws Exception
+    {
+        ResponseStatus<Void> status = ResponseStatusParser.parse(response(200,
+                "{\"response\":{\"code\":\"VALIDATION_ERROR\",\"messages\":[\"first\",\"second\"],\"data\":{\"x\":[1,2]}},\"extra\":true}"));
+
+        assertThat(status.getCode(), is("VALIDATION_ERROR"));
+        assertThat(status.getMessages(), is(Arrays.asList("first", "second")));
+        assertThat(status.getData(), nullValue());
+    }
+
+    @Test
+    public void parsesResumableUploadOffsetFromData() throws Exception
+    {
+        ResponseStatus<Long> status = UploadProgressParser.parse(response(200,
+                "{\"response\":{\"data\":{\"offset\":1024,\"x\":[1]},\"code\":\"SUCCESS\"}}"));
+
+        assertThat(status.getCode(), is("SUCCESS"));
+        assertThat(status.getData(), is(1024L));
+        assertTrue(content.closed);
+    }
+
+    @Test
+    public void reportsErrorStatusOfFailedResumableUpload() throws Exception
+    {
+        try
+        {
+            UploadProgressParser.parse(response(409, "{\"response\":{\"code\":\"VALIDATION_ERROR\",\"messages\":[\"bad offset\"],\"data\":{\"offset\":0}}}"));
+            fail();
+        }
+        catch (UploadFailedException e)
+        {
+            assertThat(e.getHttpStatusCode(), is(409));
+            assertThat(e.getMessage(), containsString("VALIDATION_ERROR bad offset"));
+        }
+    }
+
+    @Test
+    public void consumesEntityOfSuccessfulResponse() throws Exception
+    {
+        ResponseStatusParser.parse(response(200, "{\"response\":{\"code\":\"SUCCESS\"}}   "));
+
+        assertTrue(content.closed);
+    }
+
+    @Test
+    public void consumesEntityOfFailedResponse() throws Exception
+    {
+        try
+        {
+            ResponseStatusParser.parse(response(500, "{\"response\":{\"code\":\"GENERAL_ERROR\",\"messages\":[\"some error message\"]}}"));
+            fail();
+        }
+        catch (CmsGatewayClientException e)
+        {
+            assertThat(e.getMessage(), containsString("GENERAL_ERROR some error message"));
+        }
+
+        assertTrue(content.closed);
+    }
+
+    @Test
+    public void reportsHttpStatusWhenErrorBodyIsNotJson() throws Exception
+    {
+        try
+        {
+            ResponseStatusParser.parse(response(502, "<html>Bad gateway</html>"));
+            fail();
+        }
+        catch (CmsGatewayClientException e)
+        {
+            assertThat(e.getMessage(), is("Upload failed (502): Status 502"));
+        }
+
+        assertTrue(content.closed);
+    }
+
+    @Test(expected = CmsGatewayClientException.class)
+    public void failsWhenResponseHasNoStatus() throws Exception
+    {
+        ResponseStatusParser.parse(response(200, "{\"response\":null}"));
+    }
+
+    @Test
+    public void writesResponseEnvelope() throws Exception
+    {
+        StringWriter json = new StringWriter();
+
+        new ResponseStatusTypeAdapter().write(new JsonWriter(json), new ResponseStatus<Void>("SUCCESS", Arrays.asList("done")));
+
+        assertThat(json.toString(), is("{\"response\":{\"code\":\"SUCCESS\",\"messages\":[\"done\"]}}"));
+    }
+
+    private HttpResponse response(int statusCode, String body)
+    {
+        content = new TrackingInputStream(new ByteArrayInputStream(body.getBytes(Charsets.UTF_8)));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "Status " + statusCode);
+        response.setEntity(new InputStreamEntity(content));
+        return response;
+    }
+
+    private static class TrackingInputStream extends InputStream
+    {
+        private final InputStream in;
+        private boolean closed;
+
+        private TrackingInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return in.read();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            closed = true;
+            in.close();
+        }
+    }
+}
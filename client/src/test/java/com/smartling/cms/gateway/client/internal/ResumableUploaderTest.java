@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smartling.cms.gateway.client.StubUploadGateway;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+
+public class ResumableUploaderTest
+{
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private StubUploadGateway gateway;
+    private CloseableHttpAsyncClient uploadChannel;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        gateway = new StubUploadGateway();
+        uploadChannel = HttpAsyncClients.createDefault();
+        uploadChannel.start();
+        file = folder.newFile("video.mp4");
+        FileUtils.writeStringToFile(file, CONTENT);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        uploadChannel.close();
+        gateway.stop();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsFileInParts() throws Exception
+    {
+        ResumableUploader uploader = new ResumableUploader(0, 10, new UploadRetryPolicy(3, 1, 1), scheduler);
+
+        Future<ResponseStatus<Void>> future = execute(uploader);
+
+        assertThat(future.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(gateway.getUploads().get("some request id"), is(CONTENT));
+        assertThat(gateway.getRequestCount(), is(4));
+    }
+
+    @Test
+    public void resumesFromLastReceivedPartAfterError() throws Exception
+    {
+        ResumableUploader uploader = new ResumableUploader(0, 10, new UploadRetryPolicy(3, 1, 1), scheduler);
+        gateway.failNextParts(1);
+
+        Future<ResponseStatus<Void>> future = execute(uploader);
+
+        assertThat(future.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(gateway.getUploads().get("some request id"), is(CONTENT));
+        assertThat(gateway.getReceivedPartBytes(), is(CONTENT.length() + 10L));
+        assertThat(uploader.getResumeCount(), is(1L));
+    }
+
+    @Test
+    public void failsAfterConsecutiveErrors() throws Exception
+    {
+        ResumableUploader uploader = new ResumableUploader(0, 10, new UploadRetryPolicy(2, 1, 1), scheduler);
+        gateway.failNextParts(2);
+
+        Future<ResponseStatus<Void>> future = execute(uploader);
+
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(UploadFailedException.class));
+        }
+    }
+
+    @Test
+    public void resumesAfterPartIsNotAccepted() throws Exception
+    {
+        ResumableUploader uploader = new ResumableUploader(0, 10, new UploadRetryPolicy(3, 1, 1), scheduler);
+        gateway.rejectNextParts(1);
+
+        Future<ResponseStatus<Void>> future = execute(uploader);
+
+        assertThat(future.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(gateway.getUploads().get("some request id"), is(CONTENT));
+        assertThat(uploader.getResumeCount(), is(1L));
+    }
+
+    @Test
+    public void failsWhenPartsAreNotAccepted() throws Exception
+    {
+        ResumableUploader uploader = new ResumableUploader(0, 10, new UploadRetryPolicy(2, 1, 1), scheduler);
+        gateway.rejectNextParts(2);
+
+        Future<ResponseStatus<Void>> future = execute(uploader);
+
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(UploadFailedException.class));
+            assertThat(((UploadFailedException)e.getCause()).getResponseStatus().getCode(), is("GENERAL_ERROR"));
+        }
+    }
+
+    @Test
+    public void acceptsOnlyFilesOverThreshold() throws Exception
+    {
+        assertThat(new ResumableUploader(CONTENT.length(), 10, UploadRetryPolicy.none(), scheduler).accepts(file), is(true));
+        assertThat(new ResumableUploader(CONTENT.length() + 1, 10, UploadRetryPolicy.none(), scheduler).accepts(file), is(false));
+        assertThat(ResumableUploader.disabled().accepts(file), is(false));
+    }
+
+    private Future<ResponseStatus<Void>> execute(ResumableUploader uploader)
+    {
+        URI partUri = URI.create(gateway.getUploadUri() + "/part?rid=some+request+id");
+        return uploader.execute(uploadChannel, partUri, file, ContentType.APPLICATION_OCTET_STREAM, null);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.command.BaseCommand;
+import com.smartling.cms.gateway.client.command.DisconnectCommand;
+import com.smartling.cms.gateway.client.command.GetHtmlCommand;
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+
+public class StreamingCommandParserTest extends CommandParserTest
+{
+    @Override
+    protected CommandParser createCommandParser()
+    {
+        return new StreamingCommandParser();
+    }
+
+    @Test
+    public void matchesCommandNameIgnoringCase() throws Exception
+    {
+        BaseCommand request = commandParser.parse("{\"cmd\":\"GETRESOURCE\", \"uri\":\"fileuri\", \"rid\":\"0000\"}");
+
+        assertThat(request, instanceOf(GetResourceCommand.class));
+    }
+
+    @Test
+    public void readsFieldsInAnyOrder() throws Exception
+    {
+        BaseCommand request = commandParser.parse("{\"uri\":\"fileuri\", \"rid\":\"0000\", \"cmd\":\"getHtml\"}");
+
+        assertThat(request, instanceOf(GetHtmlCommand.class));
+        assertThat(request.getId(), is("0000"));
+        assertThat(request.getUri(), is("fileuri"));
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception
+    {
+        BaseCommand request = commandParser.parse("{\"cmd\":\"getHtml\", \"extra\":{\"a\":[1,2]}, \"uri\":\"fileuri\", \"rid\":\"0000\"}");
+
+        assertThat(request.getUri(), is("fileuri"));
+    }
+
+    @Test
+    public void parsesDisconnectReasonMessage() throws Exception
+    {
+        DisconnectCommand command = (DisconnectCommand)commandParser.parse("{\"cmd\":\"disconnect\", \"message\":\"some reason\"}");
+
+        assertThat(command.getReasonMessage(), is("some reason"));
+    }
+
+    @Test
+    public void parsesDisconnectWithoutReasonMessage() throws Exception
+    {
+        DisconnectCommand command = (DisconnectCommand)commandParser.parse("{\"cmd\":\"disconnect\"}");
+
+        assertThat(command.getReasonMessage(), nullValue());
+    }
+
+    @Test(expected = CommandParserException.class)
+    public void failsWhenRequestIdIsMissing() throws Exception
+    {
+        commandParser.parse("{\"cmd\":\"getHtml\", \"uri\":\"fileuri\"}");
+    }
+
+    @Test(expected = CommandParserException.class)
+    public void failsOnTrailingContent() throws Exception
+    {
+        commandParser.parse("{\"cmd\":\"authenticationSuccess\"} {}");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest
+{
+    @Test
+    public void allowsBurstUpToCapacity()
+    {
+        TokenBucket bucket = new TokenBucket(0.001, 3);
+
+        assertThat(bucket.tryTake(2), is(true));
+        assertThat(bucket.tryTake(1), is(true));
+        assertThat(bucket.tryTake(1), is(false));
+    }
+
+    @Test
+    public void takesAvailableTokens()
+    {
+        TokenBucket bucket = new TokenBucket(0.001, 10);
+
+        assertThat(bucket.takeUpTo(4), is(4L));
+        assertThat(bucket.takeUpTo(10), is(6L));
+        assertThat(bucket.takeUpTo(10), is(0L));
+
+        bucket.giveBack(3);
+        assertThat(bucket.takeUpTo(10), is(3L));
+    }
+
+    @Test
+    public void refillsAtRate() throws Exception
+    {
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        bucket.takeUpTo(10);
+
+        Thread.sleep(20);
+
+        assertThat(bucket.tryTake(10), is(true));
+    }
+
+    @Test
+    public void computesWaitTimeForMissingTokens()
+    {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        bucket.takeUpTo(5);
+
+        long waitTime = bucket.getWaitTime(5);
+
+        assertTrue(waitTime > 400 && waitTime <= 500);
+        assertThat(new TokenBucket(10, 5).getWaitTime(5), is(0L));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.StubUploadGateway;
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+public class UploadBatcherTest
+{
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private StubUploadGateway gateway;
+    private CloseableHttpAsyncClient uploadChannel;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        gateway = new StubUploadGateway();
+        uploadChannel = HttpAsyncClients.createDefault();
+        uploadChannel.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        uploadChannel.close();
+        gateway.stop();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsUploadsGatheredWithinDelayInOneRequest() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(50, 1024, 1024, scheduler);
+
+        Future<ResponseStatus<Void>> first = execute(batcher, "first", "first content");
+        Future<ResponseStatus<Void>> second = execute(batcher, "second", "second content");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(second.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(gateway.getRequestCount(), is(1));
+        assertThat(gateway.getUploads().get("first"), is("first content"));
+        assertThat(gateway.getUploads().get("second"), is("second content"));
+        assertThat(batcher.getBatchCount(), is(1L));
+    }
+
+    @Test
+    public void sendsBatchAsSoonAsItIsFull() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(TimeUnit.HOURS.toMillis(1), 20, 20, scheduler);
+
+        Future<ResponseStatus<Void>> first = execute(batcher, "first", "0123456789");
+        Future<ResponseStatus<Void>> second = execute(batcher, "second", "0123456789");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(second.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+    }
+
+    @Test
+    public void sendsPendingBatchWhenUploadDoesNotFit() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(TimeUnit.HOURS.toMillis(1), 20, 20, scheduler);
+
+        Future<ResponseStatus<Void>> first = execute(batcher, "first", "0123456789");
+        Future<ResponseStatus<Void>> second = execute(batcher, "second", "0123456789012");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(second.isDone(), is(false));
+
+        batcher.close();
+        assertThat(second.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(batcher.getBatchCount(), is(2L));
+    }
+
+    @Test
+    public void mapsStatusesToUploads() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(10, 1024, 1024, scheduler);
+        gateway.failRequest("second");
+
+        Future<ResponseStatus<Void>> first = execute(batcher, "first", "first content");
+        Future<ResponseStatus<Void>> second = execute(batcher, "second", "second content");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        assertThat(second.get(5, TimeUnit.SECONDS).getCode(), is("GENERAL_ERROR"));
+    }
+
+    @Test
+    public void failsAllUploadsWhenBatchFails() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(10, 1024, 1024, scheduler);
+        gateway.setHttpStatus(503);
+
+        Future<ResponseStatus<Void>> first = execute(batcher, "first", "first content");
+        Future<ResponseStatus<Void>> second = execute(batcher, "second", "second content");
+
+        assertFailedWithHttpError(first);
+        assertFailedWithHttpError(second);
+    }
+
+    @Test
+    public void acceptsOnlySmallEntitiesOfKnownLength() throws Exception
+    {
+        UploadBatcher batcher = new UploadBatcher(10, 1024, 10, scheduler);
+
+        assertThat(batcher.accepts(new StringEntity("0123456789")), is(true));
+        assertThat(batcher.accepts(new StringEntity("0123456789A")), is(false));
+        assertThat(batcher.accepts(new InputStreamEntity(IOUtils.toInputStream("0"), -1)), is(false));
+        assertThat(UploadBatcher.disabled().accepts(new StringEntity("0")), is(false));
+    }
+
+    private Future<ResponseStatus<Void>> execute(UploadBatcher batcher, String requestId, String content) throws Exception
+    {
+        return batcher.execute(uploadChannel, gateway.getBatchUri(), requestId, new StringEntity(content, ContentType.TEXT_PLAIN), null);
+    }
+
+    private static void assertFailedWithHttpError(Future<ResponseStatus<Void>> future) throws Exception
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(UploadFailedException.class));
+        }
+    }
+}
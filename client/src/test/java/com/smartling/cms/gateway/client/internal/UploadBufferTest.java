@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+public class UploadBufferTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BufferPool pool = new BufferPool(16, 100);
+
+    @Test
+    public void keepsSmallContentInPooledMemory() throws Exception
+    {
+        byte[] content = content(40);
+        UploadBuffer buffer = new UploadBuffer(pool, 64, folder.getRoot());
+
+        BufferedEntity entity = buffer.buffer(streamEntity(content));
+
+        assertThat(entity, instanceOf(MemoryBufferedEntity.class));
+        assertThat(entity.getContentLength(), is(40L));
+        assertThat(entity.getContentType().getValue(), is("image/png"));
+        assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+        assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+        assertThat(folder.getRoot().list().length, is(0));
+
+        entity.release();
+
+        assertThat(pool.getPooledCount(), is(3));
+    }
+
+    @Test
+    public void spillsLargeContentToTemporaryFile() throws Exception
+    {
+        byte[] content = content(100);
+        UploadBuffer buffer = new UploadBuffer(pool, 64, folder.getRoot());
+
+        BufferedEntity entity = buffer.buffer(streamEntity(content));
+
+        assertThat(entity, instanceOf(FileBufferedEntity.class));
+        assertThat(entity.getContentLength(), is(100L));
+        assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+        assertThat(folder.getRoot().list().length, is(1));
+
+        entity.release();
+
+        assertThat(folder.getRoot().list().length, is(0));
+    }
+
+    @Test
+    public void producesSameContentOnEachSend() throws Exception
+    {
+        byte[] content = content(1000);
+        BufferedEntity entity = new UploadBuffer(pool, 4096, null).buffer(streamEntity(content));
+
+        assertArrayEquals(content, produce(entity, 7));
+        entity.close();
+        assertArrayEquals(content, produce(entity, 1000));
+    }
+
+    @Test
+    public void producesContentFromTemporaryFile() throws Exception
+    {
+        byte[] content = content(1000);
+        BufferedEntity entity = new UploadBuffer(pool, 10, folder.getRoot()).buffer(streamEntity(content));
+
+        assertArrayEquals(content, produce(entity, 13));
+        entity.close();
+        assertArrayEquals(content, produce(entity, 13));
+        entity.release();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToProduceContentDiscardedWhileSending() throws Exception
+    {
+        BufferedEntity entity = new UploadBuffer(pool, 4096, null).buffer(streamEntity(content(1000)));
+        LimitedEncoder encoder = new LimitedEncoder(7);
+        entity.produceContent(encoder, null);
+
+        entity.discard();
+
+        entity.produceContent(encoder, null);
+    }
+
+    @Test
+    public void releasesEntityWhenUploadCompletes() throws Exception
+    {
+        BufferedEntity entity = mock(BufferedEntity.class);
+        @SuppressWarnings("unchecked")
+        FutureCallback<ResponseStatus<Void>> callback = mock(FutureCallback.class);
+        ResponseStatus<Void> status = new ResponseStatus<Void>("SUCCESS", null);
+
+        UploadBuffer.releaseOnCompletion(entity, callback).completed(status);
+
+        verify(entity).release();
+        verify(callback).completed(status);
+    }
+
+    @Test
+    public void discardsEntityWhenUploadIsCancelled() throws Exception
+    {
+        BufferedEntity entity = mock(BufferedEntity.class);
+
+        UploadBuffer.releaseOnCompletion(entity, null).cancelled();
+
+        verify(entity).discard();
+    }
+
+    private static HttpEntity streamEntity(byte[] content)
+    {
+        return new InputStreamEntity(new ByteArrayInputStream(content), ContentType.create("image/png"));
+    }
+
+    private static byte[] content(int length)
+    {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] produce(BufferedEntity entity, int bytesPerWrite) throws IOException
+    {
+        LimitedEncoder encoder = new LimitedEncoder(bytesPerWrite);
+        for (int i = 0; i < 10000 && !encoder.isCompleted(); i++)
+            entity.produceContent(encoder, null);
+        assertTrue(encoder.isCompleted());
+        return encoder.output.toByteArray();
+    }
+
+    /**
+     * Accepts at most a few bytes per write, like a congested connection.
+     */
+    private static class LimitedEncoder implements ContentEncoder
+    {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final int bytesPerWrite;
+        private boolean completed;
+
+        private LimitedEncoder(int bytesPerWrite)
+        {
+            this.bytesPerWrite = bytesPerWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer src)
+        {
+            int count = Math.min(bytesPerWrite, src.remaining());
+            for (int i = 0; i < count; i++)
+                output.write(src.get());
+            return count;
+        }
+
+        @Override
+        public void complete()
+        {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted()
+        {
+            return completed;
+        }
+    }
+}
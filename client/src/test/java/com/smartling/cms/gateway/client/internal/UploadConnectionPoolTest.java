@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Test;
+
+public class UploadConnectionPoolTest
+{
+    private final PoolingNHttpClientConnectionManager connectionManager = mock(PoolingNHttpClientConnectionManager.class);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown()
+    {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void returnsConnectionManagerStats()
+    {
+        PoolStats stats = new PoolStats(1, 2, 3, 4);
+        when(connectionManager.getTotalStats()).thenReturn(stats);
+
+        UploadConnectionPool pool = new UploadConnectionPool(connectionManager, 0, scheduler);
+
+        assertThat(pool.getStats(), is(stats));
+    }
+
+    @Test
+    public void returnsEmptyStatsWhenUnmanaged()
+    {
+        PoolStats stats = UploadConnectionPool.unmanaged().getStats();
+
+        assertThat(stats.getLeased(), is(0));
+        assertThat(stats.getPending(), is(0));
+        assertThat(stats.getAvailable(), is(0));
+    }
+
+    @Test
+    public void closesIdleAndExpiredConnections()
+    {
+        UploadConnectionPool pool = new UploadConnectionPool(connectionManager, 20, scheduler);
+        try
+        {
+            verify(connectionManager, timeout(1000).atLeastOnce()).closeIdleConnections(20, TimeUnit.MILLISECONDS);
+            verify(connectionManager, atLeastOnce()).closeExpiredConnections();
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void stopsEvictionOnCloseWithoutShuttingSchedulerDown()
+    {
+        ScheduledExecutorService sharedScheduler = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> eviction = mock(ScheduledFuture.class);
+        doReturn(eviction).when(sharedScheduler).scheduleWithFixedDelay(any(Runnable.class), eq(10L), eq(10L), eq(TimeUnit.MILLISECONDS));
+
+        new UploadConnectionPool(connectionManager, 20, sharedScheduler).close();
+
+        verify(eviction).cancel(false);
+        verify(sharedScheduler, never()).shutdownNow();
+    }
+
+    @Test
+    public void keepsIdleConnectionsWithoutIdleTimeout() throws Exception
+    {
+        UploadConnectionPool pool = new UploadConnectionPool(connectionManager, 0, scheduler);
+        Thread.sleep(50);
+        pool.close();
+
+        verifyZeroInteractions(connectionManager);
+    }
+}
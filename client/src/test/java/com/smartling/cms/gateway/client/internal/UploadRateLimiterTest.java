@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.entity.NFileEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smartling.cms.gateway.client.StubUploadGateway;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+
+public class UploadRateLimiterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private StubUploadGateway gateway;
+    private CloseableHttpAsyncClient httpClient;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        gateway = new StubUploadGateway();
+        httpClient = HttpAsyncClients.createDefault();
+        httpClient.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        httpClient.close();
+        gateway.stop();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void limitsBandwidth() throws Exception
+    {
+        UploadRateLimiter limiter = new UploadRateLimiter(40000, 4096, 0, 0, scheduler);
+        CloseableHttpAsyncClient uploadChannel = limiter.wrap(httpClient);
+        String content = StringUtils.repeat('x', 20000);
+
+        long start = System.currentTimeMillis();
+        ResponseStatus<Void> status = upload(uploadChannel, "some request id", content).get(5, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(status.getCode(), is("SUCCESS"));
+        assertThat(gateway.getUploads().get("some request id"), is(content));
+        assertTrue("Upload took " + elapsed + " ms", elapsed >= 350);
+        assertTrue(limiter.getThrottleCount() > 0);
+        assertTrue(limiter.getThrottleWaitTime() > 0);
+    }
+
+    @Test
+    public void limitsBandwidthOfFileTransferredToConnection() throws Exception
+    {
+        UploadRateLimiter limiter = new UploadRateLimiter(40000, 4096, 0, 0, scheduler);
+        CloseableHttpAsyncClient uploadChannel = limiter.wrap(httpClient);
+        String content = StringUtils.repeat('x', 20000);
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, content);
+        URI uploadUri = URI.create(gateway.getUploadUri() + "?rid=some+request+id");
+
+        long start = System.currentTimeMillis();
+        ResponseStatus<Void> status = UploadRetrier.disabled().execute(uploadChannel, uploadUri,
+                new NFileEntity(file, ContentType.APPLICATION_OCTET_STREAM), null).get(5, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(status.getCode(), is("SUCCESS"));
+        assertThat(gateway.getUploads().get("some request id"), is(content));
+        assertTrue("Upload took " + elapsed + " ms", elapsed >= 350);
+        assertTrue(limiter.getThrottleCount() > 0);
+    }
+
+    @Test
+    public void limitsRequestRate() throws Exception
+    {
+        UploadRateLimiter limiter = new UploadRateLimiter(0, 0, 10, 1, scheduler);
+        CloseableHttpAsyncClient uploadChannel = limiter.wrap(httpClient);
+
+        long start = System.currentTimeMillis();
+        List<Future<ResponseStatus<Void>>> futures = new ArrayList<Future<ResponseStatus<Void>>>();
+        for (int i = 0; i < 4; i++)
+            futures.add(upload(uploadChannel, "request " + i, "some content"));
+        for (Future<ResponseStatus<Void>> future : futures)
+            assertThat(future.get(5, TimeUnit.SECONDS).getCode(), is("SUCCESS"));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Uploads took " + elapsed + " ms", elapsed >= 250);
+        assertThat(gateway.getUploads().size(), is(4));
+        assertThat(limiter.getThrottleCount() >= 3, is(true));
+    }
+
+    @Test
+    public void doesNotWrapChannelWhenUnlimited()
+    {
+        CloseableHttpAsyncClient uploadChannel = mock(CloseableHttpAsyncClient.class);
+
+        assertThat(UploadRateLimiter.unlimited().wrap(uploadChannel), sameInstance(uploadChannel));
+    }
+
+    private Future<ResponseStatus<Void>> upload(CloseableHttpAsyncClient uploadChannel, String requestId, String content) throws Exception
+    {
+        URI uploadUri = URI.create(gateway.getUploadUri() + "?rid=" + requestId.replace(' ', '+'));
+        InputStreamEntity entity = new InputStreamEntity(IOUtils.toInputStream(content), -1);
+        return UploadRetrier.disabled().execute(uploadChannel, uploadUri, entity, null);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.command.UploadRetryPolicy;
+
+public class UploadRetrierTest
+{
+    private static final URI UPLOAD_URI = URI.create("http://upload/?rid=some+request+id");
+    private static final String SUCCESS = "{\"response\":{\"code\":\"SUCCESS\"}}";
+    private static final String GENERAL_ERROR = "{\"response\":{\"code\":\"GENERAL_ERROR\"}}";
+
+    private final CloseableHttpAsyncClient uploadChannel = mock(CloseableHttpAsyncClient.class);
+    private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    private final LinkedList<Object> outcomes = new LinkedList<Object>();
+
+    @Before
+    public void setUp()
+    {
+        when(uploadChannel.execute(any(HttpUriRequest.class), Mockito.<FutureCallback<HttpResponse>>any())).thenAnswer(new Answer<Future<HttpResponse>>()
+        {
+            @Override
+            public Future<HttpResponse> answer(InvocationOnMock invocation) throws Throwable
+            {
+                @SuppressWarnings("unchecked")
+                FutureCallback<HttpResponse> callback = (FutureCallback<HttpResponse>)invocation.getArguments()[1];
+                Object outcome = outcomes.removeFirst();
+                if (outcome instanceof Exception)
+                    callback.failed((Exception)outcome);
+                else
+                    callback.completed((HttpResponse)outcome);
+                return null;
+            }
+        });
+        when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                ((Runnable)invocation.getArguments()[0]).run();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void retriesErrorStatusUntilSuccess() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(3, 10, 100), scheduler);
+        respond(200, GENERAL_ERROR);
+        respond(503, "");
+        respond(200, SUCCESS);
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, new StringEntity("body"), null);
+
+        assertThat(future.get().getCode(), is("SUCCESS"));
+        assertThat(retrier.getRetryCount(), is(2L));
+        verify(uploadChannel, times(3)).execute(any(HttpUriRequest.class), Mockito.<FutureCallback<HttpResponse>>any());
+    }
+
+    @Test
+    public void retriesIoErrors() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(2, 10, 100), scheduler);
+        outcomes.add(new IOException("connection reset"));
+        respond(200, SUCCESS);
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, new StringEntity("body"), null);
+
+        assertThat(future.get().getCode(), is("SUCCESS"));
+    }
+
+    @Test
+    public void returnsLastStatusWhenAttemptsAreUsedUp() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(2, 10, 100), scheduler);
+        respond(200, GENERAL_ERROR);
+        respond(200, GENERAL_ERROR);
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, new StringEntity("body"), null);
+
+        assertThat(future.get().getCode(), is("GENERAL_ERROR"));
+        assertThat(retrier.getRetryCount(), is(1L));
+    }
+
+    @Test
+    public void failsWithoutRetryOnClientError() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(3, 10, 100), scheduler);
+        respond(400, "{\"response\":{\"code\":\"VALIDATION_ERROR\"}}");
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, new StringEntity("body"), null);
+
+        assertFailedWith(future, UploadFailedException.class);
+        assertThat(retrier.getRetryCount(), is(0L));
+    }
+
+    @Test
+    public void doesNotRetryStreamedEntity() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(3, 10, 100), scheduler);
+        outcomes.add(new IOException("connection reset"));
+        HttpEntity entity = new InputStreamEntity(new ByteArrayInputStream(new byte[1]));
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, entity, null);
+
+        assertFailedWith(future, IOException.class);
+    }
+
+    @Test
+    public void stopsRetryingWhenBudgetIsUsedUp() throws Exception
+    {
+        UploadRetrier retrier = new UploadRetrier(new UploadRetryPolicy(3, 10, 100, 0, 1), scheduler);
+        respond(503, "");
+        respond(503, "");
+
+        Future<ResponseStatus<Void>> future = retrier.execute(uploadChannel, UPLOAD_URI, new StringEntity("body"), null);
+
+        assertFailedWith(future, UploadFailedException.class);
+        assertThat(retrier.getRetryCount(), is(1L));
+        assertThat(retrier.getBudgetExhaustedCount(), is(1L));
+    }
+
+    private void respond(int statusCode, String body) throws Exception
+    {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "Status " + statusCode);
+        response.setEntity(new StringEntity(body));
+        outcomes.add(response);
+    }
+
+    private static void assertFailedWith(Future<ResponseStatus<Void>> future, Class<? extends Exception> errorClass) throws InterruptedException
+    {
+        try
+        {
+            future.get();
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(errorClass));
+        }
+    }
+}
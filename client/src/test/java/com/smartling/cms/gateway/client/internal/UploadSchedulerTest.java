@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+import com.smartling.cms.gateway.client.UploadFailedException;
+import com.smartling.cms.gateway.client.api.model.ResponseStatus;
+import com.smartling.cms.gateway.client.api.model.Status;
+import com.smartling.cms.gateway.client.upload.UploadPriority;
+
+public class UploadSchedulerTest
+{
+    private final LinkedList<FutureCallback<ResponseStatus<Void>>> running = new LinkedList<FutureCallback<ResponseStatus<Void>>>();
+    private final List<String> started = new ArrayList<String>();
+
+    @Test
+    public void startsUploadsUpToLimit() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(2, CommandExecutors.directExecutor());
+
+        submit(scheduler, UploadPriority.NORMAL, "first");
+        submit(scheduler, UploadPriority.NORMAL, "second");
+        Future<ResponseStatus<Void>> third = submit(scheduler, UploadPriority.NORMAL, "third");
+
+        assertThat(started.size(), is(2));
+        assertThat(scheduler.getQueuedCount(), is(1));
+
+        completeNext();
+        assertThat(started.size(), is(3));
+        assertThat(scheduler.getInFlightCount(), is(2));
+
+        completeNext();
+        completeNext();
+        assertThat(third.get().getCode(), is("SUCCESS"));
+        assertThat(scheduler.getInFlightCount(), is(0));
+    }
+
+    @Test
+    public void startsHighPriorityUploadsFirst() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(1, CommandExecutors.directExecutor());
+        submit(scheduler, UploadPriority.NORMAL, "running");
+        submit(scheduler, UploadPriority.LOW, "low");
+        submit(scheduler, UploadPriority.NORMAL, "normal");
+        submit(scheduler, UploadPriority.HIGH, "high");
+
+        completeNext();
+
+        assertThat(started.get(1), is("high"));
+    }
+
+    @Test
+    public void sharesSlotsByWeight() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(1, CommandExecutors.directExecutor());
+        submit(scheduler, UploadPriority.NORMAL, "running");
+        for (int i = 0; i < 40; i++)
+        {
+            submit(scheduler, UploadPriority.HIGH, "high");
+            submit(scheduler, UploadPriority.NORMAL, "normal");
+            submit(scheduler, UploadPriority.LOW, "low");
+        }
+
+        started.clear();
+        for (int i = 0; i < 21; i++)
+            completeNext();
+
+        assertThat(count("high"), is(16));
+        assertThat(count("normal"), is(4));
+        assertThat(count("low"), is(1));
+        assertThat(scheduler.getQueuedCount(UploadPriority.HIGH), is(24));
+    }
+
+    @Test
+    public void releasesSlotWhenUploadFailsToStart() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(1, CommandExecutors.directExecutor());
+        Future<ResponseStatus<Void>> failing = scheduler.submit(UploadPriority.NORMAL, new UploadScheduler.Upload()
+        {
+            @Override
+            public void start(FutureCallback<ResponseStatus<Void>> callback) throws Exception
+            {
+                throw new IllegalStateException("some error");
+            }
+        }, null);
+
+        submit(scheduler, UploadPriority.NORMAL, "next");
+
+        assertThat(failing.isDone(), is(true));
+        assertThat(started.size(), is(1));
+    }
+
+    @Test
+    public void startsMoreUploadsAsAdaptiveLimitGrows() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(new AimdLimit(1, 4), CommandExecutors.directExecutor());
+        for (int i = 0; i < 10; i++)
+            submit(scheduler, UploadPriority.NORMAL, "upload");
+
+        completeNext();
+
+        assertThat(scheduler.getLimit(), is(2));
+        assertThat(scheduler.getInFlightCount(), is(2));
+        assertThat(started.size(), is(3));
+    }
+
+    @Test
+    public void startsFewerUploadsAfterOverload() throws Exception
+    {
+        UploadScheduler scheduler = new UploadScheduler(new AimdLimit(1, 4, 0.5, AimdLimit.DEFAULT_RTT_TOLERANCE), CommandExecutors.directExecutor());
+        for (int i = 0; i < 10; i++)
+            submit(scheduler, UploadPriority.NORMAL, "upload");
+        completeNext();
+        completeNext();
+        assertThat(scheduler.getInFlightCount(), is(2));
+
+        running.removeFirst().failed(new UploadFailedException("overloaded", 503, null));
+
+        assertThat(scheduler.getLimit(), is(1));
+        assertThat(scheduler.getInFlightCount(), is(1));
+    }
+
+    @Test
+    public void startsEveryUploadWhenUnlimited() throws Exception
+    {
+        UploadScheduler scheduler = UploadScheduler.unlimited();
+
+        for (int i = 0; i < 100; i++)
+            submit(scheduler, UploadPriority.LOW, "low");
+
+        assertThat(started.size(), is(100));
+        assertThat(scheduler.getQueuedCount(), is(0));
+    }
+
+    private Future<ResponseStatus<Void>> submit(UploadScheduler scheduler, UploadPriority priority, final String name)
+    {
+        return scheduler.submit(priority, new UploadScheduler.Upload()
+        {
+            @Override
+            public void start(FutureCallback<ResponseStatus<Void>> callback)
+            {
+                started.add(name);
+                running.add(callback);
+            }
+        }, null);
+    }
+
+    private void completeNext()
+    {
+        running.removeFirst().completed(new ResponseStatus<Void>(Status.SUCCESS));
+    }
+
+    private int count(String name)
+    {
+        int count = 0;
+        for (String upload : started)
+        {
+            if (upload.equals(name))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smartling.cms.gateway.client.command.GetResourceCommand;
+
+public class CompressionPolicyTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FileUpload upload = new FileUpload(new GetResourceCommand("some request id", "some file uri"));
+    private final CompressionPolicy policy = new CompressionPolicy(10, CompressionPolicy.TEXT_CONTENT_TYPES, true);
+
+    @Test
+    public void compressesAllowedContentTypes()
+    {
+        assertTrue(policy.shouldCompress(upload, entity(20, "text/html; charset=UTF-8")));
+        assertTrue(policy.shouldCompress(upload, entity(20, "application/json")));
+        assertTrue(policy.shouldCompress(upload, entity(20, "image/svg+xml")));
+        assertFalse(policy.shouldCompress(upload, entity(20, "application/octet-stream")));
+    }
+
+    @Test
+    public void skipsSmallContent()
+    {
+        assertFalse(policy.shouldCompress(upload, entity(9, "text/css")));
+    }
+
+    @Test
+    public void compressesContentOfUnknownLength()
+    {
+        HttpEntity entity = new InputStreamEntity(IOUtils.toInputStream("small"), -1, ContentType.TEXT_PLAIN);
+
+        assertTrue(policy.shouldCompress(upload, entity));
+    }
+
+    @Test
+    public void skipsCompressedContent() throws Exception
+    {
+        CompressionPolicy anything = new CompressionPolicy(0, Arrays.asList("application/*", "image/*"), true);
+
+        assertFalse(anything.shouldCompress(upload, entity(20, "image/png")));
+        assertFalse(anything.shouldCompress(upload, entity(20, "application/zip")));
+
+        File archive = folder.newFile("some.tar.gz");
+        upload.setContentFile(archive);
+        assertFalse(anything.shouldCompress(upload, entity(20, "application/x-tar")));
+    }
+
+    @Test
+    public void compressesCompressedContentWhenAllowed()
+    {
+        CompressionPolicy anything = new CompressionPolicy(0, Arrays.asList("image/*"), false);
+
+        assertTrue(anything.shouldCompress(upload, entity(20, "image/png")));
+    }
+
+    @Test
+    public void skipsEncodedContent()
+    {
+        ByteArrayEntity entity = entity(20, "text/html");
+        entity.setContentEncoding("gzip");
+
+        assertFalse(policy.shouldCompress(upload, entity));
+    }
+
+    @Test
+    public void doesNotWrapEntityWhenDisabled()
+    {
+        HttpEntity entity = entity(2000, "text/html");
+
+        assertSame(entity, CompressionPolicy.none().apply(upload, entity));
+    }
+
+    private static ByteArrayEntity entity(int length, String contentType)
+    {
+        ByteArrayEntity entity = new ByteArrayEntity(new byte[length]);
+        entity.setContentType(contentType);
+        return entity;
+    }
+}
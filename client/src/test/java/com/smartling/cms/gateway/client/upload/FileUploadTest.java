@@ -16,20 +16,27 @@
 package com.smartling.cms.gateway.client.upload;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -38,6 +45,9 @@ import com.smartling.cms.gateway.client.command.GetResourceCommand;
 
 public class FileUploadTest
 {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private GetResourceCommand resourceCommand;
 
@@ -81,6 +91,56 @@ public class FileUploadTest
         assertTrue(entity.isChunked());
     }
 
+    @Test
+    public void sendsContentFileWithKnownLength() throws Exception
+    {
+        File file = folder.newFile("image.png");
+        FileUtils.writeStringToFile(file, "file body", Charsets.UTF_8);
+        response.setContentType("image/png", null);
+
+        response.setContentFile(file);
+        HttpEntity entity = response.getHttpEntity();
+
+        assertThat(entity, instanceOf(HttpAsyncContentProducer.class));
+        assertFalse(entity.isChunked());
+        assertEquals(9, entity.getContentLength());
+        assertEquals("image/png", entity.getContentType().getValue());
+        assertEquals("file body", IOUtils.toString(entity.getContent()));
+    }
+
+    @Test
+    public void contentStreamReplacesContentFile() throws Exception
+    {
+        response.setContentFile(folder.newFile());
+
+        response.setContentStream(new ByteArrayInputStream("body".getBytes(Charsets.UTF_8)));
+
+        assertEquals(null, response.getContentFile());
+        assertEquals("body", IOUtils.toString(response.getHttpEntity().getContent()));
+    }
+
+    @Test
+    public void sendsContentInMemoryWithKnownLengthRepeatedly() throws Exception
+    {
+        response.setContentStream(new ByteArrayInputStream("ignored".getBytes(Charsets.UTF_8)));
+
+        response.setContent("body".getBytes(Charsets.UTF_8));
+        HttpEntity entity = response.getHttpEntity();
+
+        assertTrue(response.isRepeatable());
+        assertTrue(entity.isRepeatable());
+        assertEquals(4, entity.getContentLength());
+        assertEquals("body", IOUtils.toString(entity.getContent()));
+        assertEquals("body", IOUtils.toString(response.getInputStream()));
+        assertEquals("body", IOUtils.toString(response.getInputStream()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validatesContentFileExists() throws Exception
+    {
+        response.setContentFile(new File(folder.getRoot(), "missing"));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void validatesContentTypeWhenEmpty() throws Exception
     {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+public class GzipEntityTest
+{
+    private static final byte[] CONTENT = makeContent();
+
+    @Test
+    public void compressesContentStream() throws Exception
+    {
+        HttpEntity entity = new GzipEntity(new ByteArrayEntity(CONTENT));
+
+        assertArrayEquals(CONTENT, gunzip(entity.getContent()));
+        assertArrayEquals(CONTENT, gunzip(entity.getContent()));
+    }
+
+    @Test
+    public void readsContentStreamByteByByte() throws Exception
+    {
+        InputStream content = new GzipEntity(new ByteArrayEntity("some content".getBytes("UTF-8"))).getContent();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int b = content.read(); b >= 0; b = content.read())
+            compressed.write(b);
+
+        assertEquals("some content", new String(gunzip(new ByteArrayInputStream(compressed.toByteArray())), "UTF-8"));
+    }
+
+    @Test
+    public void compressesWrittenContent() throws Exception
+    {
+        HttpEntity entity = new GzipEntity(new ByteArrayEntity(CONTENT));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        entity.writeTo(output);
+
+        assertArrayEquals(CONTENT, gunzip(new ByteArrayInputStream(output.toByteArray())));
+        assertTrue(output.size() < CONTENT.length);
+    }
+
+    @Test
+    public void setsContentEncoding() throws Exception
+    {
+        HttpEntity entity = new GzipEntity(new ByteArrayEntity(CONTENT));
+
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        assertEquals(-1, entity.getContentLength());
+        assertTrue(entity.isChunked());
+        assertTrue(entity.isRepeatable());
+    }
+
+    private static byte[] gunzip(InputStream compressed) throws Exception
+    {
+        return IOUtils.toByteArray(new GZIPInputStream(compressed));
+    }
+
+    private static byte[] makeContent()
+    {
+        StringBuilder content = new StringBuilder();
+        Random random = new Random(1);
+        while (content.length() < 100000)
+            content.append("<p>some text ").append(random.nextInt(1000)).append("</p>\n");
+        return content.toString().getBytes();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Smartling, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this work except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smartling.cms.gateway.client.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class HtmlJsonEntityTest
+{
+    private static final String TRICKY_BODY = "<p class=\"a\">\\ \u0001\t\r\n\u2028 \u00e9\u4e2d\ud83d\ude00</p>";
+    private static final String UNPAIRED_SURROGATE = "\ud800";
+
+    @Test
+    public void writesSameJsonAsGson() throws Exception
+    {
+        JsonObject expected = new JsonObject();
+        expected.addProperty("baseUrl", "http://base/\u00e9");
+        expected.addProperty("body", TRICKY_BODY);
+        expected.addProperty("publicUrl", "http://public/\"");
+
+        HttpEntity entity = new HtmlJsonEntity("http://base/\u00e9", "http://public/\"", TRICKY_BODY);
+
+        assertEquals(expected.toString(), IOUtils.toString(entity.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void knowsContentLengthOfStringBody() throws Exception
+    {
+        HttpEntity entity = new HtmlJsonEntity("base", null, TRICKY_BODY + UNPAIRED_SURROGATE);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        entity.writeTo(output);
+
+        assertEquals(output.size(), entity.getContentLength());
+        assertTrue(entity.isRepeatable());
+        assertFalse(entity.isChunked());
+    }
+
+    @Test
+    public void streamsReaderBodyChunked() throws Exception
+    {
+        String body = StringUtils.repeat("\"page\" \u00e9 ", 10000);
+
+        HttpEntity entity = new HtmlJsonEntity(null, "", new StringReader(body));
+
+        assertEquals(-1, entity.getContentLength());
+        assertTrue(entity.isChunked());
+        assertTrue(entity.isStreaming());
+
+        JsonObject json = (JsonObject)new JsonParser().parse(IOUtils.toString(entity.getContent(), "UTF-8"));
+        assertEquals(body, json.get("body").getAsString());
+        assertTrue(json.get("baseUrl").isJsonNull());
+        assertFalse(json.has("publicUrl"));
+        assertFalse(entity.isStreaming());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readerBodyIsNotRepeatable() throws Exception
+    {
+        HttpEntity entity = new HtmlJsonEntity("base", null, new StringReader("body"));
+
+        entity.getContent();
+        entity.getContent();
+    }
+}
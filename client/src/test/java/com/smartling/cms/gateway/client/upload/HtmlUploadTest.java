@@ -17,8 +17,11 @@ package com.smartling.cms.gateway.client.upload;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
@@ -67,6 +70,20 @@ public class HtmlUploadTest
         assertEquals("base url", json.get("baseUrl").getAsString());
     }
 
+    @Test
+    public void keepsContentAsStringBodyWithKnownLength() throws Exception
+    {
+        response.setContentStream(new ByteArrayInputStream("ignored".getBytes("UTF-8")));
+
+        response.setContent("resource body".getBytes("UTF-8"));
+        HttpEntity entity = response.getHttpEntity();
+
+        assertTrue(response.isRepeatable());
+        assertTrue(entity.isRepeatable());
+        assertTrue(entity.getContentLength() > 0);
+        assertEquals("resource body", parse(entity).get("body").getAsString());
+    }
+
     private JsonObject responseWith(String body, String baseUrl, String publicUrl) throws IOException
     {
         response.setBody(body);
@@ -74,10 +91,70 @@ public class HtmlUploadTest
         if (!publicUrl.equals(NO_PUBLIC_URL))
             response.setPublicUrl(publicUrl);
 
-        HttpEntity entity = response.getHttpEntity();
+        return parse(response.getHttpEntity());
+    }
 
+    private static JsonObject parse(HttpEntity entity) throws IOException
+    {
         JsonParser parser = new JsonParser();
-        return (JsonObject)parser.parse(IOUtils.toString(entity.getContent()));
+        return (JsonObject)parser.parse(IOUtils.toString(entity.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void knowsContentLengthOfStringBody() throws Exception
+    {
+        response.setBody("resource body");
+
+        HttpEntity entity = response.getHttpEntity();
+
+        assertEquals(IOUtils.toByteArray(entity.getContent()).length, entity.getContentLength());
+    }
+
+    @Test
+    public void readsBodyFromReader() throws Exception
+    {
+        response.setBody(new StringReader("reader body"));
+
+        assertEquals("reader body", parse(response.getHttpEntity()).get("body").getAsString());
+    }
+
+    @Test
+    public void decodesContentStreamAsUtf8() throws Exception
+    {
+        response.setContentStream(new ByteArrayInputStream("\u00e9t\u00e9".getBytes("UTF-8")));
+
+        assertEquals("\u00e9t\u00e9", parse(response.getHttpEntity()).get("body").getAsString());
+    }
+
+    @Test
+    public void returnsBodyAsUtf8InputStream() throws Exception
+    {
+        response.setBody("\u00e9t\u00e9");
+
+        assertEquals("\u00e9t\u00e9", IOUtils.toString(response.getInputStream(), "UTF-8"));
+    }
+
+    @Test
+    public void copiesUrlsForAnotherRequest() throws Exception
+    {
+        response.setBaseUrl("base url");
+        response.setPublicUrl("public url");
+
+        HtmlUpload copy = response.forRequest(resourceCommand);
+
+        assertEquals("base url", copy.getBaseUrl());
+        assertEquals("public url", copy.getPublicUrl());
+    }
+
+    @Test
+    public void hasHighPriorityByDefault() throws Exception
+    {
+        assertEquals(UploadPriority.HIGH, response.getPriority());
+
+        response.setPriority(UploadPriority.LOW);
+
+        assertEquals(UploadPriority.LOW, response.getPriority());
+        assertEquals(UploadPriority.LOW, response.forRequest(resourceCommand).getPriority());
     }
 
     @Test